@@ -0,0 +1,46 @@
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RunAutomaton;
+import regex.AutomatonCompiler;
+import regex.Regex;
+
+/**
+ * Test evaluator using a DFA. Each candidate is compiled into a 
+ * dk.brics.automaton.RunAutomaton, so every test runs in linear time in the
+ * length of the test word.
+ */
+
+public class AutomatonTestEvaluator implements TestEvaluator {
+	
+	// Builds the candidate DFAs
+	private AutomatonCompiler compiler;
+	
+	/**
+	 * Basic Constructor
+	 */
+	public AutomatonTestEvaluator() {
+		this(new AutomatonCompiler(false));
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param compiler the compiler used to build the candidate DFAs
+	 */
+	public AutomatonTestEvaluator(AutomatonCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	@Override
+	public CandidateMatcher compile(Regex re) {
+		Automaton dfa = compiler.compile(re);
+		// no tableize: a 64K class map per candidate costs more than it saves
+		final RunAutomaton run = new RunAutomaton(dfa, false);
+		return new CandidateMatcher() {
+			@Override
+			public boolean matches(String word) {
+				return run.run(word);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,248 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import regex.Regex;
+
+/**
+ * Grades many (target, input) pairs in one JVM. Pairs are read one per line,
+ * either as JSON objects ({"id": ..., "target": ..., "input": ...}, id is
+ * optional) or as tab separated "target, input" or "id, target, input"
+ * lines. Empty lines and TSV lines starting with # are skipped.
+ *
+ * Pairs are searched on a pool of worker threads, with the options of the
+ * command line. A result line is written as soon as a search is over, so
+ * results come in completion order and carry the id of their pair (the line
+ * number if none is given), in the format of the input line:
+ *
+ *   {"id": ..., "answer": ..., "distance": ..., "enumerated": ...,
+ *    "validated": ..., "ms": ...}          or {"id": ..., "error": ...}
+ *   id, answer, distance, enumerated, validated, ms   or id, ERROR, message
+ *
+ * The target DFA and tests are built once per distinct target, and shared by
+ * all the pairs with that target. Counter examples learned by the searches
+ * (-learn) are only given to the searches of later batches, so the results
+ * of a batch don't depend on the order its searches finish in.
+ */
+
+public class BatchChecker {
+
+	// Pairs read ahead of the workers, per worker
+	public static final int QUEUED_PER_THREAD = 4;
+
+	// The search options
+	private Checker.Options options;
+	// Number of worker threads
+	private int threads;
+	// Where results are written
+	private Writer out;
+	// Target artefacts, by target regex
+	private TargetCache targets;
+	// How many pairs were graded, and how many of them failed?
+	private long gradedCounter;
+	private long failedCounter;
+	// How long the whole batch took
+	private long elapsedNanos;
+
+	/**
+	 * A pair to grade
+	 */
+	private static class Submission {
+		String id;
+		String target;
+		String input;
+		// Was it given as JSON?
+		boolean json;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param options the search options
+	 * @param threads number of pairs graded at the same time
+	 * @param out where to write the results
+	 * @param targets the target artefacts to use and fill in
+	 */
+	public BatchChecker(Checker.Options options, int threads, Writer out,
+			TargetCache targets) {
+		this.options = options;
+		this.threads = Math.max(1, threads);
+		this.out = out;
+		this.targets = targets;
+	}
+
+	/**
+	 * Grades all the pairs of a reader, and waits for the results
+	 *
+	 * @param in the pairs, one per line
+	 */
+	public void run(BufferedReader in) throws IOException,
+			InterruptedException {
+		long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		final Semaphore queued = new Semaphore(QUEUED_PER_THREAD * threads);
+		try {
+			String line;
+			long lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				final Submission s;
+				try {
+					s = parse(line, lineNumber);
+				}
+				catch (IllegalArgumentException e) {
+					write(error(line.trim().startsWith("{"),
+							String.valueOf(lineNumber), e.getMessage()));
+					continue;
+				}
+				if (s == null)
+					continue;
+				queued.acquire();
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							write(grade(s));
+						}
+						finally {
+							queued.release();
+						}
+					}
+				});
+			}
+		}
+		finally {
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			targets.commitLearned();
+			elapsedNanos = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Reads a pair from a line
+	 *
+	 * @return the pair, or null for a line to skip
+	 * @throws IllegalArgumentException if the line is not a valid pair
+	 */
+	private static Submission parse(String line, long lineNumber) {
+		String trimmed = line.trim();
+		if (trimmed.isEmpty())
+			return null;
+		Submission s = new Submission();
+		s.id = String.valueOf(lineNumber);
+		if (trimmed.startsWith("{")) {
+			LinkedHashMap<String, String> fields = Json.parseObject(trimmed);
+			s.json = true;
+			if (fields.get("id") != null)
+				s.id = fields.get("id");
+			s.target = fields.get("target");
+			s.input = fields.get("input");
+		}
+		else {
+			if (trimmed.startsWith("#"))
+				return null;
+			String[] columns = line.split("\t");
+			if (columns.length == 3) {
+				s.id = columns[0];
+				s.target = columns[1];
+				s.input = columns[2];
+			}
+			else if (columns.length == 2) {
+				s.target = columns[0];
+				s.input = columns[1];
+			}
+		}
+		if (s.target == null || s.input == null)
+			throw new IllegalArgumentException("expected a target and an input");
+		return s;
+	}
+
+	/**
+	 * Runs the search of a pair
+	 *
+	 * @return the result line
+	 */
+	private String grade(Submission s) {
+		long start = System.nanoTime();
+		Enumerator e = null;
+		try {
+			e = new Enumerator(targets.get(s.target), s.input);
+			options.configure(e);
+			Regex re = options.search(e);
+			long ms = (System.nanoTime() - start) / 1000000;
+			count(re != null);
+			if (re == null)
+				return error(s.json, s.id, "no repair found");
+			if (s.json)
+				return "{\"id\": " + Json.quote(s.id) + ", \"answer\": "
+						+ Json.quote(re.toString()) + ", \"distance\": "
+						+ re.getDistance() + ", \"enumerated\": "
+						+ e.getTestingCounter() + ", \"validated\": "
+						+ e.getValidationCounter() + ", \"ms\": " + ms + "}";
+			return s.id + "\t" + re + "\t" + re.getDistance() + "\t"
+					+ e.getTestingCounter() + "\t" + e.getValidationCounter()
+					+ "\t" + ms;
+		}
+		catch (RuntimeException ex) {
+			count(false);
+			return error(s.json, s.id, String.valueOf(ex));
+		}
+		catch (StackOverflowError ex) {
+			count(false);
+			return error(s.json, s.id, "regex too deep");
+		}
+		finally {
+			if (e != null)
+				e.close();
+		}
+	}
+
+	/**
+	 * An error result line
+	 */
+	private static String error(boolean json, String id, String message) {
+		if (json)
+			return "{\"id\": " + Json.quote(id) + ", \"error\": "
+					+ Json.quote(message) + "}";
+		return id + "\tERROR\t" + message.replace('\t', ' ');
+	}
+
+	/**
+	 * Writes a result line, and flushes it
+	 */
+	private void write(String line) {
+		synchronized (out) {
+			try {
+				out.write(line);
+				out.write('\n');
+				out.flush();
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Could not write a result", e);
+			}
+		}
+	}
+
+	private synchronized void count(boolean graded) {
+		if (graded)
+			gradedCounter++;
+		else
+			failedCounter++;
+	}
+
+	/**
+	 * A summary of the batch: pairs, targets and time
+	 */
+	public synchronized String getSummary() {
+		return "Graded " + gradedCounter + " pairs (" + failedCounter
+				+ " failed) for " + targets.size() + " targets in "
+				+ elapsedNanos / 1000000 + " ms";
+	}
+
+}
@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import regex.Regex;
+
+/**
+ * Best-first (A*) version of the Enumerator search. Candidates are taken in
+ * order of distance + estimated remaining changes, where the estimate is the
+ * largest of a few admissible heuristics. A regex equivalent to the target
+ * has estimate 0, so when it is taken, no other candidate can lead to a
+ * smaller distance: the answer still has minimum distance.
+ *
+ * Like the BFS enumerator, a candidate is not expanded as soon as it is
+ * tested: it goes back to the open list with priority distance + 1, which is
+ * a lower bound for all of its children, and is only expanded when that
+ * priority comes up.
+ *
+ * Ties are broken in favour of candidates over expansions, then of larger
+ * distance (the estimate is smaller, so the candidate is closer to done),
+ * then in enumeration order.
+ */
+
+public class BestFirstSearch {
+
+	// The enumerator holding the initial regex, target and tests
+	private Enumerator enumerator;
+	// The lower bounds we combine
+	private Heuristic[] heuristics;
+	// Candidates waiting to be tested and expanded
+	private PriorityQueue<Entry> open;
+	// Enumeration order of the next candidate
+	private long sequence;
+	// Drops duplicate candidates (null if disabled)
+	private Deduplicator deduplicator;
+	// How many regexes have we tested?
+	private int testingCounter;
+	// How many regexes passed the tests and needed to be valiated?
+	private int validationCounter;
+	// How many regexes have we expanded?
+	private long expansionCounter;
+	// For each heuristic, how many candidates it gave the best bound for
+	private long[] bestBoundCounter;
+	// For each heuristic, the sum of its bounds
+	private long[] boundSum;
+
+	/**
+	 * A candidate (or a tested candidate to expand) in the open list
+	 */
+	private static class Entry implements Comparable<Entry> {
+		Regex re;
+		// Is it a tested candidate waiting for expansion?
+		boolean expansion;
+		// distance + estimate
+		int priority;
+		int estimate;
+		long sequence;
+
+		@Override
+		public int compareTo(Entry e) {
+			if (priority != e.priority)
+				return priority < e.priority ? -1 : 1;
+			if (expansion != e.expansion)
+				return expansion ? 1 : -1;
+			if (estimate != e.estimate)
+				return estimate < e.estimate ? -1 : 1;
+			return sequence < e.sequence ? -1 : (sequence == e.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param enumerator The enumerator holding the initial regex, target and
+	 * tests. Counter examples found by the search are added to it.
+	 * @param heuristics the admissible lower bounds to use (none means plain
+	 * uniform cost search)
+	 */
+	public BestFirstSearch(Enumerator enumerator, List<Heuristic> heuristics) {
+		this.enumerator = enumerator;
+		this.heuristics = heuristics.toArray(new Heuristic[heuristics.size()]);
+		open = new PriorityQueue<Entry>();
+		if (enumerator.isDeduplicating())
+			deduplicator = new Deduplicator(false);
+		bestBoundCounter = new long[this.heuristics.length];
+		boundSum = new long[this.heuristics.length];
+	}
+
+	/**
+	 * Runs the search
+	 *
+	 * @return the regex with minimum # of changes that is equivalent to
+	 * target, or null if the enumeration runs out of candidates
+	 */
+	public Regex run() {
+		push(enumerator.getInitial());
+		while (!open.isEmpty()) {
+			Entry e = open.poll();
+			Regex re = e.re;
+			if (e.expansion) {
+				expansionCounter++;
+				for (Regex child : enumerator.expand(re))
+					if (deduplicator == null || deduplicator.isNew(child))
+						push(child);
+				continue;
+			}
+
+			testingCounter++;
+			if (enumerator.passesTests(re)) {
+				validationCounter++;
+				String counterExample = enumerator.findCounterExample(re);
+				if (counterExample == null)
+					return re;
+				enumerator.addTest(counterExample);
+			}
+			e.expansion = true;
+			e.priority = re.getDistance() + 1;
+			e.estimate = 0;
+			open.add(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Estimates a candidate and adds it to the open list
+	 */
+	private void push(Regex re) {
+		int estimate = 0;
+		int best = -1;
+		for (int i = 0; i < heuristics.length; i++) {
+			int h = heuristics[i].estimate(re);
+			boundSum[i] += h;
+			if (h > estimate) {
+				estimate = h;
+				best = i;
+			}
+		}
+		if (best != -1)
+			bestBoundCounter[best]++;
+
+		Entry e = new Entry();
+		e.re = re;
+		e.estimate = estimate;
+		e.priority = re.getDistance() + estimate;
+		e.sequence = sequence++;
+		open.add(e);
+	}
+
+	/**
+	 * A report of the search: expanded candidates, and for every heuristic
+	 * how often it gave the best bound and its average bound
+	 */
+	public ArrayList<String> getReport() {
+		ArrayList<String> report = new ArrayList<String>();
+		report.add("Regexes expanded: " + expansionCounter
+				+ ", still open: " + open.size());
+		long estimated = sequence == 0 ? 1 : sequence;
+		for (int i = 0; i < heuristics.length; i++)
+			report.add("Heuristic " + heuristics[i].getName() + ": best bound for "
+					+ bestBoundCounter[i] + " of " + sequence
+					+ " regexes, average bound "
+					+ String.format("%.2f", (double)boundSum[i] / estimated));
+		return report;
+	}
+
+	/**
+	 * The deduplicator of the search (null if disabled)
+	 */
+	public Deduplicator getDeduplicator() {
+		return deduplicator;
+	}
+
+	/**
+	 * How many regexes have we tested?
+	 */
+	public int getTestingCounter() {
+		return testingCounter;
+	}
+
+	/**
+	 * How many regexes passed the tests and were validated?
+	 */
+	public int getValidationCounter() {
+		return validationCounter;
+	}
+
+	/**
+	 * How many regexes have we expanded?
+	 */
+	public long getExpansionCounter() {
+		return expansionCounter;
+	}
+
+}
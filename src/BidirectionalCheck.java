@@ -0,0 +1,57 @@
+import regex.Regex;
+
+/**
+ * Checks the bidirectional search against the plain BFS on pairs where the
+ * two sides meet: the repair must have as many changes, and the search
+ * must test fewer candidates.
+ *
+ * Usage: java BidirectionalCheck [target input]...
+ *
+ * Prints, for each pair, the repair and the number of candidates tested by
+ * each search, and throws an IllegalStateException if the bidirectional
+ * search doesn't do better.
+ */
+
+public class BidirectionalCheck {
+
+	// The (target, input) pairs checked by default
+	private static final String[][] PAIRS = {{"a(b|c)*", "a(b|c)"},
+			{"(ab|b)*a", "(a|b)*"}, {"(a|b)*abb", "b*a(b|a)"},
+			{"(a|b)*a(a|b)", "b*a*"}, {"a(a|b)*b", "(a|b)*"}};
+
+	public static void main(String[] args) {
+		String[][] pairs = PAIRS;
+		if (args.length > 0) {
+			pairs = new String[args.length / 2][];
+			for (int i = 0; i < pairs.length; i++)
+				pairs[i] = new String[] {args[2 * i], args[2 * i + 1]};
+		}
+
+		System.out.printf("%-14s %-10s %8s %8s  %s%n", "target", "input",
+				"bfs", "bidir", "repair");
+		for (String[] pair : pairs) {
+			TargetArtefacts artefacts = new TargetArtefacts(pair[0]);
+			Enumerator bfs = new Enumerator(artefacts, pair[1]);
+			Regex expected = bfs.getNext();
+			bfs.close();
+			Enumerator bidir = new Enumerator(artefacts, pair[1]);
+			Regex re = bidir.getNextBidirectional();
+			bidir.close();
+
+			if (re == null || re.getDistance() != expected.getDistance())
+				throw new IllegalStateException("The bidirectional search "
+						+ "changed " + pair[1] + " into " + re + " instead of "
+						+ expected + " (" + expected.getDistance()
+						+ " steps)");
+			if (bidir.getTestingCounter() >= bfs.getTestingCounter())
+				throw new IllegalStateException("The bidirectional search "
+						+ "tested " + bidir.getTestingCounter() + " candidates "
+						+ "from " + pair[1] + ", the BFS "
+						+ bfs.getTestingCounter());
+			System.out.printf("%-14s %-10s %8d %8d  %s in %d steps%n", pair[0],
+					pair[1], bfs.getTestingCounter(),
+					bidir.getTestingCounter(), re, re.getDistance());
+		}
+	}
+
+}
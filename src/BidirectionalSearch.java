@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import regex.Regex;
+
+/**
+ * Bidirectional (meet in the middle) version of the Enumerator search. The
+ * forward side is the usual BFS from the initial regex, one level at a time.
+ * The backward side is a BFS from the target regex over inverse changes
+ * (Regex.enumerateInverseChanges()). Both sides remember the normal forms
+ * of the trees they have reached; a tree reached from both sides, at
+ * distances d1 and d2, means the initial regex can be changed into the
+ * target in d1 + d2 steps.
+ *
+ * The side with the smaller frontier grows first. The forward side tests
+ * and validates each level once, in order, as the BFS does, so once it has
+ * tested the levels up to d without an answer, no repair has fewer than 
+ * d + 1 changes. A meeting that long is then a shortest repair: instead of
+ * building and testing the next forward level, the forward edit path 
+ * through the meeting is rebuilt (from the forward tree of the meeting, 
+ * the change leading to the next tree of the backward path is looked up 
+ * among its expansions, down to the target tree), and its end is validated
+ * like any other candidate. The answer has as many changes as the one of 
+ * the plain BFS, but it may be another regex with that many changes: the 
+ * target tree itself, when the path ends there.
+ *
+ * If the path can't be rebuilt (the forward markers don't allow every order
+ * of changes), the meeting is dropped and the forward side goes on.
+ */
+
+public class BidirectionalSearch {
+
+	// Stop growing the backward side past this depth
+	public static final int MAX_BACKWARD_DEPTH = 4;
+
+	// The enumerator holding the initial regex, target and tests
+	private Enumerator enumerator;
+	// Normal forms reached from the initial regex, with the first tree that
+	// reached them
+	private HashMap<String, Regex> forwardSeen;
+	// Normal forms reached from the target, with their distance
+	private HashMap<String, Integer> backwardSeen;
+	// Normal form of the tree each backward tree was reached from (one 
+	// change closer to the target)
+	private HashMap<String, String> backwardParent;
+	// The current forward and backward levels
+	private ArrayList<Regex> forwardLevel;
+	private ArrayList<Regex> backwardLevel;
+	// How many candidates of the forward level were tested?
+	private int forwardTested;
+	private int forwardDepth;
+	private int backwardDepth;
+	// Drops duplicate forward candidates (null if disabled)
+	private Deduplicator deduplicator;
+	// Length of the best meeting found so far
+	private int bestMeeting;
+	// The forward tree of the best meeting
+	private Regex meetingRegex;
+	// How many meetings were found?
+	private long meetingCounter;
+	// How many regexes have we tested?
+	private int testingCounter;
+	// How many regexes passed the tests and needed to be valiated?
+	private int validationCounter;
+
+	/**
+	 * Constructor
+	 *
+	 * @param enumerator The enumerator holding the initial regex, target and
+	 * tests. Counter examples found by the search are added to it.
+	 */
+	public BidirectionalSearch(Enumerator enumerator) {
+		this.enumerator = enumerator;
+		forwardSeen = new HashMap<String, Regex>();
+		backwardSeen = new HashMap<String, Integer>();
+		backwardParent = new HashMap<String, String>();
+		forwardLevel = new ArrayList<Regex>();
+		backwardLevel = new ArrayList<Regex>();
+		if (enumerator.isDeduplicating())
+			deduplicator = new Deduplicator();
+		bestMeeting = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Runs the search
+	 *
+	 * @return the regex with minimum # of changes that is equivalent to
+	 * target, or null if the forward side runs out of candidates and no
+	 * meeting leads to a repair
+	 */
+	public Regex run() {
+		Regex target = enumerator.getTarget();
+		backwardLevel.add(target);
+		backwardSeen.put(target.getNormalForm(), 0);
+		forwardLevel.add(enumerator.getInitial());
+		forwardSeen.put(enumerator.getInitial().getNormalForm(),
+				enumerator.getInitial());
+
+		while (true) {
+			// no repair has fewer changes than the untested forward level
+			int shortest = forwardTested < forwardLevel.size() ? forwardDepth
+					: forwardDepth + 1;
+			if (meetingRegex != null && (bestMeeting <= shortest 
+					|| forwardLevel.isEmpty())) {
+				Regex answer = followMeeting();
+				if (answer != null)
+					return answer;
+			}
+			else if (forwardTested < forwardLevel.size()) {
+				Regex answer = testForwardLevel();
+				if (answer != null)
+					return answer;
+			}
+			else if (forwardLevel.isEmpty())
+				return null;
+			else if (backwardDepth < MAX_BACKWARD_DEPTH 
+					&& !backwardLevel.isEmpty()
+					&& backwardLevel.size() < forwardLevel.size())
+				growBackward();
+			else
+				growForward();
+		}
+	}
+
+	/**
+	 * Tests and validates the candidates of the current forward level not 
+	 * tested yet, in order, as the BFS does
+	 *
+	 * @return a regex equivalent to the target, or null
+	 */
+	private Regex testForwardLevel() {
+		while (forwardTested < forwardLevel.size()) {
+			Regex re = forwardLevel.get(forwardTested++);
+			testingCounter++;
+			if (enumerator.passesTests(re)) {
+				validationCounter++;
+				String counterExample = enumerator.findCounterExample(re);
+				if (counterExample == null)
+					return re;
+				enumerator.addTest(counterExample);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the forward level by the next one
+	 */
+	private void growForward() {
+		ArrayList<Regex> next = new ArrayList<Regex>();
+		for (Regex parent : forwardLevel)
+			for (Regex re : enumerator.expand(parent)) {
+				if (deduplicator != null && !deduplicator.isNew(re))
+					continue;
+				next.add(re);
+				String key = re.getNormalForm();
+				if (!forwardSeen.containsKey(key))
+					forwardSeen.put(key, re);
+				Integer d = backwardSeen.get(key);
+				if (d != null)
+					meet(re, re.getDistance() + d);
+			}
+		forwardLevel = next;
+		forwardTested = 0;
+		forwardDepth++;
+	}
+
+	/**
+	 * Replaces the backward level by the next one
+	 */
+	private void growBackward() {
+		ArrayList<Character> alphabet = enumerator.getAlphabet();
+		ArrayList<Regex> next = new ArrayList<Regex>();
+		for (Regex parent : backwardLevel)
+			for (Regex re : parent.enumerateInverseChanges(alphabet)) {
+				String key = re.getNormalForm();
+				if (backwardSeen.containsKey(key))
+					continue;
+				backwardSeen.put(key, re.getDistance());
+				backwardParent.put(key, parent.getNormalForm());
+				next.add(re);
+				Regex forward = forwardSeen.get(key);
+				if (forward != null)
+					meet(forward, forward.getDistance() + re.getDistance());
+			}
+		backwardLevel = next;
+		backwardDepth++;
+	}
+
+	/**
+	 * Records a meeting if it is the best one so far
+	 *
+	 * @param re the forward tree of the meeting
+	 * @param length the total number of changes
+	 */
+	private void meet(Regex re, int length) {
+		meetingCounter++;
+		if (length < bestMeeting) {
+			bestMeeting = length;
+			meetingRegex = re;
+		}
+	}
+
+	/**
+	 * Rebuilds the forward edit path through the best meeting, and validates
+	 * its end. The meeting is used up either way: if the path can't be
+	 * rebuilt or its end doesn't validate, the bound is dropped and the
+	 * forward side goes on.
+	 *
+	 * @return the end of the path, if it is equivalent to the target
+	 */
+	private Regex followMeeting() {
+		Regex re = meetingRegex;
+		meetingRegex = null;
+		bestMeeting = Integer.MAX_VALUE;
+		String key = re.getNormalForm();
+		while (backwardParent.containsKey(key)) {
+			String next = backwardParent.get(key);
+			Regex step = null;
+			for (Regex child : re.enumeratePossibleChanges())
+				if (child.getNormalForm().equals(next)) {
+					step = child;
+					break;
+				}
+			if (step == null)
+				return null;
+			re = step;
+			key = next;
+		}
+		testingCounter++;
+		if (!enumerator.passesTests(re))
+			return null;
+		validationCounter++;
+		String counterExample = enumerator.findCounterExample(re);
+		if (counterExample == null)
+			return re;
+		enumerator.addTest(counterExample);
+		return null;
+	}
+
+	/**
+	 * A report of the search: depth and size of each side, and meetings
+	 */
+	public ArrayList<String> getReport() {
+		ArrayList<String> report = new ArrayList<String>();
+		report.add("Forward depth: " + forwardDepth + ", "
+				+ forwardSeen.size() + " trees reached");
+		report.add("Backward depth: " + backwardDepth + ", "
+				+ backwardSeen.size() + " trees reached");
+		report.add("Meetings: " + meetingCounter + (meetingRegex == null ? ""
+				: ", best in " + bestMeeting + " steps (through "
+						+ meetingRegex + ")"));
+		return report;
+	}
+
+	/**
+	 * The deduplicator of the forward side (null if disabled)
+	 */
+	public Deduplicator getDeduplicator() {
+		return deduplicator;
+	}
+
+	/**
+	 * How many regexes have we tested?
+	 */
+	public int getTestingCounter() {
+		return testingCounter;
+	}
+
+	/**
+	 * How many regexes passed the tests and were validated?
+	 */
+	public int getValidationCounter() {
+		return validationCounter;
+	}
+
+}
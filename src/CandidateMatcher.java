@@ -0,0 +1,16 @@
+/**
+ * A compiled candidate regex that can decide whether a word is in its 
+ * language.
+ */
+
+public interface CandidateMatcher {
+	
+	/**
+	 * Checks if the whole word is matched by the candidate
+	 * 
+	 * @param word The word we want to check
+	 * @return whether or not the word is in the candidate language
+	 */
+	public boolean matches(String word);
+	
+}
@@ -1,6 +1,15 @@
-import java.sql.Time;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Scanner;
 
+import dk.brics.automaton.Automaton;
+import regex.AutomatonCompiler;
 import regex.Regex;
 
 /**
@@ -13,28 +22,167 @@ import regex.Regex;
 
 public class Checker {
 	
+	/**
+	 * Options:
+	 *   -engine=glushkov run the tests on the bit-parallel Glushkov automaton
+	 *                    of each candidate (default)
+	 *   -engine=dfa      run the tests on a DFA per candidate
+	 *   -engine=pattern  run the tests with java.util.regex
+	 *   -memo            memoize the automata of candidate subtrees
+	 *   -validate=hk     validate candidates on their minimal DFA with a 
+	 *                    Hopcroft-Karp equivalence check (default)
+	 *   -validate=antichain  validate candidates on their NFA with antichain
+	 *                    inclusion checks
+	 *   -determinize-threads=N  determinize large automata with N threads
+	 *   -minimize=hopcroft  minimize automata with Hopcroft's algorithm 
+	 *                    (default), or with valmari, huffman or brzozowski
+	 *   -threads=N       run expansion, test filtering and validation as a 
+	 *                    pipeline with N test filter threads (not with 
+	 *                    -compact, -delta, -heap-budget, -expand-threads or 
+	 *                    -checkpoint)
+	 *   -expand-threads=N  expand each regex with a fork/join pool of N 
+	 *                    threads
+	 *   -no-dedup        don't drop duplicate candidates
+	 *   -compact         keep the queued candidates packed into arrays
+	 *   -delta           keep the queued candidates as their parent and 
+	 *                    edit, and build them when they are taken
+	 *   -heap-budget=MB  spill the queued candidates to disk once the used
+	 *                    heap is over MB megabytes
+	 *   -checkpoint=FILE checkpoint the search to FILE (BFS search only)
+	 *   -checkpoint-interval=S  seconds between two checkpoints (default 60)
+	 *   -resume          resume the search from the -checkpoint file, if it
+	 *                    exists
+	 *   -search=astar    best-first search, ordered by distance plus a lower
+	 *                    bound on the changes still needed
+	 *   -heuristics=h1,h2  lower bounds for -search=astar, out of 
+	 *                    missing-symbols and nullability (default: both)
+	 *   -search=bidir    bidirectional search, from the input regex and from
+	 *                    the target, meeting in the middle
+	 *   -batch=FILE      grade the (target, input) pairs of FILE (JSONL or 
+	 *                    TSV, - for stdin) instead of reading one pair; see
+	 *                    BatchChecker
+	 *   -batch-threads=N grade N pairs at a time (default: one per core)
+	 *   -max-nodes=N     stop a search after testing N candidates
+	 *   -max-ms=MS       stop a search after MS milliseconds (default: no
+	 *                    limit, 60000 with -serve)
+	 *   -serve=PORT      run as a grading service on localhost:PORT (see 
+	 *                    GradingService)
+	 *   -serve-threads=N run N searches at a time (default: one per core)
+	 *   -serve-queue=N   turn requests down when N jobs are waiting 
+	 *                    (default 64)
+	 *   -target-cache=DIR  store the target DFAs and tests in DIR, with the
+	 *                    counter examples learned by the searches, and load
+	 *                    them from there (see TargetCache)
+	 *   -target-cache-size=N  keep at most N targets in memory (default 256)
+	 *   -learn=N         give the later searches of a target up to N counter
+	 *                    examples found by the earlier ones (default 0:
+	 *                    none). They are learned after the search, after the
+	 *                    whole batch with -batch, and once no search of the
+	 *                    target is running with -serve.
+	 */
 	public static void main(String[] args) {
 		
+		Options options;
+		try {
+			options = Options.parse(args);
+		}
+		catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.exit(1);
+			return;
+		}
+		Automaton.setDeterminizeParallelism(options.determinizeThreads);
+		Automaton.setMinimization(options.minimizationAlgorithm());
+		if (options.batchFile != null) {
+			runBatch(options);
+			return;
+		}
+		if (options.servePort >= 0) {
+			runService(options);
+			return;
+		}
+		
 		Scanner in = new Scanner (System.in);
 		System.out.print("Enter Target Regex: ");
 		String target = in.nextLine();
 		System.out.print("Enter Regex: ");
 		String s = in.nextLine();
 		
-		Enumerator e = new Enumerator(target , s);
+		TargetCache targets = null;
+		Enumerator e;
+		if (options.targetCacheDir != null && options.checkpointFile != null) {
+			// learned tests would change the outcomes the checkpoint replays
+			System.err.println("The target cache can't be used with a "
+					+ "checkpoint; not using it");
+			e = new Enumerator(target , s);
+		}
+		else if (options.targetCacheDir != null) {
+			targets = options.makeTargetCache();
+			e = new Enumerator(targets.get(target), s);
+		}
+		else
+			e = new Enumerator(target , s);
+		options.configure(e);
 		int largestDistance = 0;
-		
-		// Uncomment below for checker in practice
-		//*
-		long now = System.nanoTime();
-		Regex re = e.getNext();
-		long end = System.nanoTime();
-		System.out.println(s + " can be changed to " + re + " in " 
-							+ re.getDistance() + " steps.");
-		System.out.println("Regexes enumerated: " + e.getTestingCounter());
-		System.out.println("Regexes validated: " + e.getValidationCounter());
-		System.out.println("Elapsed time: " + ((end - now) / 1000000) + " ms");
-		//*/
+		try {
+			if (options.checkpointFile != null) {
+				try {
+					e.setCheckpoint(new File(options.checkpointFile), 
+							options.checkpointInterval * 1000, options.resume);
+				}
+				catch (IOException ex) {
+					System.err.println("Could not open the checkpoint: " 
+							+ ex.getMessage());
+					return;
+				}
+			}
+			// Uncomment below for checker in practice
+			//*
+			long now = System.nanoTime();
+			Regex re;
+			try {
+				re = options.search(e);
+			}
+			catch (SearchAbortedException ex) {
+				System.out.println("Search stopped: " + ex.getMessage());
+				return;
+			}
+			finally {
+				if (targets != null) {
+					targets.commitLearned();
+					targets.flush();
+				}
+			}
+			long end = System.nanoTime();
+			// the best-first and bidirectional searches can run out of 
+			// candidates
+			if (re == null)
+				System.out.println(s + ": no repair found.");
+			else
+				System.out.println(s + " can be changed to " + re + " in "
+									+ re.getDistance() + " steps.");
+			System.out.println("Regexes enumerated: " 
+					+ e.getTestingCounter());
+			System.out.println("Regexes validated: " 
+					+ e.getValidationCounter());
+			System.out.println("Duplicates dropped: " 
+					+ e.getDuplicateCounter());
+			System.out.println("Elapsed time: " + ((end - now) / 1000000) + " ms");
+			for (Frontier.LevelStats level : e.getLevelStats())
+				System.out.println(level);
+			for (String line : e.getSpillReport())
+				System.out.println(line);
+			if (e.getCheckpointReport() != null)
+				for (String line : e.getCheckpointReport())
+					System.out.println(line);
+			if (e.getSearchReport() != null)
+				for (String line : e.getSearchReport())
+					System.out.println(line);
+			//*/
+		}
+		finally {
+			e.close();
+		}
 		
 		
 		// to see first few enumerations, uncomment below
@@ -61,5 +209,274 @@ public class Checker {
 		}
 		//*/
 	}
+	
+	/**
+	 * Grades the pairs of the -batch file, writing the results to stdout
+	 */
+	private static void runBatch(Options options) {
+		TargetCache targets = options.makeTargetCache();
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					options.batchFile.equals("-") ? System.in
+							: new FileInputStream(options.batchFile),
+					StandardCharsets.UTF_8));
+			BatchChecker batch = new BatchChecker(options, 
+					options.batchThreads, new OutputStreamWriter(System.out, 
+							StandardCharsets.UTF_8), targets);
+			batch.run(in);
+			in.close();
+			targets.flush();
+			System.err.println(batch.getSummary());
+			System.err.println(targets.getReport());
+		}
+		catch (IOException ex) {
+			System.err.println("Could not read the batch: " + ex.getMessage());
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Runs the grading service until the JVM is stopped
+	 */
+	private static void runService(Options options) {
+		GradingService service = new GradingService(options, 
+				options.serveThreads, options.serveQueue, options.maxNodes,
+				options.maxMillis == 0 ? 60000 : options.maxMillis,
+				options.makeTargetCache());
+		try {
+			int port = service.start(options.servePort);
+			System.out.println("Grading service listening on localhost:" 
+					+ port);
+		}
+		catch (IOException ex) {
+			System.err.println("Could not start the service: " 
+					+ ex.getMessage());
+		}
+	}
+	
+	/**
+	 * The command line options (see main()), and how they set up and run a
+	 * search
+	 */
+	public static class Options {
+		String engine = "glushkov";
+		boolean memoize = false;
+		String validation = "hk";
+		int determinizeThreads = 1;
+		String minimization = "hopcroft";
+		int threads = 1;
+		int expandThreads = 1;
+		boolean deduplicate = true;
+		boolean compact = false;
+		boolean delta = false;
+		long heapBudget = 0;
+		String checkpointFile = null;
+		long checkpointInterval = 60;
+		boolean resume = false;
+		String search = "bfs";
+		String heuristicNames = "missing-symbols,nullability";
+		String batchFile = null;
+		int batchThreads = Runtime.getRuntime().availableProcessors();
+		long maxNodes = 0;
+		long maxMillis = 0;
+		int servePort = -1;
+		int serveThreads = Runtime.getRuntime().availableProcessors();
+		int serveQueue = 64;
+		String targetCacheDir = null;
+		int targetCacheSize = TargetCache.DEFAULT_CAPACITY;
+		int learnLimit = 0;
+		
+		/**
+		 * Parses the options. Unknown ones are reported and skipped.
+		 * 
+		 * @param args the command line arguments
+		 * @return the options
+		 */
+		public static Options parse(String[] args) {
+			Options o = new Options();
+			for (String arg : args) {
+				if (arg.startsWith("-engine="))
+					o.engine = arg.substring("-engine=".length());
+				else if (arg.equals("-memo"))
+					o.memoize = true;
+				else if (arg.startsWith("-validate="))
+					o.validation = arg.substring("-validate=".length());
+				else if (arg.startsWith("-determinize-threads="))
+					o.determinizeThreads = Integer.parseInt(
+							arg.substring("-determinize-threads=".length()));
+				else if (arg.startsWith("-minimize="))
+					o.minimization = arg.substring("-minimize=".length());
+				else if (arg.startsWith("-threads="))
+					o.threads = Integer.parseInt(
+							arg.substring("-threads=".length()));
+				else if (arg.startsWith("-search="))
+					o.search = arg.substring("-search=".length());
+				else if (arg.startsWith("-heuristics="))
+					o.heuristicNames = arg.substring("-heuristics=".length());
+				else if (arg.equals("-no-dedup"))
+					o.deduplicate = false;
+				else if (arg.equals("-compact"))
+					o.compact = true;
+				else if (arg.equals("-delta"))
+					o.delta = true;
+				else if (arg.startsWith("-heap-budget="))
+					o.heapBudget = Long.parseLong(
+							arg.substring("-heap-budget=".length()));
+				else if (arg.startsWith("-checkpoint="))
+					o.checkpointFile = arg.substring("-checkpoint=".length());
+				else if (arg.startsWith("-checkpoint-interval="))
+					o.checkpointInterval = Long.parseLong(
+							arg.substring("-checkpoint-interval=".length()));
+				else if (arg.equals("-resume"))
+					o.resume = true;
+				else if (arg.startsWith("-expand-threads="))
+					o.expandThreads = Integer.parseInt(
+							arg.substring("-expand-threads=".length()));
+				else if (arg.startsWith("-batch="))
+					o.batchFile = arg.substring("-batch=".length());
+				else if (arg.startsWith("-batch-threads="))
+					o.batchThreads = Integer.parseInt(
+							arg.substring("-batch-threads=".length()));
+				else if (arg.startsWith("-max-nodes="))
+					o.maxNodes = Long.parseLong(
+							arg.substring("-max-nodes=".length()));
+				else if (arg.startsWith("-max-ms="))
+					o.maxMillis = Long.parseLong(
+							arg.substring("-max-ms=".length()));
+				else if (arg.startsWith("-serve="))
+					o.servePort = Integer.parseInt(
+							arg.substring("-serve=".length()));
+				else if (arg.startsWith("-serve-threads="))
+					o.serveThreads = Integer.parseInt(
+							arg.substring("-serve-threads=".length()));
+				else if (arg.startsWith("-serve-queue="))
+					o.serveQueue = Integer.parseInt(
+							arg.substring("-serve-queue=".length()));
+				else if (arg.startsWith("-target-cache="))
+					o.targetCacheDir = arg.substring("-target-cache=".length());
+				else if (arg.startsWith("-target-cache-size="))
+					o.targetCacheSize = Integer.parseInt(
+							arg.substring("-target-cache-size=".length()));
+				else if (arg.startsWith("-learn="))
+					o.learnLimit = Integer.parseInt(
+							arg.substring("-learn=".length()));
+				else
+					System.err.println("Unknown option: " + arg);
+			}
+			o.check();
+			return o;
+		}
+		
+		/**
+		 * Rejects the options that don't go together
+		 * 
+		 * @throws IllegalArgumentException if some options don't
+		 */
+		private void check() {
+			boolean pipeline = search.equals("bfs") && threads > 1;
+			if (checkpointFile != null && (pipeline || !search.equals("bfs")))
+				throw new IllegalArgumentException("-checkpoint only works "
+						+ "with the BFS search on one thread");
+			// the pipeline keeps its own queue, in memory
+			if (pipeline && (compact || delta || heapBudget > 0 
+					|| expandThreads > 1))
+				throw new IllegalArgumentException("-threads=N can't be used "
+						+ "with -compact, -delta, -heap-budget or "
+						+ "-expand-threads");
+		}
+		
+		/**
+		 * A new target cache for the -target-cache options
+		 */
+		public TargetCache makeTargetCache() {
+			return new TargetCache(targetCacheSize, targetCacheDir == null 
+					? null : new File(targetCacheDir), learnLimit);
+		}
+		
+		/**
+		 * The dk.brics.automaton minimization algorithm of the -minimize
+		 * option (Hopcroft's if it is unknown)
+		 */
+		public int minimizationAlgorithm() {
+			if (minimization.equals("valmari"))
+				return Automaton.MINIMIZE_VALMARI;
+			else if (minimization.equals("huffman"))
+				return Automaton.MINIMIZE_HUFFMAN;
+			else if (minimization.equals("brzozowski"))
+				return Automaton.MINIMIZE_BRZOZOWSKI;
+			else if (!minimization.equals("hopcroft"))
+				System.err.println("Unknown minimization: " + minimization);
+			return Automaton.MINIMIZE_HOPCROFT;
+		}
+
+		/**
+		 * A new test evaluator for the -engine option
+		 */
+		public TestEvaluator makeEvaluator() {
+			if (engine.equals("pattern"))
+				return new PatternTestEvaluator();
+			else if (engine.equals("dfa"))
+				return new AutomatonTestEvaluator(
+						new AutomatonCompiler(memoize));
+			else
+				return new GlushkovTestEvaluator();
+		}
+		
+		/**
+		 * Applies the options to an enumerator (except the checkpoint). The
+		 * time budget starts now.
+		 */
+		public void configure(Enumerator e) {
+			e.setTestEvaluator(makeEvaluator());
+			e.setMemoization(memoize);
+			e.setAntichainValidation(validation.equals("antichain"));
+			e.setExpansionThreads(expandThreads);
+			e.setDeduplication(deduplicate);
+			e.setCompactFrontier(compact);
+			e.setDeltaFrontier(delta);
+			e.setHeapBudget(heapBudget);
+			e.setBudget(maxNodes, maxMillis);
+		}
+		
+		/**
+		 * Runs the search chosen by the options
+		 * 
+		 * @return the regex with minimum # of changes that is equivalent to
+		 * target
+		 */
+		public Regex search(Enumerator e) {
+			if (search.equals("astar"))
+				return e.getNextBestFirst(makeHeuristics(e, heuristicNames));
+			else if (search.equals("bidir"))
+				return e.getNextBidirectional();
+			else if (threads > 1)
+				return e.getNextParallel(threads);
+			else
+				return e.getNext();
+		}
+	}
+	
+	/**
+	 * Builds the heuristics for the best-first search
+	 * 
+	 * @param e the enumerator (for its target)
+	 * @param names comma separated heuristic names
+	 * @return the heuristics
+	 */
+	private static ArrayList<Heuristic> makeHeuristics(Enumerator e, 
+			String names) {
+		ArrayList<Heuristic> heuristics = new ArrayList<Heuristic>();
+		for (String name : names.split(",")) {
+			if (name.equals("missing-symbols"))
+				heuristics.add(new MissingSymbolHeuristic(e.getTargetDFA()));
+			else if (name.equals("nullability"))
+				heuristics.add(new NullabilityHeuristic(e.getTargetDFA()));
+			else if (!name.isEmpty())
+				System.err.println("Unknown heuristic: " + name);
+		}
+		return heuristics;
+	}
 
 }
@@ -0,0 +1,706 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Checkpoint file of a BFS search (Enumerator.getNext()). The file starts 
+ * with a snapshot of the search: the counters, the tests, and the frontier
+ * (see Enumerator.writeState()). A resumed enumerator starts from there.
+ *
+ * A snapshot is a sequence of blocks (see SnapshotWriter), streamed to a 
+ * new file. The blocks that didn't change since the last snapshot (the 
+ * chunks of the frontier that were already tested) are copied from the old
+ * file, so only the chunks sealed since are encoded. Snapshots still cost 
+ * as much as the frontier, so most checkpoints only log what happened 
+ * since the snapshot: the outcome of the tests of every candidate
+ * (2 bits each) and the counter examples found by validation. The search is
+ * deterministic, so a resumed enumerator goes through that tail again, 
+ * taking the outcomes from the file instead of running the tests and 
+ * validations. Once replaying the tail would cost more than writing the
+ * frontier, the next checkpoint writes a new snapshot instead, and the file
+ * starts over with it.
+ *
+ * After the snapshot, the file is append-only: for every checkpoint the 
+ * outcomes and counter examples since the previous one, and a commit 
+ * record with the counters. A record cut by a crash is dropped when 
+ * resuming, and a new snapshot replaces the file atomically.
+ */
+
+public class Checkpoint {
+
+	// Test outcomes
+	public static final byte FAILS_POSITIVE = 0;
+	public static final byte FAILS_NEGATIVE = 1;
+	public static final byte PASSES = 2;
+	// File header
+	private static final int MAGIC = 0x52434b50;
+	private static final int VERSION = 3;
+	// Replaying a logged candidate costs about as much as writing this many
+	// frontier entries in a snapshot
+	private static final int REPLAY_COST = 16;
+	// Record tags
+	private static final byte SNAPSHOT = 'S';
+	private static final byte OUTCOMES = 'O';
+	private static final byte WORD = 'W';
+	private static final byte COMMIT = 'K';
+
+	// The checkpoint file
+	private File file;
+	// Identifies the search (see the constructor)
+	private String search;
+	private FileOutputStream fileOut;
+	private DataOutputStream out;
+	// Minimum time between two checkpoints
+	private long intervalNanos;
+	// When the last checkpoint was written
+	private long lastCheckpoint;
+	// Outcomes and counter examples since the last checkpoint
+	private byte[] pendingOutcomes;
+	private int pendingCount;
+	private ArrayList<String> pendingWords;
+	// Outcomes and counter examples read from the file, 4 outcomes per byte
+	// (null once the replay is over)
+	private byte[] replayOutcomes;
+	private long replayCount;
+	private long replayed;
+	private ArrayDeque<String> replayWords;
+	// Counters of the last checkpoint in the file
+	private int replayTestingCounter;
+	private int replayValidationCounter;
+	// Where the snapshot is in the file (-1 if none, or once it is taken)
+	private long snapshotOffset = -1;
+	private long snapshotLength;
+	// Identifies the snapshot we wrote last, if it is the one in the file
+	// (0 if not), and the last identifier given
+	private long fileSnapshotId;
+	private long lastSnapshotId;
+	// Candidates logged since the snapshot
+	private long loggedSinceSnapshot;
+	// Testing counter of the snapshot we resumed from
+	private int resumedAt;
+	// How many checkpoints (and snapshots) were written, and how long they
+	// took
+	private long checkpointCounter;
+	private long snapshotCounter;
+	private long writeNanos;
+	private long maxWriteNanos;
+
+	/**
+	 * Opens a checkpoint file. If resuming and the file exists, the search 
+	 * starts from its snapshot (getSnapshot()), and the outcomes logged 
+	 * after it are replayed; otherwise a new file is started, and should 
+	 * get a snapshot of the search before it starts.
+	 *
+	 * @param file the checkpoint file
+	 * @param search identifies the search (target, input and options); must
+	 * be the one the file was started with
+	 * @param intervalMillis minimum time between two checkpoints
+	 * @param resume whether or not to resume from the file
+	 */
+	public Checkpoint(File file, String search, long intervalMillis,
+			boolean resume) throws IOException {
+		this.file = file;
+		this.search = search;
+		intervalNanos = intervalMillis * 1000000;
+		pendingOutcomes = new byte[1024];
+		pendingWords = new ArrayList<String>();
+		replayOutcomes = new byte[0];
+		replayWords = new ArrayDeque<String>();
+
+		long length = 0;
+		if (resume && file.exists())
+			length = read(search);
+		if (length == 0) {
+			// nothing to replay
+			replayOutcomes = null;
+			replayWords.clear();
+			snapshotOffset = -1;
+			fileOut = new FileOutputStream(file);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			writeHeader(out);
+			out.flush();
+		}
+		else {
+			// drop what follows the last commit record
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(length);
+			raf.close();
+			fileOut = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut));
+		}
+		lastCheckpoint = System.nanoTime();
+	}
+
+	/**
+	 * Reads the file, up to its last commit record
+	 *
+	 * @param search the search we are resuming
+	 * @return length of the file up to the last commit record (0 if it has
+	 * none)
+	 */
+	private long read(String search) throws IOException {
+		CountingInputStream counted = new CountingInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		DataInputStream in = new DataInputStream(counted);
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not a checkpoint file");
+			if (!in.readUTF().equals(search))
+				throw new IOException(file 
+						+ " is the checkpoint of another search");
+			return readRecords(in, counted);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the records of the file, after the header. The snapshot is 
+	 * skipped, it is read when the search resumes (see getSnapshot()).
+	 *
+	 * @param counted counts the bytes read
+	 * @return length of the file up to the last commit record (0 if it has
+	 * none)
+	 */
+	private long readRecords(DataInputStream in, CountingInputStream counted)
+			throws IOException {
+		long committed = 0;
+		long outcomes = 0;
+		int words = 0;
+		ArrayList<String> allWords = new ArrayList<String>();
+		long lastSnapshot = -1;
+		long lastSnapshotLength = 0;
+		int snapshotAt = -1;
+		try {
+			while (true) {
+				byte tag = in.readByte();
+				if (tag == SNAPSHOT && lastSnapshot < 0 && outcomes == 0) {
+					// only at the start, the log follows it
+					lastSnapshotLength = in.readLong();
+					lastSnapshot = counted.getCount();
+					for (long left = lastSnapshotLength; left > 0; ) {
+						long n = in.skip(left);
+						if (n == 0 && in.read() < 0)
+							throw new EOFException();
+						left -= Math.max(n, 1);
+					}
+				}
+				else if (tag == OUTCOMES) {
+					int count = in.readInt();
+					ensureReplayCapacity(outcomes + count);
+					for (int i = 0; i < count; i += 4) {
+						byte packed = in.readByte();
+						for (int j = i; j < Math.min(count, i + 4); j++)
+							setOutcome(outcomes + j,
+									(byte)((packed >> (2 * (j - i))) & 3));
+					}
+					outcomes += count;
+				}
+				else if (tag == WORD) {
+					allWords.add(in.readUTF());
+				}
+				else if (tag == COMMIT) {
+					int testingCounter = in.readInt();
+					int validationCounter = in.readInt();
+					replayTestingCounter = testingCounter;
+					replayValidationCounter = validationCounter;
+					replayCount = outcomes;
+					words = allWords.size();
+					if (snapshotAt < 0)
+						snapshotAt = testingCounter;
+					snapshotOffset = lastSnapshot;
+					snapshotLength = lastSnapshotLength;
+					resumedAt = lastSnapshot < 0 ? 0 : snapshotAt;
+					committed = counted.getCount();
+				}
+				else {
+					break;
+				}
+			}
+		}
+		catch (EOFException e) {
+			// the last record was cut
+		}
+		replayWords.addAll(allWords.subList(0, words));
+		loggedSinceSnapshot = replayCount;
+		return committed;
+	}
+
+	private void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(search);
+	}
+
+	/**
+	 * The snapshot the search resumes from (null if there is none: the 
+	 * search starts from the beginning). Only given once, and must be 
+	 * closed once read.
+	 */
+	public SnapshotReader getSnapshot() throws IOException {
+		if (snapshotOffset < 0)
+			return null;
+		SnapshotReader reader = new SnapshotReader(FileChannel.open(
+				file.toPath(), StandardOpenOption.READ), snapshotOffset,
+				snapshotLength);
+		snapshotOffset = -1;
+		return reader;
+	}
+
+	private void ensureReplayCapacity(long outcomes) {
+		int bytes = (int)((outcomes + 3) / 4);
+		if (bytes > replayOutcomes.length) {
+			byte[] larger = new byte[Math.max(bytes, 2 * replayOutcomes.length)];
+			System.arraycopy(replayOutcomes, 0, larger, 0,
+					replayOutcomes.length);
+			replayOutcomes = larger;
+		}
+	}
+
+	private void setOutcome(long i, byte outcome) {
+		replayOutcomes[(int)(i / 4)] |= outcome << (2 * (i % 4));
+	}
+
+	/**
+	 * Are there outcomes left to replay?
+	 */
+	public boolean isReplaying() {
+		return replayed < replayCount;
+	}
+
+	/**
+	 * Takes the next replayed test outcome
+	 */
+	public byte nextOutcome() {
+		long i = replayed++;
+		return (byte)((replayOutcomes[(int)(i / 4)] >> (2 * (i % 4))) & 3);
+	}
+
+	/**
+	 * Are there counter examples left to replay?
+	 */
+	public boolean hasWord() {
+		return !replayWords.isEmpty();
+	}
+
+	/**
+	 * Takes the next replayed counter example
+	 */
+	public String nextWord() {
+		return replayWords.poll();
+	}
+
+	/**
+	 * Records the test outcome of a candidate
+	 *
+	 * @param outcome FAILS_POSITIVE, FAILS_NEGATIVE or PASSES
+	 */
+	public void addOutcome(byte outcome) {
+		if (pendingCount == pendingOutcomes.length) {
+			byte[] larger = new byte[2 * pendingOutcomes.length];
+			System.arraycopy(pendingOutcomes, 0, larger, 0, pendingCount);
+			pendingOutcomes = larger;
+		}
+		pendingOutcomes[pendingCount++] = outcome;
+		loggedSinceSnapshot++;
+	}
+
+	/**
+	 * Records a counter example found by validation
+	 *
+	 * @param word the counter example
+	 */
+	public void addWord(String word) {
+		pendingWords.add(word);
+	}
+
+	/**
+	 * Called between two candidates. Checks the counters once the replay
+	 * is over, and tells if a checkpoint is due (the interval has passed).
+	 * The caller then writes one with write() or writeSnapshot().
+	 *
+	 * @param testingCounter the testing counter of the enumerator
+	 * @param validationCounter the validation counter of the enumerator
+	 * @return whether or not a checkpoint is due
+	 */
+	public boolean tick(int testingCounter, int validationCounter) {
+		if (replayOutcomes != null && !isReplaying()) {
+			if (testingCounter != replayTestingCounter
+					|| validationCounter != replayValidationCounter
+					|| !replayWords.isEmpty())
+				throw new IllegalStateException("The search doesn't match the "
+						+ "checkpoint in " + file + ": " + testingCounter + "/"
+						+ validationCounter + " candidates tested/validated "
+						+ "instead of " + replayTestingCounter + "/"
+						+ replayValidationCounter);
+			replayOutcomes = null;
+			lastCheckpoint = System.nanoTime();
+		}
+		return replayOutcomes == null
+				&& System.nanoTime() - lastCheckpoint >= intervalNanos;
+	}
+
+	/**
+	 * Is the next checkpoint better written as a snapshot? It is once 
+	 * replaying the log since the last snapshot would take longer than 
+	 * writing the frontier.
+	 *
+	 * @param frontierSize number of candidates in the frontier
+	 */
+	public boolean isSnapshotDue(long frontierSize) {
+		return loggedSinceSnapshot * REPLAY_COST >= frontierSize;
+	}
+
+	/**
+	 * Starts a new file with a snapshot of the search. The caller writes
+	 * the snapshot, then commits it with writeSnapshot() (or drops it with
+	 * cancelSnapshot()).
+	 */
+	public SnapshotWriter startSnapshot() {
+		long start = System.nanoTime();
+		try {
+			FileChannel channel = FileChannel.open(new File(file.getPath() 
+					+ ".tmp").toPath(), StandardOpenOption.CREATE, 
+					StandardOpenOption.WRITE, 
+					StandardOpenOption.TRUNCATE_EXISTING);
+			FileChannel previous = fileSnapshotId == 0 ? null
+					: FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			SnapshotWriter snapshot = new SnapshotWriter(channel, previous,
+					++lastSnapshotId, fileSnapshotId, start);
+			writeHeader(snapshot);
+			snapshot.writeByte(SNAPSHOT);
+			snapshot.writeLong(0);
+			snapshot.flush();
+			snapshot.startOffset = channel.position();
+			return snapshot;
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write the checkpoint", e);
+		}
+	}
+
+	/**
+	 * Writes a checkpoint as a snapshot of the search: the new file, with 
+	 * the snapshot and the counters, replaces the old one
+	 *
+	 * @param snapshot the snapshot, fully written
+	 * @param testingCounter the testing counter of the enumerator
+	 * @param validationCounter the validation counter of the enumerator
+	 */
+	public void writeSnapshot(SnapshotWriter snapshot, int testingCounter,
+			int validationCounter) {
+		try {
+			snapshot.flush();
+			FileChannel channel = snapshot.channel;
+			ByteBuffer length = ByteBuffer.allocate(8);
+			length.putLong(0, channel.position() - snapshot.startOffset);
+			while (length.hasRemaining())
+				channel.write(length, snapshot.startOffset - 8 
+						+ length.position());
+			snapshot.writeByte(COMMIT);
+			snapshot.writeInt(testingCounter);
+			snapshot.writeInt(validationCounter);
+			snapshot.flush();
+			channel.force(true);
+			snapshot.close();
+			out.close();
+			Files.move(new File(file.getPath() + ".tmp").toPath(), 
+					file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			fileOut = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut));
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write the checkpoint", e);
+		}
+		fileSnapshotId = snapshot.id;
+		pendingCount = 0;
+		pendingWords.clear();
+		loggedSinceSnapshot = 0;
+		snapshotCounter++;
+		long end = System.nanoTime();
+		lastCheckpoint = end;
+		checkpointCounter++;
+		writeNanos += end - snapshot.startNanos;
+		maxWriteNanos = Math.max(maxWriteNanos, end - snapshot.startNanos);
+	}
+
+	/**
+	 * Drops a snapshot that couldn't be written; the checkpoint file stays
+	 * as it was
+	 */
+	public void cancelSnapshot(SnapshotWriter snapshot) {
+		try {
+			snapshot.close();
+			Files.deleteIfExists(new File(file.getPath() + ".tmp").toPath());
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write the checkpoint", e);
+		}
+	}
+
+	/**
+	 * Writes a checkpoint to the log: the outcomes and counter examples 
+	 * since the last one, and the counters
+	 */
+	public void write(int testingCounter, int validationCounter) {
+		long start = System.nanoTime();
+		try {
+			out.writeByte(OUTCOMES);
+			out.writeInt(pendingCount);
+			for (int i = 0; i < pendingCount; i += 4) {
+				int packed = 0;
+				for (int j = i; j < Math.min(pendingCount, i + 4); j++)
+					packed |= pendingOutcomes[j] << (2 * (j - i));
+				out.writeByte(packed);
+			}
+			for (String word : pendingWords) {
+				out.writeByte(WORD);
+				out.writeUTF(word);
+			}
+			out.writeByte(COMMIT);
+			out.writeInt(testingCounter);
+			out.writeInt(validationCounter);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write the checkpoint", e);
+		}
+		pendingCount = 0;
+		pendingWords.clear();
+		long end = System.nanoTime();
+		lastCheckpoint = end;
+		checkpointCounter++;
+		writeNanos += end - start;
+		maxWriteNanos = Math.max(maxWriteNanos, end - start);
+	}
+
+	/**
+	 * Closes the file
+	 */
+	public void close() {
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not close the checkpoint", e);
+		}
+	}
+
+	/**
+	 * A report of the checkpoints: how many were replayed and written, and
+	 * how long writing them took
+	 */
+	public ArrayList<String> getReport() {
+		ArrayList<String> report = new ArrayList<String>();
+		if (resumedAt > 0 || replayed > 0)
+			report.add("Resumed from " + file + ": snapshot at " + resumedAt
+					+ " candidates, " + replayed + " candidates replayed");
+		report.add(String.format("Checkpoints written: %d (%d snapshots), "
+				+ "average %.2f ms, longest %.2f ms", checkpointCounter,
+				snapshotCounter, checkpointCounter == 0
+						? 0 : writeNanos / 1e6 / checkpointCounter,
+				maxWriteNanos / 1e6));
+		return report;
+	}
+
+	/**
+	 * A snapshot being written, streamed to the new checkpoint file. It is 
+	 * a sequence of blocks, each one with its length. Blocks the search 
+	 * wrote in the last snapshot can be copied from the old file as they 
+	 * are, without being encoded again.
+	 */
+	public static class SnapshotWriter extends DataOutputStream {
+
+		// The new checkpoint file
+		private FileChannel channel;
+		// The old checkpoint file, if its snapshot is the last one we wrote
+		// (null if not)
+		private FileChannel previous;
+		// Identifies this snapshot, and the one in the old file
+		private long id;
+		private long previousId;
+		// Where the snapshot and the current block start in the new file
+		private long startOffset;
+		private long blockOffset;
+		// When the snapshot was started
+		private long startNanos;
+
+		private SnapshotWriter(FileChannel channel, FileChannel previous,
+				long id, long previousId, long startNanos) {
+			super(new BufferedOutputStream(Channels.newOutputStream(channel),
+					1 << 16));
+			this.channel = channel;
+			this.previous = previous;
+			this.id = id;
+			this.previousId = previousId;
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * Identifies the snapshot, for copyBlock()
+		 */
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * Starts a block; what is written until endBlock() is in it
+		 *
+		 * @return the offset of the block in the file
+		 */
+		public long startBlock() throws IOException {
+			flush();
+			blockOffset = channel.position();
+			writeInt(0);
+			return blockOffset;
+		}
+
+		/**
+		 * Ends the block started last
+		 *
+		 * @return the length of the block in the file
+		 */
+		public int endBlock() throws IOException {
+			flush();
+			int length = (int)(channel.position() - blockOffset);
+			ByteBuffer b = ByteBuffer.allocate(4);
+			b.putInt(0, length - 4);
+			while (b.hasRemaining())
+				channel.write(b, blockOffset + b.position());
+			return length;
+		}
+
+		/**
+		 * Copies a block of the old file, if it is in it
+		 *
+		 * @param snapshotId the snapshot the block was written in
+		 * @param offset the offset of the block in that snapshot's file
+		 * @param length the length of the block (see endBlock())
+		 * @return the offset of the copy, or -1 if the old file doesn't have
+		 * the snapshot
+		 */
+		public long copyBlock(long snapshotId, long offset, int length)
+				throws IOException {
+			if (previous == null || snapshotId != previousId)
+				return -1;
+			flush();
+			long copyOffset = channel.position();
+			for (long done = 0; done < length; ) {
+				long n = previous.transferTo(offset + done, length - done,
+						channel);
+				if (n <= 0)
+					throw new EOFException("The checkpoint file was cut");
+				done += n;
+			}
+			return copyOffset;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (previous != null)
+				previous.close();
+		}
+
+	}
+
+	/**
+	 * Reads the blocks of a snapshot, in the order they were written. 
+	 * Blocks are mapped from the file one at a time.
+	 */
+	public static class SnapshotReader {
+
+		// The checkpoint file
+		private FileChannel channel;
+		// Where the next block is, and where the snapshot ends
+		private long offset;
+		private long end;
+
+		private SnapshotReader(FileChannel channel, long offset, long length) {
+			this.channel = channel;
+			this.offset = offset;
+			end = offset + length;
+		}
+
+		/**
+		 * Maps the next block
+		 */
+		public ByteBuffer nextBlock() throws IOException {
+			if (offset + 4 > end)
+				throw new EOFException("The snapshot was cut");
+			int length = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4)
+					.getInt();
+			ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 
+					offset + 4, length);
+			offset += 4 + length;
+			return b;
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+	/**
+	 * Counts the bytes read through it
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		// Bytes read or skipped so far
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+	}
+
+}
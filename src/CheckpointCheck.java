@@ -0,0 +1,105 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import regex.Regex;
+
+/**
+ * Checks that a BFS search stopped and resumed from its checkpoint gives
+ * the same repair, with the same counters, as the search run in one go, in
+ * each frontier mode. The search is stopped every few candidates (with a
+ * budget), and resumed in a new enumerator each time, so it goes through
+ * several snapshots of a frontier larger than one chunk, some of them
+ * written by a resumed search.
+ *
+ * Usage: java CheckpointCheck [target] [input] [stop]
+ *
+ * Prints, for each frontier mode, the number of stops and the checkpoint
+ * report of the last resumed search, and throws an IllegalStateException
+ * if a resumed search doesn't match.
+ */
+
+public class CheckpointCheck {
+
+	// The frontier modes
+	private static final String[] MODES = {"regex", "compact", "delta",
+			"spill"};
+	// Minimum time between two checkpoints, in milliseconds
+	private static final int INTERVAL = 20;
+
+	public static void main(String[] args) throws IOException {
+		String target = args.length > 0 ? args[0] : "(a|b)*a(a|b)";
+		String input = args.length > 1 ? args[1] : "b*a*";
+		int stop = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		TargetArtefacts artefacts = new TargetArtefacts(target);
+		File file = File.createTempFile("search", ".checkpoint");
+		file.deleteOnExit();
+
+		for (String mode : MODES) {
+			Enumerator e = newEnumerator(artefacts, input, mode);
+			Regex expected = e.getNext();
+			String counters = getCounters(e);
+			e.close();
+			if (e.getTestingCounter() <= Frontier.CHUNK_SIZE)
+				throw new IllegalStateException("The search of " + input
+						+ " fits in one chunk");
+
+			int stops = 0;
+			boolean resume = false;
+			ArrayList<String> report;
+			while (true) {
+				e = newEnumerator(artefacts, input, mode);
+				e.setCheckpoint(file, INTERVAL, resume);
+				e.setBudget(stop, 0);
+				try {
+					Regex re = e.getNext();
+					if (!re.toString().equals(expected.toString())
+							|| !getCounters(e).equals(counters))
+						throw new IllegalStateException("Resumed " + mode
+								+ " search found " + re + " ("
+								+ getCounters(e) + ") instead of "
+								+ expected + " (" + counters + ")");
+					report = e.getCheckpointReport();
+					break;
+				}
+				catch (SearchAbortedException ex) {
+					stops++;
+					resume = true;
+				}
+				finally {
+					e.close();
+				}
+			}
+			System.out.printf("%-8s %s, %s, %d stops%n", mode, expected,
+					counters, stops);
+			for (String line : report)
+				System.out.println("         " + line);
+		}
+		file.delete();
+	}
+
+	/**
+	 * A new enumerator, with a frontier mode
+	 *
+	 * @param mode regex, compact, delta or spill (delta, spilled once the
+	 * heap is over 1 MB)
+	 */
+	private static Enumerator newEnumerator(TargetArtefacts artefacts,
+			String input, String mode) {
+		Enumerator e = new Enumerator(artefacts, input);
+		e.setCompactFrontier(mode.equals("compact"));
+		e.setDeltaFrontier(mode.equals("delta") || mode.equals("spill"));
+		if (mode.equals("spill"))
+			e.setHeapBudget(1);
+		return e;
+	}
+
+	/**
+	 * The counters of a search, as a string
+	 */
+	private static String getCounters(Enumerator e) {
+		return e.getTestingCounter() + " tested, " + e.getValidationCounter()
+				+ " validated, " + e.getDuplicateCounter() + " duplicates";
+	}
+
+}
@@ -0,0 +1,147 @@
+import java.util.HashSet;
+
+import regex.Regex;
+
+/**
+ * Drops candidates that are the same as one seen before: same tree, same 
+ * distance, same change markers and refining state. Such a candidate 
+ * behaves exactly like the first one, except that it is tested later, 
+ * against a superset of the tests, so it can't pass where the first one 
+ * failed and its enumerations are a subset of the first one's.
+ * 
+ * In BFS order, candidates are seen level by level and the distance is part
+ * of the key, so only the keys of the current distance are kept. Searches
+ * in other orders must keep all levels.
+ * 
+ * Keys normally keep the candidate, and only build the canonical form of 
+ * its tree on a hash collision. When the frontier doesn't keep the trees 
+ * (packed or delta), keys keep the canonical form instead, so the trees 
+ * can be released.
+ */
+
+public class Deduplicator {
+	
+	// Keys of the candidates seen at the current distance
+	private HashSet<Key> seen;
+	// The distance of the candidates we are seeing now
+	private int distance;
+	// How many duplicates were dropped?
+	private long duplicateCounter;
+	// Are candidates seen level by level?
+	private boolean levelOrder;
+	// Do the keys keep the candidates?
+	private boolean keepTrees;
+	
+	/**
+	 * Identity of a candidate. The canonical form of the tree is only built 
+	 * when the structural hashes are equal.
+	 */
+	private static class Key {
+		// The candidate (null if not kept)
+		private Regex re;
+		// Canonical form of the tree (built lazily if the candidate is kept)
+		private String canonical;
+		private long hash;
+		private String markers;
+		private int distance;
+		private boolean refiningStarted;
+		
+		Key(Regex re, boolean keepTree) {
+			if (keepTree)
+				this.re = re;
+			else
+				canonical = re.getRoot().getCanonicalForm();
+			hash = re.getRoot().getStructuralHash();
+			markers = re.getMarkerKey();
+			distance = re.getDistance();
+			refiningStarted = re.isRefiningStarted();
+		}
+		
+		String getCanonicalForm() {
+			return re == null ? canonical : re.getRoot().getCanonicalForm();
+		}
+		
+		@Override
+		public int hashCode() {
+			long h = hash ^ (31L * markers.hashCode() + distance);
+			return (int)(h ^ (h >>> 32)) + (refiningStarted ? 1 : 0);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key k = (Key)obj;
+			return hash == k.hash && distance == k.distance 
+					&& refiningStarted == k.refiningStarted
+					&& markers.equals(k.markers) 
+					&& getCanonicalForm().equals(k.getCanonicalForm());
+		}
+	}
+	
+	/**
+	 * Basic Constructor, for candidates seen in BFS order
+	 */
+	public Deduplicator() {
+		this(true);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param levelOrder whether or not candidates are seen level by level
+	 * (then older levels are forgotten)
+	 */
+	public Deduplicator(boolean levelOrder) {
+		this(levelOrder, true);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param levelOrder whether or not candidates are seen level by level
+	 * (then older levels are forgotten)
+	 * @param keepTrees whether or not the keys may keep the candidates
+	 */
+	public Deduplicator(boolean levelOrder, boolean keepTrees) {
+		this.levelOrder = levelOrder;
+		this.keepTrees = keepTrees;
+		seen = new HashSet<Key>();
+		distance = -1;
+		duplicateCounter = 0;
+	}
+	
+	/**
+	 * Checks if a candidate is seen for the first time, and remembers it
+	 * 
+	 * @param re the candidate
+	 * @return false if it is a duplicate
+	 */
+	public boolean isNew(Regex re) {
+		if (levelOrder && re.getDistance() != distance) {
+			seen.clear();
+			distance = re.getDistance();
+		}
+		if (seen.add(new Key(re, keepTrees)))
+			return true;
+		duplicateCounter++;
+		return false;
+	}
+	
+	/**
+	 * Sets how many duplicates were dropped so far (when resuming a search)
+	 * 
+	 * @param count the counter value
+	 */
+	void setDuplicateCounter(long count) {
+		duplicateCounter = count;
+	}
+	
+	/**
+	 * How many duplicates were dropped so far?
+	 */
+	public long getDuplicateCounter() {
+		return duplicateCounter;
+	}
+	
+}
@@ -0,0 +1,229 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+/**
+ * Access words and distinguishing suffixes of the states of a DFA, for
+ * Myhill-Nerode tests: for each state, the shortest word reaching it, and
+ * for each ordered pair of states (p, q), the shortest word taking p to an
+ * accept state and q to a reject state. Of words of the same length, the
+ * lexicographically smallest one is taken (as getShortestExample() does).
+ *
+ * Suffixes are found with one Moore-style refinement over pairs of states:
+ * pairs told apart by the empty word first, then the pairs one character
+ * away from them, and so on (a breadth first search backward over the pair
+ * graph). The round a pair is split in is the length of its shortest
+ * suffix, and the character it is split by is kept as its witness, so the
+ * suffixes are read back by following witnesses. This replaces a product
+ * automaton per pair of states.
+ *
+ * Characters are grouped in classes that no transition tells apart, and
+ * each class is represented by its smallest character.
+ */
+
+public class DistinguishingWords {
+
+	// The states, in the order of their indices
+	private List<State> states;
+	// Number of states, and index of the (implicit) dead state
+	private int n;
+	// Smallest character of each character class
+	private char[] classes;
+	// next[c][s]: state reached from s on class c (n if none)
+	private int[][] next;
+	// Accepting states (and the dead state, which doesn't accept)
+	private boolean[] accept;
+	// Shortest word reaching each state (null if it is not reachable)
+	private String[] access;
+	// Length of the shortest suffix of each pair, -1 if it has none
+	private int[] length;
+	// The class of the first character of the suffix of each pair
+	private int[] witness;
+
+	/**
+	 * Constructor
+	 *
+	 * @param states the states of a deterministic automaton, indexed by
+	 * their position in the list
+	 * @param initial the initial state
+	 */
+	public DistinguishingWords(List<State> states, State initial) {
+		this.states = states;
+		n = states.size();
+		HashMap<State, Integer> index = new HashMap<State, Integer>();
+		for (int i = 0; i < n; i++)
+			index.put(states.get(i), i);
+		setClasses();
+		next = new int[classes.length][n + 1];
+		accept = new boolean[n + 1];
+		for (int i = 0; i < n; i++) {
+			accept[i] = states.get(i).isAccept();
+			for (int c = 0; c < classes.length; c++) {
+				State to = states.get(i).step(classes[c]);
+				next[c][i] = to == null ? n : index.get(to);
+			}
+		}
+		for (int c = 0; c < classes.length; c++)
+			next[c][n] = n;
+		setAccessWords(index.get(initial));
+		setSuffixes();
+	}
+
+	/**
+	 * Splits the characters into the classes of the transitions
+	 */
+	private void setClasses() {
+		TreeSet<Integer> bounds = new TreeSet<Integer>();
+		for (State s : states)
+			for (Transition t : s.getTransitions()) {
+				bounds.add((int)t.getMin());
+				bounds.add(t.getMax() + 1);
+			}
+		// characters below the first bound, or from the last one on, have no
+		// transition
+		bounds.remove((int)Character.MAX_VALUE + 1);
+		classes = new char[bounds.size()];
+		int c = 0;
+		for (int b : bounds)
+			classes[c++] = (char)b;
+	}
+
+	/**
+	 * Finds the access words, with a breadth first search from the initial
+	 * state. States are dequeued in the order of their words and characters
+	 * are tried in increasing order, so the first word found for a state is
+	 * its smallest shortest one.
+	 */
+	private void setAccessWords(int initial) {
+		access = new String[n];
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+		access[initial] = "";
+		queue[tail++] = initial;
+		while (head < tail) {
+			int s = queue[head++];
+			for (int c = 0; c < classes.length; c++) {
+				int to = next[c][s];
+				if (to != n && access[to] == null) {
+					access[to] = access[s] + classes[c];
+					queue[tail++] = to;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the length and witness of the suffix of every pair, searching
+	 * backward from the pairs told apart by the empty word
+	 */
+	private void setSuffixes() {
+		int pairs = n * (n + 1);
+		length = new int[pairs];
+		witness = new int[pairs];
+		Arrays.fill(length, -1);
+		// predecessors of each state (dead one included) on each class
+		int[][][] previous = new int[classes.length][][];
+		for (int c = 0; c < classes.length; c++)
+			previous[c] = predecessors(next[c]);
+
+		int[] queue = new int[pairs];
+		int head = 0, tail = 0;
+		for (int p = 0; p < n; p++)
+			for (int q = 0; q <= n; q++)
+				if (accept[p] && !accept[q]) {
+					length[pair(p, q)] = 0;
+					queue[tail++] = pair(p, q);
+				}
+		while (head < tail) {
+			int pq = queue[head++];
+			int p = pq / (n + 1), q = pq % (n + 1);
+			for (int c = 0; c < classes.length; c++)
+				for (int p2 : previous[c][p])
+					for (int q2 : previous[c][q]) {
+						int pq2 = pair(p2, q2);
+						if (length[pq2] == -1) {
+							length[pq2] = length[pq] + 1;
+							witness[pq2] = c;
+							queue[tail++] = pq2;
+						}
+					}
+		}
+
+		// the first witness found is a shortest one, but not always the
+		// smallest: take the smallest class leading one round closer
+		for (int pq = 0; pq < pairs; pq++)
+			if (length[pq] > 0) {
+				int p = pq / (n + 1), q = pq % (n + 1);
+				for (int c = 0; c < classes.length; c++) {
+					int to = pair(next[c][p], next[c][q]);
+					if (next[c][p] != n && length[to] == length[pq] - 1) {
+						witness[pq] = c;
+						break;
+					}
+				}
+			}
+	}
+
+	/**
+	 * The states leading to each state on a transition function
+	 */
+	private int[][] predecessors(int[] step) {
+		int[] counts = new int[n + 1];
+		for (int s = 0; s <= n; s++)
+			counts[step[s]]++;
+		int[][] previous = new int[n + 1][];
+		for (int s = 0; s <= n; s++)
+			previous[s] = new int[counts[s]];
+		for (int s = n; s >= 0; s--)
+			previous[step[s]][--counts[step[s]]] = s;
+		return previous;
+	}
+
+	private int pair(int p, int q) {
+		return p * (n + 1) + q;
+	}
+
+	/**
+	 * The states, in the order of their indices
+	 */
+	public List<State> getStates() {
+		return new ArrayList<State>(states);
+	}
+
+	/**
+	 * Shortest word reaching a state from the initial state
+	 *
+	 * @param s index of the state
+	 * @return the word, or null if the state can't be reached
+	 */
+	public String getAccessWord(int s) {
+		return access[s];
+	}
+
+	/**
+	 * Shortest word taking a state to an accept state, and another one to a
+	 * reject state
+	 *
+	 * @param p index of the state to accept from
+	 * @param q index of the state to reject from
+	 * @return the word, or null if there is none
+	 */
+	public String getSuffix(int p, int q) {
+		int pq = pair(p, q);
+		if (length[pq] == -1)
+			return null;
+		StringBuilder word = new StringBuilder();
+		while (length[pq] > 0) {
+			int c = witness[pq];
+			word.append(classes[c]);
+			pq = pair(next[c][pq / (n + 1)], next[c][pq % (n + 1)]);
+		}
+		return word.toString();
+	}
+
+}
@@ -1,7 +1,18 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.regex.Pattern;
-import dk.brics.automaton.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.FrozenAutomaton;
+import regex.AutomatonCompiler;
+import regex.PackedRegex;
 import regex.Regex;
 
 
@@ -21,6 +32,8 @@ public class Enumerator {
 	private Regex target;
 	// The target regex, converted into a DFA
 	private Automaton targetDFA;
+	// Same, frozen for validation
+	private FrozenAutomaton frozenTarget;
 	// The language alphabet
 	private ArrayList<Character> alphabet;
 	// The list of positive tests (words that are in target language)
@@ -28,13 +41,44 @@ public class Enumerator {
 	// The list of positive tests (words that are not in target language)
 	private HashSet<String> negativeTests;
 	// Our queue to keep track of enumerations
-	private ArrayList<Regex> list;
-	// Regexes we have checked so far
-	private int currentIndex;
+	private Frontier frontier;
 	// How many regexes have we enumerated?
 	private int testingCounter;
 	// How many regexes passed the tests and needed to be valiated?
 	private int validationCounter;
+	// The engine we run positive/negative tests with
+	private TestEvaluator testEvaluator;
+	// Compiles candidates to DFAs (or NFAs) for validation
+	private AutomatonCompiler compiler;
+	// Are candidates validated with antichain inclusion checks on NFAs?
+	private boolean antichainValidation;
+	// If not null, expansions are split over this pool
+	private ForkJoinPool expansionPool;
+	// Drops duplicate candidates before testing (null if disabled)
+	private Deduplicator deduplicator;
+	// The changes of the regex we are expanding, generated on demand
+	private Iterator<Regex> expansion;
+	// Same, with edit paths (null when expanding with the expansion pool)
+	private Regex.ChangeSpliterator expansionPaths;
+	// The regex we are expanding, and how many of its changes were taken
+	private Regex expanding;
+	private int expansionTaken;
+	// Are the candidates in the queue kept packed, or as edit deltas?
+	private boolean compactFrontier;
+	private boolean deltaFrontier;
+	// Report of the last best-first search
+	private ArrayList<String> searchReport;
+	// Checkpoints the search, or replays one (null if disabled)
+	private Checkpoint checkpoint;
+	// Most candidates to test, and when to give up (0 for no limit)
+	private long maxCandidates;
+	private long deadline;
+	// How many candidates were tested against the budget
+	private long budgetCounter;
+	// Set to stop the search from another thread
+	private volatile boolean cancelled;
+	// Learns the counter examples we find (the artefacts we were built from)
+	private TargetArtefacts targetArtefacts;
 	
 	/**
 	 * Enumerator Constructor
@@ -43,87 +87,42 @@ public class Enumerator {
 	 * @param inputRegex Our initial regular expression
 	 */
 	public Enumerator (String targetRegex, String inputRegex) {
-		System.setProperty("dk.brics.automaton.debug", "true");
-		initial = new Regex(inputRegex);
+		this(new TargetArtefacts(targetRegex), inputRegex);
 		System.out.println(initial);
-		target = new Regex(targetRegex);
-		alphabet = initial.getAlphabet();
-		for (char c : target.getAlphabet())
-			if (!alphabet.contains(c))
-				alphabet.add(c);
-		String targetString = targetRegex;
-		RegExp targetRE = new RegExp(targetString.replace(Regex.EPS+"", "()"));
-		targetDFA = targetRE.toAutomaton();
-		setTests();
 		System.out.println("Positive Tests:");
 		System.out.println(positiveTests);
 		System.out.println("Negative Tests:");
 		System.out.println(negativeTests);
-		list = new ArrayList<Regex>();
-		list.add(initial);
-		currentIndex = 0;
-		testingCounter = 0;
-		validationCounter = 0;
 	}
 	
 	/**
-	 * Initially fills in positive & negative test, using Myhill-Nerode
-	 */
-	private void setTests() {
-		
-		Automaton tDFA = targetDFA.clone();
-		positiveTests = new HashSet<String>();
-		negativeTests = new HashSet<String>();
-		int stateCount = tDFA.getNumberOfStates();
-		
-		String[] a = new String[stateCount];
-		String[][] b = new String[stateCount][stateCount];
-		
-		int i = 0;
-		for (State s : tDFA.getStates()) {
-			for (State f : tDFA.getAcceptStates())
-				f.setAccept(false);
-			s.setAccept(true);
-			a[i] = tDFA.getShortestExample(true);
-			i++;
-		}
-		
-		i = 0;
-		tDFA = targetDFA.clone();
-		for (State s: tDFA.getStates()) {
-			int j = 0;
-			tDFA.setInitialState(s);
-			Automaton tDFA2 =  targetDFA.clone();
-			for (State s2 : tDFA2.getStates()) {
-				tDFA2.setInitialState(s2);
-
-				Automaton minus = tDFA.minus(tDFA2);
-				b[i][j] = minus.getShortestExample(true);
-				j++;
-			}
-			i++;
-		}
-		
-		tDFA = targetDFA.clone();
-		ArrayList<State> states = new ArrayList<State> (tDFA.getStates());
-		for (i = 0; i < stateCount; i++) {
-			for (int j = 0; j < stateCount; j++) {
-				if (b[i][j] != null)
-					positiveTests.add(a[i] + b[i][j]);
-				if (b[j][i] != null)
-					negativeTests.add(a[i] + b[j][i]);
-				for (char c : alphabet) 
-					if (c != Regex.EPS) {
-						State s = states.get(i).step(c);
-						int k = states.indexOf(s);
-						if (k != -1 && b[k][j] != null)
-							positiveTests.add(a[i] + c + b[k][j]);
-						if (k != -1 && b[j][k] != null)
-							negativeTests.add(a[i] + c + b[j][k]);
-					}
-			}
-		}
-		
+	 * Constructor for a target whose DFA and tests are already built (they
+	 * are copied, so the artefacts can be shared by several enumerators)
+	 * 
+	 * @param targetArtefacts Our target regular expression, with its DFA and
+	 * tests
+	 * @param inputRegex Our initial regular expression
+	 */
+	public Enumerator (TargetArtefacts targetArtefacts, String inputRegex) {
+		System.setProperty("dk.brics.automaton.debug", "true");
+		this.targetArtefacts = targetArtefacts;
+		initial = new Regex(inputRegex);
+		target = targetArtefacts.copyTarget();
+		alphabet = initial.getAlphabet();
+		for (char c : target.getAlphabet())
+			if (!alphabet.contains(c))
+				alphabet.add(c);
+		targetDFA = targetArtefacts.copyTargetDFA();
+		frozenTarget = new FrozenAutomaton(targetDFA);
+		positiveTests = targetArtefacts.copyPositiveTests();
+		negativeTests = targetArtefacts.copyNegativeTests();
+		frontier = new Frontier();
+		frontier.add(initial);
+		testingCounter = 0;
+		validationCounter = 0;
+		testEvaluator = new GlushkovTestEvaluator();
+		compiler = new AutomatonCompiler(false);
+		deduplicator = new Deduplicator();
 	}
 	
 	/**
@@ -133,15 +132,16 @@ public class Enumerator {
 	 * @return the next candidate regex
 	 */
 	public Regex getNextInQueue() {
+		if (checkpoint != null 
+				&& checkpoint.tick(testingCounter, validationCounter))
+			writeCheckpoint();
 		testingCounter++;
-		if (currentIndex == list.size()) {
+		Regex re = frontier.nextToTest();
+		while (re == null) {
 			enumerate();
-			currentIndex--;
-			return getNextInQueue();
-		}
-		else {
-			return list.get(currentIndex++);
+			re = frontier.nextToTest();
 		}
+		return re;
 	}
 	
 	/**
@@ -150,24 +150,52 @@ public class Enumerator {
 	 * @return the next candidate regex to validate
 	 */
 	public Regex getNextTestPasser() {
-		validationCounter++;
 		Regex answer = null;
 		while (answer == null) {
 			Regex re = getNextInQueue();
-			Pattern p = Pattern.compile(re.toString().replace(Regex.EPS+"", "()"));
-			if (passesPositiveTests(p)) {
-				re.setReadyToRefineFlag(true);
-				if (passesNegativeTests(p)) {
-					answer = re;
-				}
-			}
-			else {
-				re.setReadyToRefineFlag(false);
-			}
+			if (passesTests(re))
+				answer = re;
 		}
+		// counted once found, so the counter is the same between any two
+		// candidates (see Checkpoint)
+		validationCounter++;
 		return answer;
 	}
 	
+	/**
+	 * Runs the positive & negative tests on a regex, and sets whether or not
+	 * it is ready to refine
+	 * 
+	 * @param re the candidate regex
+	 * @return whether or not it passes all tests
+	 */
+	boolean passesTests(Regex re) {
+		checkBudget();
+		if (checkpoint != null && checkpoint.isReplaying()) {
+			byte outcome = checkpoint.nextOutcome();
+			re.setReadyToRefineFlag(outcome != Checkpoint.FAILS_POSITIVE);
+			return outcome == Checkpoint.PASSES;
+		}
+		boolean passes = runTests(re);
+		if (checkpoint != null)
+			checkpoint.addOutcome(passes ? Checkpoint.PASSES
+					: re.isReadyToRefine() ? Checkpoint.FAILS_NEGATIVE
+							: Checkpoint.FAILS_POSITIVE);
+		return passes;
+	}
+	
+	private boolean runTests(Regex re) {
+		CandidateMatcher p = testEvaluator.compile(re);
+		if (passesPositiveTests(p)) {
+			re.setReadyToRefineFlag(true);
+			return passesNegativeTests(p);
+		}
+		else {
+			re.setReadyToRefineFlag(false);
+			return false;
+		}
+	}
+	
 	/**
 	 * Gets test-passing candidate regexes and 
 	 * 
@@ -191,45 +219,453 @@ public class Enumerator {
 	 * @return whether or not the two are equivalent
 	 */
 	public boolean validateEquivalence(Regex re) {
-		RegExp test = new RegExp(re.toString().replace(Regex.EPS+"", "()"));
-		Automaton testDFA = test.toAutomaton();
-		String posEx = targetDFA.minus(testDFA).getShortestExample(true);
-		if (posEx != null){
-			positiveTests.add(posEx);
-			return false;
-		}
+		String counterExample;
+		if (checkpoint != null && checkpoint.hasWord())
+			counterExample = checkpoint.nextWord();
 		else {
-			String negEx = testDFA.minus(targetDFA).getShortestExample(true);
-			if (negEx != null) {
-				negativeTests.add(negEx);
-				return false;
+			counterExample = findCounterExample(re);
+			if (checkpoint != null && counterExample != null)
+				checkpoint.addWord(counterExample);
+		}
+		if (counterExample == null)
+			return true;
+		addTest(counterExample);
+		return false;
+	}
+	
+	/**
+	 * Finds a shortest word that is in exactly one of the target language and
+	 * the language of a regex. As in the original check, a word of the
+	 * target the regex misses (a new positive test) comes first; a word of
+	 * the regex only is returned if there is none.
+	 *
+	 * @param re The regular expression we want to validate
+	 * @return the counter example, or null if the two are equivalent
+	 */
+	String findCounterExample(Regex re) {
+		FrozenAutomaton test = new FrozenAutomaton(compiler.compile(re));
+		if (antichainValidation)
+			return BasicOperations.equivalentByAntichains(frozenTarget, test);
+		// whichever side the first disagreement is on
+		String word = BasicOperations.equivalent(frozenTarget, test);
+		if (word == null || frozenTarget.run(word))
+			return word;
+		String positive = BasicOperations.inclusionCounterExample(
+				frozenTarget, test);
+		return positive != null ? positive : word;
+	}
+	
+	/**
+	 * Adds a word to the positive or negative tests, depending on whether 
+	 * or not it is in the target language. The target artefacts learn it
+	 * too, for later searches of the same target.
+	 * 
+	 * @param word the new test
+	 * @return true if it was added to the positive tests
+	 */
+	boolean addTest(String word) {
+		boolean positive = frozenTarget.run(word);
+		targetArtefacts.learn(word, positive);
+		if (positive) {
+			positiveTests.add(word);
+			return true;
+		}
+		negativeTests.add(word);
+		return false;
+	}
+	
+	/**
+	 * Runs the search with a parallel pipeline: expansion, test filtering and
+	 * validation run in different stages at the same time. The result is the 
+	 * same as the one of getNext() on a fresh enumerator.
+	 * 
+	 * @param threads number of test filter threads (and expansion threads)
+	 * @return the regex with minimum # of changes that is equivalent to target
+	 */
+	public Regex getNextParallel(int threads) {
+		checkNoCheckpoint();
+		SearchPipeline pipeline = new SearchPipeline(this, threads);
+		try {
+			return pipeline.run();
+		}
+		finally {
+			// the counters so far, if the budget stopped the search
+			if (deduplicator != null)
+				deduplicator = pipeline.getDeduplicator();
+			testingCounter = pipeline.getTestingCounter();
+			validationCounter = pipeline.getValidationCounter();
+		}
+	}
+	
+	/**
+	 * Runs a best-first (A*) search from the initial regex, ordered by 
+	 * distance plus the largest of the given lower bounds. The answer still
+	 * has minimum distance, as long as the heuristics are admissible.
+	 * 
+	 * @param heuristics lower bounds on the number of changes still needed
+	 * @return the regex with minimum # of changes that is equivalent to target
+	 */
+	public Regex getNextBestFirst(List<Heuristic> heuristics) {
+		checkNoCheckpoint();
+		BestFirstSearch search = new BestFirstSearch(this, heuristics);
+		Regex answer = search.run();
+		if (deduplicator != null)
+			deduplicator = search.getDeduplicator();
+		testingCounter = search.getTestingCounter();
+		validationCounter = search.getValidationCounter();
+		searchReport = search.getReport();
+		return answer;
+	}
+	
+	/**
+	 * Runs a bidirectional search: forward from the initial regex and 
+	 * backward from the target, meeting on the normal forms of the trees.
+	 * The forward side is a BFS that tests each level once, and a meeting
+	 * as long as the shortest possible repair stops it before the next 
+	 * level (see BidirectionalSearch).
+	 * 
+	 * @return a regex equivalent to target, with as few changes as the one
+	 * of getNext(), or null if there is none
+	 */
+	public Regex getNextBidirectional() {
+		checkNoCheckpoint();
+		BidirectionalSearch search = new BidirectionalSearch(this);
+		Regex answer = search.run();
+		if (deduplicator != null)
+			deduplicator = search.getDeduplicator();
+		testingCounter = search.getTestingCounter();
+		validationCounter = search.getValidationCounter();
+		searchReport = search.getReport();
+		return answer;
+	}
+	
+	/**
+	 * Sets a budget for the search: it is stopped with a 
+	 * SearchAbortedException once it has tested a number of candidates or
+	 * once some time has passed. Checked before each candidate is tested
+	 * (by the commit stage of getNextParallel()).
+	 * 
+	 * @param maxCandidates most candidates to test (0 for no limit)
+	 * @param maxMillis most time to search for, from now (0 for no limit)
+	 */
+	public void setBudget(long maxCandidates, long maxMillis) {
+		this.maxCandidates = maxCandidates;
+		deadline = maxMillis == 0 ? 0 
+				: System.nanoTime() + maxMillis * 1000000;
+		budgetCounter = 0;
+	}
+	
+	/**
+	 * Stops the search (from another thread): it throws a 
+	 * SearchAbortedException before testing its next candidate
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	void checkBudget() {
+		budgetCounter++;
+		if (cancelled)
+			throw new SearchAbortedException(
+					SearchAbortedException.Reason.CANCELLED, "Cancelled");
+		if (maxCandidates != 0 && budgetCounter > maxCandidates)
+			throw new SearchAbortedException(
+					SearchAbortedException.Reason.NODE_BUDGET, 
+					"Tested " + maxCandidates + " candidates");
+		if (deadline != 0 && System.nanoTime() - deadline > 0)
+			throw new SearchAbortedException(
+					SearchAbortedException.Reason.TIME_BUDGET, 
+					"Out of time after " + budgetCounter + " candidates");
+	}
+	
+	/**
+	 * Checkpoints only cover the BFS search of getNext()
+	 */
+	private void checkNoCheckpoint() {
+		if (checkpoint != null)
+			throw new IllegalStateException(
+					"Checkpoints only work with getNext()");
+	}
+	
+	/**
+	 * Checkpoints the search of getNext() to a file every once in a while,
+	 * or resumes it from the file (see Checkpoint). A resumed search gives 
+	 * the same answer and counters as an uninterrupted one. Must be set 
+	 * before the search starts, after the other settings. A new file starts
+	 * with a snapshot of the search, so it keeps the tests it started with.
+	 * 
+	 * @param file the checkpoint file
+	 * @param intervalMillis minimum time between two checkpoints
+	 * @param resume whether or not to resume from the file, if it exists
+	 */
+	public void setCheckpoint(File file, long intervalMillis, boolean resume)
+			throws IOException {
+		if (checkpoint != null)
+			checkpoint.close();
+		String search = target + "\n" + initial + "\n"
+				+ (deduplicator != null ? "dedup" : "no-dedup");
+		checkpoint = new Checkpoint(file, search, intervalMillis, resume);
+		Checkpoint.SnapshotReader snapshot = checkpoint.getSnapshot();
+		if (snapshot != null) {
+			try {
+				setState(snapshot);
+			}
+			finally {
+				snapshot.close();
 			}
 		}
-		return true;
+		else if (!checkpoint.isReplaying())
+			writeSnapshot();
+	}
+	
+	/**
+	 * Writes a checkpoint: a snapshot of the search if one is due (and all
+	 * its candidates can be packed), or else the log since the last one
+	 */
+	private void writeCheckpoint() {
+		if (!checkpoint.isSnapshotDue(frontier.size()) || !writeSnapshot())
+			checkpoint.write(testingCounter, validationCounter);
+	}
+	
+	/**
+	 * Writes a snapshot of the search to the checkpoint file (see 
+	 * writeState())
+	 * 
+	 * @return false if a candidate can't be packed; then nothing was 
+	 * written
+	 */
+	private boolean writeSnapshot() {
+		Checkpoint.SnapshotWriter out = checkpoint.startSnapshot();
+		boolean written = false;
+		try {
+			written = writeState(out);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write the checkpoint", e);
+		}
+		finally {
+			if (!written)
+				checkpoint.cancelSnapshot(out);
+		}
+		if (written)
+			checkpoint.writeSnapshot(out, testingCounter, validationCounter);
+		return written;
+	}
+	
+	/**
+	 * Writes the state of the BFS search between two candidates, for a 
+	 * checkpoint: a block with the counters, the tests, and the regex being
+	 * expanded with the number of its changes taken so far, then the 
+	 * frontier. The deduplicator is rebuilt from the frontier (see 
+	 * Frontier.read()).
+	 * 
+	 * @return false if a candidate can't be packed
+	 */
+	private boolean writeState(Checkpoint.SnapshotWriter out) 
+			throws IOException {
+		PackedRegex packed = null;
+		if (expanding != null && (packed = PackedRegex.pack(expanding))
+				== null)
+			return false;
+		out.startBlock();
+		out.writeInt(testingCounter);
+		out.writeInt(validationCounter);
+		out.writeLong(getDuplicateCounter());
+		writeTests(out, positiveTests);
+		writeTests(out, negativeTests);
+		out.writeBoolean(packed != null);
+		if (packed != null) {
+			packed.write(out);
+			out.writeInt(expansionTaken);
+		}
+		out.endBlock();
+		return frontier.write(out);
+	}
+	
+	private static void writeTests(DataOutputStream out, 
+			Collection<String> tests) throws IOException {
+		out.writeInt(tests.size());
+		for (String test : tests) {
+			out.writeInt(test.length());
+			out.writeChars(test);
+		}
+	}
+	
+	/**
+	 * Restores a state written by writeState()
+	 */
+	private void setState(Checkpoint.SnapshotReader snapshot) 
+			throws IOException {
+		ByteBuffer in = snapshot.nextBlock();
+		testingCounter = in.getInt();
+		validationCounter = in.getInt();
+		long duplicates = in.getLong();
+		positiveTests = readTests(in);
+		negativeTests = readTests(in);
+		expanding = null;
+		if (in.get() != 0) {
+			startExpansion(PackedRegex.read(in).toRegex(alphabet));
+			// the changes taken are already in the frontier (or dropped)
+			for (int taken = in.getInt(); expansionTaken < taken; 
+					expansionTaken++)
+				if (expansionPaths != null)
+					expansionPaths.nextChange();
+				else
+					expansion.next();
+		}
+		if (deduplicator != null) {
+			// the frontier keeps the candidates it reads packed, so the 
+			// keys shouldn't keep their trees
+			deduplicator = new Deduplicator(true, false);
+			deduplicator.setDuplicateCounter(duplicates);
+		}
+		frontier.read(snapshot, deduplicator);
+	}
+	
+	private static HashSet<String> readTests(ByteBuffer in) {
+		HashSet<String> tests = new HashSet<String>();
+		for (int n = in.getInt(); n > 0; n--) {
+			char[] test = new char[in.getInt()];
+			for (int i = 0; i < test.length; i++)
+				test[i] = in.getChar();
+			tests.add(new String(test));
+		}
+		return tests;
+	}
+	
+	/**
+	 * Report of the checkpoints (null if disabled)
+	 */
+	public ArrayList<String> getCheckpointReport() {
+		return checkpoint == null ? null : checkpoint.getReport();
+	}
+	
+	/**
+	 * Report of the last best-first or bidirectional search, null if there 
+	 * was none
+	 */
+	public ArrayList<String> getSearchReport() {
+		return searchReport;
+	}
+	
+	/**
+	 * The target regex, converted into a DFA
+	 */
+	Automaton getTargetDFA() {
+		return targetDFA;
+	}
+	
+	/**
+	 * The target regex
+	 */
+	Regex getTarget() {
+		return target;
+	}
+	
+	/**
+	 * The language alphabet (of both the initial and the target regex)
+	 */
+	ArrayList<Character> getAlphabet() {
+		return alphabet;
+	}
+	
+	/**
+	 * The initial regex
+	 */
+	Regex getInitial() {
+		return initial;
+	}
+	
+	/**
+	 * The positive tests so far
+	 */
+	HashSet<String> getPositiveTests() {
+		return positiveTests;
+	}
+	
+	/**
+	 * The negative tests so far
+	 */
+	HashSet<String> getNegativeTests() {
+		return negativeTests;
+	}
+	
+	/**
+	 * The engine we run positive/negative tests with
+	 */
+	TestEvaluator getTestEvaluator() {
+		return testEvaluator;
 	}
 
 	/**
-	 * Pops one regex from the beginning of the queue and adds all possible 
-	 * changes to the end of the queue
+	 * Adds the next possible change of the regex we are expanding to the end
+	 * of the queue. If it has none left, pops the next regex from the 
+	 * beginning of the queue and starts expanding it. The changes are 
+	 * generated lazily, so the rest of the expansion is never built if the
+	 * answer comes first.
 	 */
 	private void enumerate() {
-		Regex start = list.get(0);
-		list.remove(0);
-//		System.out.println(">> Enumerating " + start);
-		if (start.toString().equals("a*"))
-			System.out.println("Hi");
-		list.addAll(start.enumeratePossibleChanges());
+		while (expanding != null) {
+			Regex re = expansionPaths != null ? expansionPaths.nextChange()
+					: expansion.hasNext() ? expansion.next() : null;
+			if (re == null)
+				break;
+			expansionTaken++;
+			if (deduplicator == null || deduplicator.isNew(re)) {
+				if (expansionPaths != null)
+					frontier.addChange(re, expanding, 
+							expansionPaths.getLastPath());
+				else
+					frontier.add(re);
+				return;
+			}
+		}
+
+		// counted as a test, as this used to be a (recursive) call of 
+		// getNextInQueue()
+		testingCounter++;
+		startExpansion(frontier.nextToExpand());
+	}
+	
+	/**
+	 * Starts generating the changes of a regex
+	 * 
+	 * @param start the regex to expand
+	 */
+	private void startExpansion(Regex start) {
+		expanding = start;
+		expansionTaken = 0;
+		if (expansionPool == null) {
+			expansionPaths = start.possibleChangesSpliterator();
+		}
+		else {
+			expansionPaths = null;
+			expansion = expand(start).iterator();
+		}
+	}
+	
+	/**
+	 * Enumerates all possible changes of a regex, using the expansion pool 
+	 * if there is one
+	 * 
+	 * @param re the regex to expand
+	 * @return the generated regexes
+	 */
+	ArrayList<Regex> expand(Regex re) {
+		if (expansionPool == null)
+			return re.enumeratePossibleChanges();
+		return re.enumeratePossibleChanges(expansionPool);
 	}
 	
 	/**
 	 * Checks if a regex passes positive tests
 	 * 
-	 * @param re The regex we want to check as a java.regex pattern
+	 * @param re The regex we want to check, compiled by the test evaluator
 	 * @return whether or not it passes all positive tests
 	 */
-	private boolean passesPositiveTests (Pattern re) {
+	private boolean passesPositiveTests (CandidateMatcher re) {
 		for (String test : positiveTests)
-			if (!re.matcher(test).matches())
+			if (!re.matches(test))
 				return false;
 		return true;
 	}
@@ -237,16 +673,161 @@ public class Enumerator {
 	/**
 	 * Checks if a regex passes negative tests
 	 * 
-	 * @param re The regex we want to check as a java.regex pattern
+	 * @param re The regex we want to check, compiled by the test evaluator
 	 * @return whether or not it passes all negative tests
 	 */
-	private boolean passesNegativeTests (Pattern re) {
+	private boolean passesNegativeTests (CandidateMatcher re) {
 		for (String test : negativeTests)
-			if (re.matcher(test).matches())
+			if (re.matches(test))
 				return false;
 		return true;
 	}
 	
+	/**
+	 * Sets the engine used to run positive/negative tests (default is the 
+	 * Glushkov automaton of the candidate)
+	 * 
+	 * @param testEvaluator the test evaluator
+	 */
+	public void setTestEvaluator(TestEvaluator testEvaluator) {
+		this.testEvaluator = testEvaluator;
+	}
+	
+	/**
+	 * Sets whether or not the automata of candidate subtrees are memoized
+	 * during this search, so that validating a candidate only rebuilds the
+	 * edited part of it
+	 * 
+	 * @param memoize the flag value
+	 */
+	public void setMemoization(boolean memoize) {
+		compiler = new AutomatonCompiler(memoize);
+		compiler.setMinimize(!antichainValidation);
+	}
+	
+	/**
+	 * Sets whether candidates are validated on their NFAs with antichain 
+	 * inclusion checks (see BasicOperations.inclusionCounterExample()), 
+	 * instead of being determinized and minimized first. This stays 
+	 * polynomial in practice on candidates with nested stars. Words missing 
+	 * from the candidate are preferred as counter examples.
+	 * 
+	 * @param antichains the flag value
+	 */
+	public void setAntichainValidation(boolean antichains) {
+		antichainValidation = antichains;
+		compiler.setMinimize(!antichains);
+	}
+	
+	/**
+	 * Sets the number of threads used to expand a single regex. With more 
+	 * than one thread, the expansion is split per subtree and per change kind
+	 * over a fork/join pool; the order of the candidates doesn't change.
+	 * 
+	 * @param threads number of threads
+	 */
+	public void setExpansionThreads(int threads) {
+		if (expansionPool != null)
+			expansionPool.shutdown();
+		expansionPool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+	
+	/**
+	 * Sets whether or not the candidates waiting in the queue are packed 
+	 * into compact arrays (PackedRegex). Must be set before the search 
+	 * starts.
+	 * 
+	 * @param compact the flag value
+	 */
+	public void setCompactFrontier(boolean compact) {
+		compactFrontier = compact;
+		frontier = new Frontier(alphabet, compact, deltaFrontier);
+		frontier.add(initial);
+		if (deduplicator != null)
+			setDeduplication(true);
+	}
+	
+	/**
+	 * Sets whether or not the candidates waiting in the queue are kept as 
+	 * their parent and edit path, and only built when they are taken. Must 
+	 * be set before the search starts.
+	 * 
+	 * @param delta the flag value
+	 */
+	public void setDeltaFrontier(boolean delta) {
+		deltaFrontier = delta;
+		frontier = new Frontier(alphabet, compactFrontier, delta);
+		frontier.add(initial);
+		if (deduplicator != null)
+			setDeduplication(true);
+	}
+	
+	/**
+	 * Sets a heap budget for the queue: once the used heap is over it, the
+	 * candidates waiting to be tested are spilled to disk (in the temporary
+	 * directory), and read back in order. Must be set before the search 
+	 * starts, after the other queue settings.
+	 * 
+	 * @param megabytes the budget in MB (0 to never spill)
+	 */
+	public void setHeapBudget(long megabytes) {
+		frontier.setHeapBudget(megabytes << 20, null);
+	}
+	
+	/**
+	 * Report of the candidates spilled to disk (empty if none)
+	 */
+	public ArrayList<String> getSpillReport() {
+		return frontier.getSpillReport();
+	}
+	
+	/**
+	 * Sets whether or not duplicate candidates (same tree, distance and 
+	 * change markers) are dropped before testing. Enabled by default.
+	 * 
+	 * @param deduplicate the flag value
+	 */
+	public void setDeduplication(boolean deduplicate) {
+		// if the queue doesn't keep the trees, neither should the keys
+		deduplicator = deduplicate ? new Deduplicator(true, 
+				!compactFrontier && !deltaFrontier) : null;
+	}
+	
+	/**
+	 * Are duplicate candidates dropped?
+	 */
+	boolean isDeduplicating() {
+		return deduplicator != null;
+	}
+	
+	/**
+	 * Releases what the search holds outside the heap: the expansion pool,
+	 * the spill file and the checkpoint file
+	 */
+	public void close() {
+		if (expansionPool != null)
+			expansionPool.shutdown();
+		expansionPool = null;
+		frontier.close();
+		if (checkpoint != null)
+			checkpoint.close();
+		checkpoint = null;
+	}
+	
+	/**
+	 * How many duplicate candidates were dropped so far?
+	 */
+	public long getDuplicateCounter() {
+		return deduplicator == null ? 0 : deduplicator.getDuplicateCounter();
+	}
+	
+	/**
+	 * Memory use of the frontier, reported once per BFS level
+	 */
+	public ArrayList<Frontier.LevelStats> getLevelStats() {
+		return frontier.getLevelStats();
+	}
+	
 	/**
 	 * How many regexes have we tested so far?
 	 */
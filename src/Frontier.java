@@ -0,0 +1,728 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+import regex.PackedRegex;
+import regex.Regex;
+
+/**
+ * The BFS frontier of the Enumerator. Candidates are appended at the tail,
+ * tested in order by one cursor, and expanded (and released) in order by
+ * another one. A candidate is always tested before it is expanded.
+ *
+ * Candidates are stored in fixed size chunks, so adding and taking are O(1).
+ * Once all candidates of a chunk are expanded the chunk is dropped (a few
+ * are kept aside for reuse), so memory is only used by candidates that are
+ * still waiting to be tested or expanded.
+ *
+ * In compact mode, candidates are kept as PackedRegex, and only unpacked
+ * when they are taken. The refine flags a candidate gets when it is tested
+ * are written back before the next candidate is taken.
+ *
+ * In delta mode, a candidate added with addChange() is only kept as its 
+ * parent and its edit path (see Regex.ChangeSpliterator), and its tree is
+ * built again when it is taken. Parents are reference counted, and dropped
+ * once all their children are expanded.
+ *
+ * With a heap budget, once the used heap goes over it, the full chunks 
+ * (all but the ones being expanded, tested and filled) are written to a 
+ * spill file, and read back when the test or expansion cursor reaches 
+ * them. Candidates are spilled as PackedRegex, deltas as the index of their
+ * parent (parents stay in memory) and their edit path. The candidates that
+ * can't be packed stay in memory.
+ *
+ * The whole frontier can be written in the same format (with the packed 
+ * parents of the deltas) and read back, for checkpoints, one block per 
+ * chunk. Once all candidates of a chunk are tested, it doesn't change 
+ * anymore, so its block is only encoded once, and copied from the last 
+ * snapshot by the next ones.
+ */
+
+public class Frontier {
+
+	// Number of candidates in each chunk
+	public static final int CHUNK_SIZE = 4096;
+	// Number of empty chunks we keep for reuse
+	private static final int SPARE_CHUNKS = 8;
+
+	/**
+	 * A block of candidates
+	 */
+	private static class Chunk {
+		// Regex, PackedRegex (in compact mode, or read from a checkpoint) or
+		// Delta (null if spilled)
+		Object[] items = new Object[CHUNK_SIZE];
+		Chunk next;
+		// Where the chunk is in the spill file
+		long spillOffset;
+		int spillLength;
+		// The parents of the spilled deltas
+		ArrayList<Anchor> anchors;
+		// The spilled candidates that can't be packed, kept in memory
+		Object[] kept;
+		// Where the chunk is in the last checkpoint snapshot it was written
+		// to, once all its candidates are tested (snapshotId is 0 if it
+		// isn't in any)
+		long snapshotId;
+		long snapshotOffset;
+		int snapshotLength;
+	}
+
+	// Chunk and position of the next candidate to expand
+	private Chunk expandChunk;
+	private int expandPos;
+	// Chunk and position of the next candidate to test
+	private Chunk testChunk;
+	private int testPos;
+	// Chunk and position where the next candidate is added
+	private Chunk tailChunk;
+	private int tailPos;
+	// Empty chunks kept for reuse
+	private ArrayList<Chunk> spare;
+	// How many candidates were added, tested and expanded so far?
+	private long added;
+	private long tested;
+	private long expanded;
+	// The BFS level (distance) we are testing now
+	private int level;
+	// Memory reports, one per BFS level
+	private ArrayList<LevelStats> levels;
+	// The alphabet of the search, to unpack candidates
+	private ArrayList<Character> alphabet;
+	// Are candidates kept packed?
+	private boolean compact;
+	// Are candidates kept as edit deltas?
+	private boolean delta;
+	// The parent of the last candidate added with addChange()
+	private Anchor lastAnchor;
+	// The last candidate taken for testing, and its packed copy or delta
+	private Regex lastTested;
+	private Object lastTestedItem;
+	// Spill chunks once the used heap is over this many bytes (0 to never
+	// spill)
+	private long heapBudget;
+	// Directory of the spill file (null for the temporary directory)
+	private File spillDirectory;
+	// The spill file (null until something is spilled)
+	private SpillFile spillFile;
+	// How many chunks and candidates were spilled?
+	private long spilledChunks;
+	private long spilledCandidates;
+
+	/**
+	 * A parent regex, kept while some of its children are in the frontier
+	 */
+	private static class Anchor {
+		Regex re;
+		// Number of children not expanded yet
+		int refs;
+	}
+
+	/**
+	 * A candidate kept as its parent and its edit path
+	 */
+	private static class Delta {
+		Anchor parent;
+		char[] path;
+		boolean readyToRefine;
+	}
+
+	/**
+	 * Memory use of the frontier when the search reached a BFS level
+	 */
+	public static class LevelStats {
+		// The distance of the level
+		public final int level;
+		// Candidates tested before reaching this level
+		public final long tested;
+		// Candidates expanded and released before reaching this level
+		public final long expanded;
+		// Candidates still kept in the frontier
+		public final long retained;
+		// Used heap, in bytes
+		public final long heapUsed;
+
+		LevelStats(int level, long tested, long expanded, long retained,
+				long heapUsed) {
+			this.level = level;
+			this.tested = tested;
+			this.expanded = expanded;
+			this.retained = retained;
+			this.heapUsed = heapUsed;
+		}
+
+		@Override
+		public String toString() {
+			return "Level " + level + ": " + tested + " tested, " + expanded
+					+ " expanded, " + retained + " kept, "
+					+ (heapUsed >> 20) + " MB heap used";
+		}
+	}
+
+	/**
+	 * Constructor for an empty frontier
+	 */
+	public Frontier() {
+		this(null, false, false);
+	}
+
+	/**
+	 * Constructor for an empty frontier
+	 *
+	 * @param alphabet the alphabet of the search (to unpack candidates)
+	 * @param compact whether or not to keep candidates packed
+	 * @param delta whether or not to keep the candidates added with 
+	 * addChange() as edit deltas
+	 */
+	public Frontier(ArrayList<Character> alphabet, boolean compact, 
+			boolean delta) {
+		this.alphabet = alphabet;
+		this.compact = compact;
+		this.delta = delta;
+		tailChunk = new Chunk();
+		expandChunk = tailChunk;
+		testChunk = tailChunk;
+		spare = new ArrayList<Chunk>();
+		levels = new ArrayList<LevelStats>();
+		level = -1;
+	}
+
+	/**
+	 * Adds a candidate at the end of the frontier
+	 *
+	 * @param re the candidate
+	 */
+	public void add(Regex re) {
+		PackedRegex packed = compact ? PackedRegex.pack(re) : null;
+		append(packed == null ? re : packed);
+	}
+
+	/**
+	 * Adds a possible change of a regex at the end of the frontier
+	 *
+	 * @param re the candidate
+	 * @param parent the regex it was enumerated from (must not change until
+	 * all its children are expanded)
+	 * @param path the edit path of the candidate
+	 */
+	public void addChange(Regex re, Regex parent, char[] path) {
+		if (!delta) {
+			add(re);
+			return;
+		}
+		if (lastAnchor == null || lastAnchor.re != parent) {
+			lastAnchor = new Anchor();
+			lastAnchor.re = parent;
+		}
+		lastAnchor.refs++;
+		Delta d = new Delta();
+		d.parent = lastAnchor;
+		d.path = path;
+		d.readyToRefine = re.isReadyToRefine();
+		append(d);
+	}
+
+	/**
+	 * Stores an item at the tail
+	 */
+	private void append(Object item) {
+		if (tailPos == CHUNK_SIZE) {
+			if (heapBudget > 0 && usedHeap() > heapBudget)
+				spill();
+			Chunk c = spare.isEmpty() ? new Chunk()
+					: spare.remove(spare.size() - 1);
+			tailChunk.next = c;
+			tailChunk = c;
+			tailPos = 0;
+		}
+		tailChunk.items[tailPos++] = item;
+		added++;
+	}
+
+	/**
+	 * Adds candidates at the end of the frontier, in order
+	 *
+	 * @param res the candidates
+	 */
+	public void addAll(Collection<Regex> res) {
+		for (Regex re : res)
+			add(re);
+	}
+
+	/**
+	 * Takes the next candidate to test. It stays in the frontier until it is
+	 * expanded.
+	 *
+	 * @return the candidate, or null if all candidates are tested
+	 */
+	public Regex nextToTest() {
+		writeBackFlags();
+		if (tested == added)
+			return null;
+		if (testPos == CHUNK_SIZE) {
+			testChunk = testChunk.next;
+			testPos = 0;
+			if (testChunk.items == null)
+				reload(testChunk);
+		}
+		Object item = testChunk.items[testPos++];
+		Regex re = unpack(item);
+		if (!(item instanceof Regex)) {
+			lastTested = re;
+			lastTestedItem = item;
+		}
+		tested++;
+		if (re.getDistance() > level) {
+			level = re.getDistance();
+			Runtime rt = Runtime.getRuntime();
+			levels.add(new LevelStats(level, tested - 1, expanded,
+					added - expanded, rt.totalMemory() - rt.freeMemory()));
+		}
+		return re;
+	}
+
+	/**
+	 * Removes the next candidate to expand from the frontier
+	 *
+	 * @return the candidate, or null if there is no tested candidate left
+	 */
+	public Regex nextToExpand() {
+		writeBackFlags();
+		if (expanded == tested)
+			return null;
+		if (expandPos == CHUNK_SIZE) {
+			Chunk done = expandChunk;
+			expandChunk = expandChunk.next;
+			expandPos = 0;
+			done.next = null;
+			done.snapshotId = 0;
+			if (spare.size() < SPARE_CHUNKS)
+				spare.add(done);
+			if (expandChunk.items == null)
+				reload(expandChunk);
+		}
+		Object item = expandChunk.items[expandPos];
+		expandChunk.items[expandPos++] = null;
+		expanded++;
+		Regex re = unpack(item);
+		if (item instanceof Delta) {
+			Anchor parent = ((Delta)item).parent;
+			if (--parent.refs == 0)
+				parent.re = null;
+		}
+		return re;
+	}
+
+	/**
+	 * Sets a heap budget: once the used heap is over it, chunks waiting to 
+	 * be tested are spilled to disk
+	 *
+	 * @param bytes the budget, in bytes (0 to never spill)
+	 * @param directory where to create the spill file (null for the 
+	 * temporary directory)
+	 */
+	public void setHeapBudget(long bytes, File directory) {
+		if (bytes > 0 && alphabet == null)
+			throw new IllegalStateException("Spilling needs the alphabet");
+		heapBudget = bytes;
+		spillDirectory = directory;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Spills the full chunks, except the ones being expanded and tested 
+	 * (called when the tail chunk is full)
+	 */
+	private void spill() {
+		try {
+			if (spillFile == null)
+				spillFile = new SpillFile(spillDirectory);
+			for (Chunk c = expandChunk.next; c != null; c = c.next)
+				if (c != testChunk && c.items != null)
+					spill(c);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not spill the frontier", e);
+		}
+	}
+
+	/**
+	 * Writes a full chunk to the spill file, and drops its items
+	 */
+	private void spill(Chunk c) throws IOException {
+		long start = System.nanoTime();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		IdentityHashMap<Anchor, Integer> anchors = 
+				new IdentityHashMap<Anchor, Integer>();
+		ArrayList<Anchor> anchorList = new ArrayList<Anchor>();
+		ArrayList<Object> kept = new ArrayList<Object>();
+		for (Object item : c.items)
+			writeItem(out, item, anchors, anchorList, kept);
+		out.flush();
+		spillFile.addWriteTime(System.nanoTime() - start);
+
+		c.spillLength = bytes.size();
+		c.spillOffset = spillFile.write(bytes.toByteArray(), bytes.size());
+		c.anchors = anchorList;
+		c.kept = kept.toArray();
+		c.items = null;
+		spilledChunks++;
+		spilledCandidates += CHUNK_SIZE;
+	}
+
+	/**
+	 * Writes an item: a tag, then the packed regex, the index of a kept 
+	 * item, or the index of the parent and the edit path of a delta
+	 *
+	 * @param anchors the index of the parents written so far
+	 * @param anchorList the parents written so far, in order
+	 * @param kept where the items that can't be packed are kept (null if
+	 * they can't be kept)
+	 * @return false if the item can't be packed nor kept
+	 */
+	private static boolean writeItem(DataOutputStream out, Object item,
+			IdentityHashMap<Anchor, Integer> anchors, 
+			ArrayList<Anchor> anchorList, ArrayList<Object> kept)
+			throws IOException {
+		if (item instanceof Delta) {
+			Delta d = (Delta)item;
+			Integer index = anchors.get(d.parent);
+			if (index == null) {
+				index = anchorList.size();
+				anchors.put(d.parent, index);
+				anchorList.add(d.parent);
+			}
+			out.writeByte(d.readyToRefine ? 3 : 2);
+			out.writeInt(index);
+			out.writeShort(d.path.length);
+			for (char step : d.path)
+				out.writeChar(step);
+			return true;
+		}
+		PackedRegex packed = item instanceof PackedRegex 
+				? (PackedRegex)item : PackedRegex.pack((Regex)item);
+		if (packed == null) {
+			if (kept == null)
+				return false;
+			out.writeByte(0);
+			out.writeInt(kept.size());
+			kept.add(item);
+			return true;
+		}
+		out.writeByte(1);
+		packed.write(out);
+		return true;
+	}
+
+	/**
+	 * Reads an item written by writeItem()
+	 *
+	 * @param anchors the parents, by index; a parent that is not in it yet
+	 * is added, without its regex
+	 * @param kept the items that couldn't be packed, by index
+	 */
+	private static Object readItem(ByteBuffer in, ArrayList<Anchor> anchors, 
+			Object[] kept) {
+		byte tag = in.get();
+		if (tag == 0)
+			return kept[in.getInt()];
+		if (tag == 1)
+			return PackedRegex.read(in);
+		Delta d = new Delta();
+		d.readyToRefine = tag == 3;
+		int index = in.getInt();
+		if (index == anchors.size())
+			anchors.add(new Anchor());
+		d.parent = anchors.get(index);
+		d.path = new char[in.getShort() & 0xFFFF];
+		for (int j = 0; j < d.path.length; j++)
+			d.path[j] = in.getChar();
+		return d;
+	}
+
+	/**
+	 * Reads a spilled chunk back
+	 */
+	private void reload(Chunk c) {
+		c.items = readChunk(c);
+		c.anchors = null;
+		c.kept = null;
+	}
+
+	/**
+	 * Reads the items of a spilled chunk (the chunk stays spilled)
+	 */
+	private Object[] readChunk(Chunk c) {
+		try {
+			ByteBuffer in = spillFile.read(c.spillOffset, c.spillLength);
+			long start = System.nanoTime();
+			Object[] items = new Object[CHUNK_SIZE];
+			for (int i = 0; i < CHUNK_SIZE; i++)
+				items[i] = readItem(in, c.anchors, c.kept);
+			spillFile.addReadTime(System.nanoTime() - start);
+			return items;
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not reload the frontier", e);
+		}
+	}
+
+	/**
+	 * Writes the candidates of the frontier, from the next one to expand to
+	 * the last one added: a block with the counters, then a block per 
+	 * chunk, with the candidates in the spill format followed by the packed
+	 * parents of the deltas. Spilled chunks are read, but stay spilled. The
+	 * chunks whose candidates were all tested when the last snapshot was 
+	 * written are copied from it.
+	 *
+	 * @param out where to write
+	 * @return false if a candidate (or parent) can't be packed; then what
+	 * was written is not usable
+	 */
+	public boolean write(Checkpoint.SnapshotWriter out) throws IOException {
+		writeBackFlags();
+		int lastDistance = added == expanded ? -1 
+				: getDistance(tailChunk.items[tailPos - 1]);
+		Chunk head = expandChunk;
+		int headPos = expandPos;
+		if (headPos == CHUNK_SIZE && head.next != null) {
+			head = head.next;
+			headPos = 0;
+		}
+		out.startBlock();
+		out.writeLong(expanded);
+		out.writeLong(tested - expanded);
+		out.writeLong(added - expanded);
+		out.writeInt(lastDistance);
+		out.writeInt(headPos);
+		out.endBlock();
+
+		// the chunks before the test cursor don't change anymore
+		boolean sealed = testChunk != expandChunk;
+		for (Chunk c = head; c != null; c = c.next) {
+			if (c == testChunk)
+				sealed = false;
+			int first = c == head ? headPos : 0;
+			int end = c == tailChunk ? tailPos : CHUNK_SIZE;
+			if (first == end)
+				continue;
+			long offset = -1;
+			if (sealed && c.snapshotId != 0)
+				offset = out.copyBlock(c.snapshotId, c.snapshotOffset, 
+						c.snapshotLength);
+			if (offset < 0) {
+				offset = out.startBlock();
+				if (!writeBlock(out, c, first, end))
+					return false;
+				c.snapshotLength = out.endBlock();
+				// the expanded candidates are dropped
+				if (!sealed || first > 0) {
+					c.snapshotId = 0;
+					continue;
+				}
+			}
+			c.snapshotId = out.getId();
+			c.snapshotOffset = offset;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the candidates of a chunk, from first to end (excluded), and
+	 * the packed parents of its deltas
+	 *
+	 * @return false if a candidate (or parent) can't be packed
+	 */
+	private boolean writeBlock(DataOutputStream out, Chunk c, int first, 
+			int end) throws IOException {
+		Object[] chunkItems = c.items != null ? c.items : readChunk(c);
+		IdentityHashMap<Anchor, Integer> anchors = 
+				new IdentityHashMap<Anchor, Integer>();
+		ArrayList<Anchor> anchorList = new ArrayList<Anchor>();
+		out.writeInt(first);
+		out.writeInt(end - first);
+		for (int i = first; i < end; i++)
+			if (!writeItem(out, chunkItems[i], anchors, anchorList, null))
+				return false;
+		for (Anchor a : anchorList) {
+			PackedRegex packed = PackedRegex.pack(a.re);
+			if (packed == null)
+				return false;
+			packed.write(out);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the candidates of the frontier by the ones written by 
+	 * write(). They are kept packed, or as deltas, whatever the frontier 
+	 * that wrote them did: unpacked, they wouldn't share their subtrees 
+	 * with their siblings as they did when they were enumerated.
+	 *
+	 * @param in where to read from
+	 * @param deduplicator if not null, is given the candidates of the last
+	 * distance, as when they were enumerated
+	 */
+	public void read(Checkpoint.SnapshotReader in, Deduplicator deduplicator)
+			throws IOException {
+		ByteBuffer counters = in.nextBlock();
+		long expandedBefore = counters.getLong();
+		long testedCount = counters.getLong();
+		long count = counters.getLong();
+		int lastDistance = counters.getInt();
+		int skip = counters.getInt();
+
+		// the candidates keep their place in the chunks
+		tailChunk = new Chunk();
+		expandChunk = tailChunk;
+		testChunk = tailChunk;
+		tailPos = skip;
+		expandPos = skip;
+		testPos = skip;
+		lastAnchor = null;
+		lastTested = null;
+		lastTestedItem = null;
+		added = 0;
+
+		for (long left = count; left > 0; ) {
+			ByteBuffer block = in.nextBlock();
+			int first = block.getInt();
+			Object[] items = new Object[block.getInt()];
+			ArrayList<Anchor> anchors = new ArrayList<Anchor>();
+			for (int i = 0; i < items.length; i++)
+				items[i] = readItem(block, anchors, null);
+			for (Anchor a : anchors)
+				a.re = PackedRegex.read(block).toRegex(alphabet);
+			// the first block can have candidates expanded since
+			for (int i = Math.max(skip - first, 0); i < items.length; i++) {
+				Object item = items[i];
+				// the deduplicator only knows the last distance
+				if (deduplicator != null 
+						&& getDistance(item) == lastDistance)
+					deduplicator.isNew(unpack(item));
+				if (item instanceof Delta)
+					((Delta)item).parent.refs++;
+				append(item);
+				left--;
+			}
+			skip = 0;
+		}
+
+		// the cursors after the tested candidates
+		tested = testedCount;
+		long t = testPos + testedCount;
+		while (t > CHUNK_SIZE) {
+			testChunk = testChunk.next;
+			t -= CHUNK_SIZE;
+		}
+		testPos = (int)t;
+		if (testChunk.items == null)
+			reload(testChunk);
+		expanded = expandedBefore;
+		tested += expanded;
+		added += expanded;
+	}
+
+	/**
+	 * Deletes the spill file, if any
+	 */
+	public void close() {
+		try {
+			if (spillFile != null)
+				spillFile.close();
+		}
+		catch (IOException e) {
+			// it is a temporary file, deleted on exit anyway
+		}
+	}
+
+	/**
+	 * A report of the spilled chunks: amount, size and throughput. Empty if
+	 * nothing was spilled.
+	 */
+	public ArrayList<String> getSpillReport() {
+		ArrayList<String> report = new ArrayList<String>();
+		if (spillFile == null)
+			return report;
+		report.add(String.format("Spilled %d candidates in %d chunks, %.1f MB "
+				+ "(%d bytes/candidate)", spilledCandidates, spilledChunks,
+				spillFile.getBytesWritten() / 1048576.0, spilledCandidates == 0
+						? 0 : spillFile.getBytesWritten() / spilledCandidates));
+		report.add(String.format("Spill write: %.1f MB/s, reload: %.1f MB/s "
+				+ "(%.1f MB reloaded)", spillFile.getWriteThroughput(),
+				spillFile.getReadThroughput(), 
+				spillFile.getBytesRead() / 1048576.0));
+		return report;
+	}
+
+	/**
+	 * Copies the refine flags of the last tested candidate to its packed copy
+	 */
+	private void writeBackFlags() {
+		if (lastTestedItem instanceof PackedRegex)
+			((PackedRegex)lastTestedItem).setFlags(lastTested);
+		else if (lastTestedItem instanceof Delta)
+			((Delta)lastTestedItem).readyToRefine = 
+					lastTested.isReadyToRefine();
+		lastTestedItem = null;
+		lastTested = null;
+	}
+
+	/**
+	 * The distance of the regex of an item
+	 */
+	private static int getDistance(Object item) {
+		if (item instanceof PackedRegex)
+			return ((PackedRegex)item).getDistance();
+		if (item instanceof Delta)
+			return ((Delta)item).parent.re.getDistance() + 1;
+		return ((Regex)item).getDistance();
+	}
+
+	/**
+	 * Builds the regex of an item
+	 */
+	private Regex unpack(Object item) {
+		if (item instanceof PackedRegex)
+			return ((PackedRegex)item).toRegex(alphabet);
+		if (item instanceof Delta) {
+			Delta d = (Delta)item;
+			Regex re = d.parent.re.getPossibleChange(d.path);
+			re.setReadyToRefineFlag(d.readyToRefine);
+			return re;
+		}
+		return (Regex)item;
+	}
+
+	/**
+	 * Number of candidates still in the frontier
+	 */
+	public long size() {
+		return added - expanded;
+	}
+
+	/**
+	 * Number of candidates waiting to be tested
+	 */
+	public long untestedCount() {
+		return added - tested;
+	}
+
+	/**
+	 * Memory reports, one per BFS level reached so far
+	 */
+	public ArrayList<LevelStats> getLevelStats() {
+		return levels;
+	}
+
+}
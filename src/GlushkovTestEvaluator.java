@@ -0,0 +1,22 @@
+import regex.GlushkovMatcher;
+import regex.Regex;
+
+/**
+ * Test evaluator using the bit-parallel Glushkov automaton of the candidate
+ * tree. No determinization and no allocation per character.
+ */
+
+public class GlushkovTestEvaluator implements TestEvaluator {
+
+	@Override
+	public CandidateMatcher compile(Regex re) {
+		final GlushkovMatcher m = new GlushkovMatcher(re);
+		return new CandidateMatcher() {
+			@Override
+			public boolean matches(String word) {
+				return m.matches(word);
+			}
+		};
+	}
+
+}
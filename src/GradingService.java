@@ -0,0 +1,506 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import regex.Regex;
+
+/**
+ * A resident grading service: an HTTP server on the loopback interface that
+ * runs repair searches on a bounded pool of workers. Requests and responses
+ * are flat JSON objects:
+ *
+ *   POST /repair      {"target": ..., "input": ..., "max_nodes": ...,
+ *                     "max_ms": ..., "wait": true|false}
+ *                     queues a search; answers with the job (202), or with
+ *                     its result if wait is true (200, sent once the job 
+ *                     is over: a waiting request holds no thread)
+ *   GET /jobs/ID      the job: status (queued, running, done, no-repair,
+ *                     failed, cancelled, over-budget) and result
+ *   DELETE /jobs/ID   cancels the job
+ *   GET /stats        queue depth, running jobs, job and target cache
+ *                     counters, and latency percentiles of the last
+ *                     finished jobs
+ *
+ * e.g. curl -d '{"target": "a(b|c)*", "input": "a(b|c)", "wait": true}'
+ * http://localhost:PORT/repair
+ *
+ * Admission control: at most a fixed number of jobs wait for a worker, and
+ * requests over that are turned down (503, with Retry-After). Every search
+ * has a node (tested candidates) and time budget; a request may lower the
+ * budgets of the service but not raise them, so a pathological regex only
+ * holds its worker until its budget is spent.
+ *
+ * Target artefacts are shared by all the jobs with the same target. The 
+ * counter examples the jobs of a target find (-learn) are given to the jobs
+ * that start once none of them is running.
+ */
+
+public class GradingService {
+
+	// Finished jobs kept for GET /jobs/ID
+	public static final int MAX_FINISHED_JOBS = 10000;
+	// Number of finished jobs the latency percentiles are computed over
+	public static final int LATENCY_WINDOW = 1024;
+	// Threads answering HTTP requests
+	public static final int HTTP_THREADS = 16;
+
+	// The search options
+	private Checker.Options options;
+	// Target artefacts, by target regex
+	private TargetCache targets;
+	// Budgets of a search (0 for no limit)
+	private long maxNodes;
+	private long maxMillis;
+	// The HTTP server, and the threads answering requests
+	private HttpServer server;
+	private ExecutorService httpThreads;
+	// The workers running the searches, with a bounded queue
+	private ThreadPoolExecutor workers;
+	// The jobs, by id, oldest first
+	private LinkedHashMap<String, Job> jobs;
+	private long nextId;
+	// End-to-end latencies (ms) of the last finished jobs, as a ring
+	private long[] latencies;
+	private long finishedCounter;
+	// Counters, by outcome
+	private long acceptedCounter;
+	private long rejectedCounter;
+	private long doneCounter;
+	private long failedCounter;
+	private long cancelledCounter;
+	private long overBudgetCounter;
+
+	/**
+	 * A search requested by a client
+	 */
+	private class Job implements Runnable {
+		String id;
+		String target;
+		String input;
+		long maxNodes;
+		long maxMillis;
+		volatile String status = "queued";
+		// The running search (null if not started)
+		volatile Enumerator enumerator;
+		boolean cancelRequested;
+		// The result
+		Regex answer;
+		String error;
+		int enumerated;
+		int validated;
+		long submitted = System.nanoTime();
+		long started;
+		long finished;
+		CountDownLatch done = new CountDownLatch(1);
+		// A request waiting for the result (null if none)
+		HttpExchange waiter;
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				// finished by cancel()
+				if (cancelRequested)
+					return;
+				started = System.nanoTime();
+				status = "running";
+			}
+			Enumerator e = null;
+			TargetArtefacts artefacts = null;
+			try {
+				artefacts = targets.get(target);
+				artefacts.searchStarted();
+				e = new Enumerator(artefacts, input);
+				options.configure(e);
+				e.setBudget(maxNodes, maxMillis);
+				synchronized (this) {
+					enumerator = e;
+					if (cancelRequested)
+						e.cancel();
+				}
+				answer = options.search(e);
+				finish(answer == null ? "no-repair" : "done", null);
+			}
+			catch (SearchAbortedException ex) {
+				finish(ex.getReason() == SearchAbortedException.Reason.CANCELLED
+						? "cancelled" : "over-budget", ex.getMessage());
+			}
+			catch (RuntimeException ex) {
+				finish("failed", String.valueOf(ex));
+			}
+			catch (StackOverflowError ex) {
+				finish("failed", "regex too deep");
+			}
+			finally {
+				if (e != null) {
+					enumerated = e.getTestingCounter();
+					validated = e.getValidationCounter();
+					e.close();
+				}
+				if (finished == 0)
+					finish("failed", "search error");
+				enumerator = null;
+				if (artefacts != null)
+					artefacts.searchFinished();
+				done();
+				// after the answer, so waiting clients don't wait for the disk
+				targets.flush(target);
+			}
+		}
+
+		/**
+		 * Records the outcome of the job
+		 */
+		void finish(String status, String error) {
+			this.error = error;
+			finished = System.nanoTime();
+			this.status = status;
+			finished(this);
+		}
+
+		/**
+		 * Marks the job as over, and answers the request waiting for it
+		 */
+		void done() {
+			HttpExchange w;
+			synchronized (this) {
+				done.countDown();
+				w = waiter;
+				waiter = null;
+			}
+			if (w != null)
+				respondQuietly(w, 200, toJson());
+		}
+
+		/**
+		 * Answers a request with the result once the job is over (now if it
+		 * is already)
+		 */
+		void await(HttpExchange exchange) {
+			synchronized (this) {
+				if (done.getCount() != 0) {
+					waiter = exchange;
+					return;
+				}
+			}
+			respondQuietly(exchange, 200, toJson());
+		}
+
+		/**
+		 * The job as a JSON object
+		 */
+		String toJson() {
+			StringBuilder b = new StringBuilder();
+			b.append("{\"id\": ").append(Json.quote(id));
+			b.append(", \"status\": ").append(Json.quote(status));
+			if (done.getCount() == 0) {
+				if (answer != null)
+					b.append(", \"answer\": ").append(Json.quote(answer.toString()))
+							.append(", \"distance\": ").append(answer.getDistance());
+				if (error != null)
+					b.append(", \"error\": ").append(Json.quote(error));
+				b.append(", \"enumerated\": ").append(enumerated);
+				b.append(", \"validated\": ").append(validated);
+				b.append(", \"queued_ms\": ").append(((started == 0 ? finished
+						: started) - submitted) / 1000000);
+				b.append(", \"ms\": ").append((finished - submitted) / 1000000);
+			}
+			return b.append("}").toString();
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param options the search options
+	 * @param threads number of searches run at the same time
+	 * @param queueSize most jobs waiting for a worker
+	 * @param maxNodes most candidates a search may test (0 for no limit)
+	 * @param maxMillis most time a search may take (0 for no limit)
+	 * @param targets the target artefacts to use and fill in
+	 */
+	public GradingService(Checker.Options options, int threads, int queueSize,
+			long maxNodes, long maxMillis, TargetCache targets) {
+		this.options = options;
+		this.maxNodes = maxNodes;
+		this.maxMillis = maxMillis;
+		this.targets = targets;
+		workers = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)));
+		jobs = new LinkedHashMap<String, Job>();
+		latencies = new long[LATENCY_WINDOW];
+	}
+
+	/**
+	 * Starts answering requests
+	 *
+	 * @param port the port to listen to, on the loopback interface (0 for
+	 * any free port)
+	 * @return the port
+	 */
+	public int start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/repair", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRepair(exchange);
+			}
+		});
+		server.createContext("/jobs/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleJob(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, getStats());
+			}
+		});
+		httpThreads = Executors.newFixedThreadPool(HTTP_THREADS);
+		server.setExecutor(httpThreads);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops answering requests, and cancels the searches
+	 */
+	public void stop() {
+		server.stop(0);
+		httpThreads.shutdownNow();
+		synchronized (jobs) {
+			for (Job job : jobs.values())
+				cancel(job);
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * POST /repair
+	 */
+	private void handleRepair(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, error("use POST"));
+			return;
+		}
+		Map<String, String> request;
+		try {
+			request = Json.parseObject(readBody(exchange));
+			if (request.get("target") == null || request.get("input") == null)
+				throw new IllegalArgumentException(
+						"expected a target and an input");
+		}
+		catch (IllegalArgumentException e) {
+			respond(exchange, 400, error(e.getMessage()));
+			return;
+		}
+
+		Job job = new Job();
+		job.target = request.get("target");
+		job.input = request.get("input");
+		try {
+			job.maxNodes = lower(maxNodes, request.get("max_nodes"));
+			job.maxMillis = lower(maxMillis, request.get("max_ms"));
+		}
+		catch (NumberFormatException e) {
+			respond(exchange, 400, error("bad budget: " + e.getMessage()));
+			return;
+		}
+		synchronized (jobs) {
+			job.id = String.valueOf(++nextId);
+			try {
+				workers.execute(job);
+			}
+			catch (RejectedExecutionException e) {
+				rejectedCounter++;
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				respond(exchange, 503, error("too many jobs waiting"));
+				return;
+			}
+			acceptedCounter++;
+			jobs.put(job.id, job);
+		}
+
+		// the job answers a waiting request when it is over
+		if ("true".equals(request.get("wait")))
+			job.await(exchange);
+		else
+			respond(exchange, 202, job.toJson());
+	}
+
+	/**
+	 * The lower of the budget of the service and the one of a request
+	 * (0 means no limit)
+	 */
+	private static long lower(long budget, String requested) {
+		if (requested == null)
+			return budget;
+		long r = Long.parseLong(requested);
+		if (r <= 0)
+			return budget;
+		return budget == 0 ? r : Math.min(budget, r);
+	}
+
+	/**
+	 * GET and DELETE /jobs/ID
+	 */
+	private void handleJob(HttpExchange exchange) throws IOException {
+		String id = exchange.getRequestURI().getPath()
+				.substring("/jobs/".length());
+		Job job;
+		synchronized (jobs) {
+			job = jobs.get(id);
+		}
+		if (job == null) {
+			respond(exchange, 404, error("no job " + id));
+			return;
+		}
+		String method = exchange.getRequestMethod();
+		if (method.equals("DELETE"))
+			cancel(job);
+		else if (!method.equals("GET")) {
+			respond(exchange, 405, error("use GET or DELETE"));
+			return;
+		}
+		respond(exchange, 200, job.toJson());
+	}
+
+	/**
+	 * Cancels a job: a queued job is dropped, a running search is stopped
+	 * before its next candidate
+	 */
+	private void cancel(Job job) {
+		synchronized (job) {
+			if (job.cancelRequested)
+				return;
+			job.cancelRequested = true;
+			if (!job.status.equals("queued")) {
+				if (job.enumerator != null)
+					job.enumerator.cancel();
+				return;
+			}
+			workers.remove(job);
+			job.finish("cancelled", "Cancelled");
+		}
+		job.done();
+	}
+
+	/**
+	 * Records a finished job
+	 */
+	private void finished(Job job) {
+		synchronized (jobs) {
+			latencies[(int)(finishedCounter++ % LATENCY_WINDOW)] =
+					(job.finished - job.submitted) / 1000000;
+			if (job.status.equals("done") || job.status.equals("no-repair"))
+				doneCounter++;
+			else if (job.status.equals("cancelled"))
+				cancelledCounter++;
+			else if (job.status.equals("over-budget"))
+				overBudgetCounter++;
+			else
+				failedCounter++;
+
+			// forget the oldest finished jobs
+			Iterator<Job> it = jobs.values().iterator();
+			while (jobs.size() > MAX_FINISHED_JOBS && it.hasNext())
+				if (it.next().done.getCount() == 0)
+					it.remove();
+		}
+	}
+
+	/**
+	 * Statistics of the service, as a JSON object
+	 */
+	public String getStats() {
+		synchronized (jobs) {
+			int n = (int)Math.min(finishedCounter, LATENCY_WINDOW);
+			long[] sorted = Arrays.copyOf(latencies, n);
+			Arrays.sort(sorted);
+			return "{\"queue_depth\": " + workers.getQueue().size()
+					+ ", \"running\": " + workers.getActiveCount()
+					+ ", \"accepted\": " + acceptedCounter
+					+ ", \"rejected\": " + rejectedCounter
+					+ ", \"done\": " + doneCounter
+					+ ", \"failed\": " + failedCounter
+					+ ", \"cancelled\": " + cancelledCounter
+					+ ", \"over_budget\": " + overBudgetCounter
+					+ ", " + targets.getJsonFields()
+					+ ", \"p50_ms\": " + percentile(sorted, 50)
+					+ ", \"p90_ms\": " + percentile(sorted, 90)
+					+ ", \"p99_ms\": " + percentile(sorted, 99)
+					+ ", \"max_ms\": " + percentile(sorted, 100) + "}";
+		}
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted values (0 if there are none)
+	 */
+	private static long percentile(long[] sorted, int p) {
+		if (sorted.length == 0)
+			return 0;
+		int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static String error(String message) {
+		return "{\"error\": " + Json.quote(message) + "}";
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			body.write(buffer, 0, n);
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Answers a request outside of its handler; a client that went away is
+	 * not an error of the service
+	 */
+	private static void respondQuietly(HttpExchange exchange, int code,
+			String json) {
+		try {
+			respond(exchange, code, json);
+		}
+		catch (IOException e) {
+			exchange.close();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int code, String json)
+			throws IOException {
+		byte[] bytes = (json + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+}
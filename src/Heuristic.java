@@ -0,0 +1,24 @@
+import regex.Regex;
+
+/**
+ * A lower bound on the number of changes still needed to turn a candidate
+ * into a regex equivalent to the target. Used by the best-first search; it
+ * must never overestimate, or the answer might not have minimum distance.
+ */
+
+public interface Heuristic {
+	
+	/**
+	 * Name of the heuristic, for reports
+	 */
+	public String getName();
+	
+	/**
+	 * Estimates the number of changes still needed
+	 * 
+	 * @param re the candidate regex
+	 * @return a lower bound on the number of changes
+	 */
+	public int estimate(Regex re);
+	
+}
@@ -0,0 +1,177 @@
+import java.util.LinkedHashMap;
+
+/**
+ * Just enough JSON for the batch and service modes: flat objects whose
+ * values are strings, numbers, booleans or null. Nested objects and arrays
+ * are not supported.
+ */
+
+public class Json {
+
+	/**
+	 * Parses a flat JSON object
+	 *
+	 * @param text the object
+	 * @return its fields, in order; numbers, booleans and null are kept as
+	 * they are written (null as a null value)
+	 * @throws IllegalArgumentException if the object is not valid or not flat
+	 */
+	public static LinkedHashMap<String, String> parseObject(String text) {
+		Json parser = new Json(text);
+		LinkedHashMap<String, String> fields =
+				new LinkedHashMap<String, String>();
+		parser.expect('{');
+		if (parser.peek() == '}') {
+			parser.pos++;
+		}
+		else {
+			do {
+				String key = parser.string();
+				parser.expect(':');
+				fields.put(key, parser.value());
+			} while (parser.next() == ',');
+			parser.pos--;
+			parser.expect('}');
+		}
+		if (parser.peek() != 0)
+			throw parser.error("trailing characters");
+		return fields;
+	}
+
+	/**
+	 * Quotes a string as a JSON string. Characters outside printable ASCII
+	 * are escaped.
+	 *
+	 * @param s the string
+	 * @return the JSON string, with its quotes
+	 */
+	public static String quote(String s) {
+		StringBuilder b = new StringBuilder(s.length() + 2);
+		b.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				b.append('\\').append(c);
+			else if (c == '\n')
+				b.append("\\n");
+			else if (c == '\t')
+				b.append("\\t");
+			else if (c < 0x20 || c > 0x7e)
+				b.append(String.format("\\u%04x", (int)c));
+			else
+				b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	// The text we are parsing
+	private String text;
+	// Position of the next character
+	private int pos;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * The next non-blank character, without taking it (0 at the end)
+	 */
+	private char peek() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	/**
+	 * Takes the next non-blank character
+	 */
+	private char next() {
+		char c = peek();
+		pos++;
+		return c;
+	}
+
+	private void expect(char c) {
+		if (next() != c)
+			throw error("expected '" + c + "'");
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("Invalid JSON at " + pos + ": "
+				+ message);
+	}
+
+	/**
+	 * A string, number, boolean or null value
+	 */
+	private String value() {
+		char c = peek();
+		if (c == '"')
+			return string();
+		if (c == '{' || c == '[')
+			throw error("nested values are not supported");
+		int start = pos;
+		while (pos < text.length() && ",}".indexOf(text.charAt(pos)) == -1
+				&& !Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		String literal = text.substring(start, pos);
+		if (literal.isEmpty())
+			throw error("expected a value");
+		return literal.equals("null") ? null : literal;
+	}
+
+	/**
+	 * A quoted string
+	 */
+	private String string() {
+		expect('"');
+		StringBuilder b = new StringBuilder();
+		while (true) {
+			if (pos >= text.length())
+				throw error("unterminated string");
+			char c = text.charAt(pos++);
+			if (c == '"')
+				return b.toString();
+			if (c != '\\') {
+				b.append(c);
+				continue;
+			}
+			if (pos >= text.length())
+				throw error("unterminated string");
+			c = text.charAt(pos++);
+			switch (c) {
+				case 'n':
+					b.append('\n');
+					break;
+				case 't':
+					b.append('\t');
+					break;
+				case 'r':
+					b.append('\r');
+					break;
+				case 'b':
+					b.append('\b');
+					break;
+				case 'f':
+					b.append('\f');
+					break;
+				case 'u':
+					if (pos + 4 > text.length())
+						throw error("bad \\u escape");
+					try {
+						b.append((char)Integer.parseInt(
+								text.substring(pos, pos + 4), 16));
+					}
+					catch (NumberFormatException e) {
+						throw error("bad \\u escape");
+					}
+					pos += 4;
+					break;
+				default:
+					b.append(c);
+					break;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+/**
+ * Times the minimization algorithms of dk.brics.automaton on the same
+ * DFAs, and checks that they agree. The DFAs are random partial ones over a
+ * few letters, random ones whose transitions are ranges of Unicode
+ * characters (many character classes, few transitions per state), and the
+ * DFAs of (a|b)*a(a|b){k}.
+ *
+ * Usage: java MinimizationBenchmark [states] [rounds]
+ *
+ * Prints the best time of each algorithm on each DFA, in milliseconds, or
+ * "skip" (Huffman's algorithm is quadratic in the states, so it is only run
+ * on the smaller DFAs) or "oom" (out of memory).
+ */
+
+public class MinimizationBenchmark {
+
+	// The algorithms, and their names
+	private static final int[] ALGORITHMS = {Automaton.MINIMIZE_HOPCROFT,
+			Automaton.MINIMIZE_VALMARI, Automaton.MINIMIZE_BRZOZOWSKI,
+			Automaton.MINIMIZE_HUFFMAN};
+	private static final String[] NAMES = {"hopcroft", "valmari",
+			"brzozowski", "huffman"};
+	// Huffman's algorithm is skipped on DFAs with more states
+	private static final int HUFFMAN_MAX_STATES = 2000;
+
+	public static void main(String[] args) {
+		int states = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Random random = new Random(1);
+
+		List<String> names = new ArrayList<String>();
+		List<Automaton> dfas = new ArrayList<Automaton>();
+		for (int i = 0; i < 3; i++) {
+			names.add("letters-" + i);
+			dfas.add(randomDFA(random, states, 4, false));
+		}
+		for (int i = 0; i < 3; i++) {
+			names.add("ranges-" + i);
+			dfas.add(randomDFA(random, states, 3, true));
+		}
+		for (int k = 8; k <= 12; k += 2) {
+			Automaton a = new RegExp("(a|b)*a(a|b){" + k + "}").toAutomaton(
+					false);
+			a.determinize();
+			names.add("suffix-" + k);
+			dfas.add(a);
+		}
+
+		System.out.printf("%-12s %8s %8s", "dfa", "states", "minimal");
+		for (String name : NAMES)
+			System.out.printf(" %11s", name);
+		System.out.println();
+		for (int i = 0; i < dfas.size(); i++) {
+			Automaton dfa = dfas.get(i);
+			Automaton expected = null;
+			StringBuilder line = new StringBuilder();
+			for (int k = 0; k < ALGORITHMS.length; k++) {
+				if (ALGORITHMS[k] == Automaton.MINIMIZE_HUFFMAN
+						&& dfa.getNumberOfStates() > HUFFMAN_MAX_STATES) {
+					line.append(String.format(" %11s", "skip"));
+					continue;
+				}
+				Automaton.setMinimization(ALGORITHMS[k]);
+				long best = Long.MAX_VALUE;
+				Automaton result = null;
+				try {
+					// one more round, to warm up
+					for (int r = 0; r <= rounds; r++) {
+						Automaton a = dfa.clone();
+						long start = System.nanoTime();
+						a.minimize();
+						long time = System.nanoTime() - start;
+						if (r > 0)
+							best = Math.min(best, time);
+						result = a;
+					}
+				}
+				catch (OutOfMemoryError e) {
+					line.append(String.format(" %11s", "oom"));
+					continue;
+				}
+				if (expected == null)
+					expected = result;
+				else if (result.getNumberOfStates()
+						!= expected.getNumberOfStates()
+						|| !result.equals(expected))
+					throw new IllegalStateException(NAMES[k] + " disagrees on "
+							+ names.get(i));
+				line.append(String.format(" %11.1f", best / 1e6));
+			}
+			System.out.printf("%-12s %8d %8s%s%n", names.get(i),
+					dfa.getNumberOfStates(), expected == null ? "?"
+					: "" + expected.getNumberOfStates(), line);
+		}
+		Automaton.setMinimization(Automaton.MINIMIZE_HOPCROFT);
+	}
+
+	/**
+	 * A random DFA. Each state has a random transition on most letters, or
+	 * a few transitions on random disjoint ranges of characters.
+	 *
+	 * @param random the random numbers
+	 * @param n number of states
+	 * @param letters number of letters, or of ranges per state
+	 * @param ranges whether to use ranges of characters instead of letters
+	 */
+	private static Automaton randomDFA(Random random, int n, int letters,
+			boolean ranges) {
+		State[] states = new State[n];
+		for (int i = 0; i < n; i++) {
+			states[i] = new State();
+			states[i].setAccept(random.nextInt(3) == 0);
+		}
+		for (State s : states) {
+			if (ranges) {
+				// sorted distinct bounds, taken two by two
+				int[] bounds = random.ints(0, Character.MAX_VALUE)
+						.distinct().limit(2 * letters).sorted().toArray();
+				for (int l = 0; l < letters; l++)
+					s.addTransition(new Transition((char)bounds[2 * l],
+							(char)bounds[2 * l + 1],
+							states[random.nextInt(n)]));
+			}
+			else {
+				for (int l = 0; l < letters; l++)
+					if (random.nextInt(5) != 0)
+						s.addTransition(new Transition((char)('a' + l),
+								states[random.nextInt(n)]));
+			}
+		}
+		Automaton a = new Automaton();
+		a.setInitialState(states[0]);
+		a.setDeterministic(true);
+		return a;
+	}
+
+}
@@ -0,0 +1,77 @@
+import java.util.HashSet;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+import regex.AlphNode;
+import regex.DisNode;
+import regex.DotNode;
+import regex.Node;
+import regex.Regex;
+import regex.StarNode;
+
+/**
+ * Counts the symbols of the target language that don't appear in the 
+ * candidate. Every symbol of the target language must appear in an 
+ * equivalent regex, and a single change adds at most one new symbol.
+ */
+
+public class MissingSymbolHeuristic implements Heuristic {
+	
+	// Symbols used by some word of the target language
+	private char[] targetSymbols;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param targetDFA the target regex, as a minimal DFA
+	 */
+	public MissingSymbolHeuristic(Automaton targetDFA) {
+		HashSet<Character> symbols = new HashSet<Character>();
+		for (State s : targetDFA.getStates())
+			for (Transition t : s.getTransitions())
+				for (int c = t.getMin(); c <= t.getMax(); c++)
+					symbols.add((char)c);
+		targetSymbols = new char[symbols.size()];
+		int i = 0;
+		for (char c : symbols)
+			targetSymbols[i++] = c;
+	}
+
+	@Override
+	public String getName() {
+		return "missing-symbols";
+	}
+
+	@Override
+	public int estimate(Regex re) {
+		HashSet<Character> used = new HashSet<Character>();
+		collectSymbols(re.getRoot(), used);
+		int missing = 0;
+		for (char c : targetSymbols)
+			if (!used.contains(c))
+				missing++;
+		return missing;
+	}
+	
+	/**
+	 * Collects the symbols of a subtree
+	 */
+	private static void collectSymbols(Node n, HashSet<Character> used) {
+		if (n instanceof AlphNode) {
+			used.add(((AlphNode)n).getChar());
+		}
+		else if (n instanceof StarNode) {
+			collectSymbols(((StarNode)n).getChild(), used);
+		}
+		else if (n instanceof DotNode) {
+			for (int i = 0; i < n.getSize(); i++)
+				collectSymbols(((DotNode)n).getChild(i), used);
+		}
+		else if (n instanceof DisNode) {
+			for (int i = 0; i < n.getSize(); i++)
+				collectSymbols(((DisNode)n).getChild(i), used);
+		}
+	}
+
+}
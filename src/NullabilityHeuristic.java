@@ -0,0 +1,61 @@
+import dk.brics.automaton.Automaton;
+import regex.AlphNode;
+import regex.DisNode;
+import regex.DotNode;
+import regex.Node;
+import regex.Regex;
+import regex.StarNode;
+
+/**
+ * One change is needed at least if the candidate and the target disagree on
+ * the empty word.
+ */
+
+public class NullabilityHeuristic implements Heuristic {
+	
+	// Is the empty word in the target language?
+	private boolean targetNullable;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param targetDFA the target regex, as a DFA
+	 */
+	public NullabilityHeuristic(Automaton targetDFA) {
+		targetNullable = targetDFA.run("");
+	}
+
+	@Override
+	public String getName() {
+		return "nullability";
+	}
+
+	@Override
+	public int estimate(Regex re) {
+		return isNullable(re.getRoot()) == targetNullable ? 0 : 1;
+	}
+	
+	/**
+	 * Is the empty word in the language of a subtree?
+	 */
+	private static boolean isNullable(Node n) {
+		if (n instanceof AlphNode)
+			return ((AlphNode)n).getChar() == Regex.EPS;
+		if (n instanceof StarNode)
+			return true;
+		if (n instanceof DotNode) {
+			for (int i = 0; i < n.getSize(); i++)
+				if (!isNullable(((DotNode)n).getChild(i)))
+					return false;
+			return true;
+		}
+		if (n instanceof DisNode) {
+			for (int i = 0; i < n.getSize(); i++)
+				if (isNullable(((DisNode)n).getChild(i)))
+					return true;
+			return n.getSize() == 0;
+		}
+		return true;
+	}
+
+}
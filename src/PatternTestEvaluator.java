@@ -0,0 +1,24 @@
+import java.util.regex.Pattern;
+
+import regex.Regex;
+
+/**
+ * Test evaluator using java.util.regex. This is a backtracking engine, so 
+ * candidates such as (a*)*b might take exponential time. Kept as a fallback.
+ */
+
+public class PatternTestEvaluator implements TestEvaluator {
+
+	@Override
+	public CandidateMatcher compile(Regex re) {
+		final Pattern p = Pattern.compile(re.toString().replace(Regex.EPS+"", 
+				"()"));
+		return new CandidateMatcher() {
+			@Override
+			public boolean matches(String word) {
+				return p.matcher(word).matches();
+			}
+		};
+	}
+
+}
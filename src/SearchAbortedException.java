@@ -0,0 +1,35 @@
+/**
+ * Thrown by a search that was cancelled, or that went over its budget (see
+ * Enumerator.setBudget())
+ */
+
+@SuppressWarnings("serial")
+public class SearchAbortedException extends RuntimeException {
+
+	/**
+	 * Why the search was stopped
+	 */
+	public enum Reason { CANCELLED, NODE_BUDGET, TIME_BUDGET }
+
+	// Why the search was stopped
+	private Reason reason;
+
+	/**
+	 * Constructor
+	 *
+	 * @param reason why the search was stopped
+	 * @param message details
+	 */
+	public SearchAbortedException(Reason reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	/**
+	 * Why the search was stopped
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+
+}
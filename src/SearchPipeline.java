@@ -0,0 +1,409 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import regex.Regex;
+
+/**
+ * A staged version of the Enumerator search. Three stages run at the same
+ * time:
+ *
+ *   - expansion: a pool of threads runs enumeratePossibleChanges() for the
+ *     next few parents, and one dispatcher thread drops duplicates and hands
+ *     out their children in BFS order
+ *   - test filter: a pool of threads compiles candidates and runs the tests
+ *   - commit/validation: the calling thread takes the tested candidates back
+ *     in BFS order, sets their refine flag, and validates the test passers
+ *
+ * The stages are connected by bounded queues, and at most a fixed window of
+ * candidates can be between dispatching and committing.
+ *
+ * The tests only grow (validation adds counter examples), so they are kept
+ * in append-only lists and their size is used as an epoch. A test worker
+ * remembers which epoch it tested against; the commit stage only runs the
+ * tests added after that epoch. A candidate is committed exactly as the
+ * serial enumerator would have tested it, and a parent is only expanded
+ * after it is committed, so the answer (and the counters) are the same as
+ * the ones of Enumerator.getNext(). The budget and cancellation of the 
+ * enumerator are checked as each candidate is committed.
+ */
+
+public class SearchPipeline {
+
+	// Candidates allowed between dispatching and committing, per thread
+	public static final int WINDOW_PER_THREAD = 256;
+	// Parents expanded ahead of the dispatcher, per thread
+	public static final int LOOKAHEAD_PER_THREAD = 2;
+
+	// The enumerator we are searching for
+	private Enumerator enumerator;
+	// The engine we run positive/negative tests with
+	private TestEvaluator testEvaluator;
+	// Number of test filter threads (and expansion threads)
+	private int threads;
+	// Append-only copies of the tests; their sizes are the epochs
+	private List<String> positiveTests;
+	private List<String> negativeTests;
+	// Committed candidates, waiting to be expanded (in BFS order)
+	private BlockingQueue<Regex> parents;
+	// Dispatched candidates, waiting to be tested
+	private BlockingQueue<Candidate> testQueue;
+	// Dispatched candidates, waiting to be committed (in BFS order)
+	private BlockingQueue<Candidate> dispatched;
+	// Limits the number of candidates between dispatching and committing
+	private Semaphore window;
+	// Index of the first child of each expanded parent
+	private List<Long> blockStarts;
+	// Number of those that start at or before the last committed candidate
+	private int expansionsCommitted;
+	// Drops duplicate candidates before testing (null if disabled)
+	private Deduplicator deduplicator;
+	// The stages
+	private ExecutorService expanders;
+	private ExecutorService testWorkers;
+	private Thread dispatcher;
+	// Set once we have the answer
+	private volatile boolean stopped;
+	// How many regexes have we enumerated?
+	private int testingCounter;
+	// How many regexes passed the tests and needed to be valiated?
+	private int validationCounter;
+
+	/**
+	 * A candidate on its way through the pipeline
+	 */
+	private static class Candidate {
+		// Position of the candidate in BFS order
+		long index;
+		Regex re;
+		CandidateMatcher matcher;
+		// Number of positive/negative tests the worker has run
+		int positiveEpoch;
+		int negativeEpoch;
+		boolean passesPositive;
+		boolean passesNegative;
+		// Set if a stage failed; the search is stopped with it
+		Throwable error;
+		CountDownLatch tested = new CountDownLatch(1);
+
+		Candidate(long index, Regex re) {
+			this.index = index;
+			this.re = re;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param enumerator The enumerator holding the initial regex, target and
+	 * tests. Counter examples found by the pipeline are added to it.
+	 * @param threads number of test filter threads (and expansion threads)
+	 */
+	public SearchPipeline(Enumerator enumerator, int threads) {
+		this.enumerator = enumerator;
+		this.testEvaluator = enumerator.getTestEvaluator();
+		this.threads = Math.max(1, threads);
+		positiveTests = new CopyOnWriteArrayList<String>(
+				enumerator.getPositiveTests());
+		negativeTests = new CopyOnWriteArrayList<String>(
+				enumerator.getNegativeTests());
+		parents = new LinkedBlockingQueue<Regex>();
+		testQueue = new ArrayBlockingQueue<Candidate>(
+				WINDOW_PER_THREAD * this.threads);
+		dispatched = new LinkedBlockingQueue<Candidate>();
+		window = new Semaphore(WINDOW_PER_THREAD * this.threads);
+		blockStarts = new ArrayList<Long>();
+		if (enumerator.isDeduplicating())
+			deduplicator = new Deduplicator();
+	}
+
+	/**
+	 * Runs the search
+	 *
+	 * @return the regex with minimum # of changes that is equivalent to target
+	 */
+	public Regex run() {
+		expanders = Executors.newFixedThreadPool(threads,
+				daemonThreads("expander"));
+		testWorkers = Executors.newFixedThreadPool(threads,
+				daemonThreads("test-filter"));
+		for (int i = 0; i < threads; i++)
+			testWorkers.execute(new Runnable() {
+				@Override
+				public void run() {
+					testLoop();
+				}
+			});
+		dispatcher = daemonThreads("dispatcher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLoop();
+			}
+		});
+		dispatcher.start();
+
+		try {
+			return commitLoop();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		finally {
+			stop();
+		}
+	}
+
+	/**
+	 * The commit/validation stage. Takes tested candidates in BFS order.
+	 */
+	private Regex commitLoop() throws InterruptedException {
+		long committed = 0;
+		while (true) {
+			Candidate c = dispatched.take();
+			c.tested.await();
+			window.release();
+			if (c.error != null)
+				throw new RuntimeException("Search pipeline failed", c.error);
+			// as the serial search does, before it tests the candidate
+			testingCounter = (int)(committed + countExpansions(c.index));
+			enumerator.checkBudget();
+			committed++;
+
+			if (commit(c)) {
+				validationCounter++;
+				String counterExample = enumerator.findCounterExample(c.re);
+				if (counterExample == null) {
+					stop();
+					testingCounter = (int)(committed
+							+ countExpansions(c.index));
+					return c.re;
+				}
+				// publishing the new test starts a new epoch
+				if (enumerator.addTest(counterExample))
+					positiveTests.add(counterExample);
+				else
+					negativeTests.add(counterExample);
+			}
+			c.matcher = null;
+			parents.put(c.re);
+		}
+	}
+
+	/**
+	 * Finishes testing a candidate against the tests that were added after
+	 * its worker took its snapshot, and sets its refine flag
+	 *
+	 * @param c the candidate
+	 * @return whether or not it passes all tests
+	 */
+	private boolean commit(Candidate c) {
+		boolean positive = c.passesPositive && passes(c.matcher,
+				positiveTests, c.positiveEpoch, positiveTests.size(), true);
+		c.re.setReadyToRefineFlag(positive);
+		if (!positive)
+			return false;
+		return c.passesNegative && passes(c.matcher, negativeTests,
+				c.negativeEpoch, negativeTests.size(), false);
+	}
+
+	/**
+	 * The test filter stage
+	 */
+	private void testLoop() {
+		try {
+			while (!stopped) {
+				Candidate c = testQueue.take();
+				try {
+					c.matcher = testEvaluator.compile(c.re);
+					c.positiveEpoch = positiveTests.size();
+					c.negativeEpoch = negativeTests.size();
+					c.passesPositive = passes(c.matcher, positiveTests, 0,
+							c.positiveEpoch, true);
+					if (c.passesPositive)
+						c.passesNegative = passes(c.matcher, negativeTests, 0,
+								c.negativeEpoch, false);
+				}
+				catch (Throwable e) {
+					// an Error too (say a stack overflow on a deep
+					// candidate), or the commit stage would wait forever
+					c.error = e;
+				}
+				c.tested.countDown();
+			}
+		}
+		catch (InterruptedException e) {
+			// the search is over
+		}
+	}
+
+	/**
+	 * The dispatcher of the expansion stage. Keeps a few parents expanding
+	 * ahead, and hands out their children in BFS order.
+	 */
+	private void dispatchLoop() {
+		int lookahead = LOOKAHEAD_PER_THREAD * threads;
+		ArrayDeque<Future<ArrayList<Regex>>> expansions =
+				new ArrayDeque<Future<ArrayList<Regex>>>();
+		long next = 0;
+		try {
+			dispatch(new Candidate(next++, enumerator.getInitial()));
+			while (!stopped) {
+				if (expansions.isEmpty())
+					expansions.add(expand(parents.take()));
+				Regex parent;
+				while (expansions.size() < lookahead
+						&& (parent = parents.poll()) != null)
+					expansions.add(expand(parent));
+
+				ArrayList<Regex> block = expansions.poll().get();
+				synchronized (blockStarts) {
+					blockStarts.add(next);
+				}
+				for (Regex re : block)
+					if (deduplicator == null || deduplicator.isNew(re))
+						dispatch(new Candidate(next++, re));
+			}
+		}
+		catch (InterruptedException e) {
+			// the search is over
+		}
+		catch (ExecutionException e) {
+			fail(next, e.getCause());
+		}
+		catch (Throwable e) {
+			fail(next, e);
+		}
+	}
+
+	/**
+	 * Hands the commit stage a failed candidate, so it stops the search
+	 * with the error instead of waiting for more candidates
+	 */
+	private void fail(long index, Throwable error) {
+		Candidate failed = new Candidate(index, null);
+		failed.error = error;
+		failed.tested.countDown();
+		dispatched.add(failed);
+	}
+
+	/**
+	 * Sends a candidate to the test filter stage, once there is room in the
+	 * window
+	 */
+	private void dispatch(Candidate c) throws InterruptedException {
+		window.acquire();
+		dispatched.put(c);
+		testQueue.put(c);
+	}
+
+	/**
+	 * Starts expanding a committed parent
+	 */
+	private Future<ArrayList<Regex>> expand(final Regex parent) {
+		return expanders.submit(new Callable<ArrayList<Regex>>() {
+			@Override
+			public ArrayList<Regex> call() {
+				return parent.enumeratePossibleChanges();
+			}
+		});
+	}
+
+	/**
+	 * The serial enumerator expands a parent when it runs out of candidates,
+	 * i.e. when its first child is needed. Counts those expansions. The
+	 * candidates are committed in BFS order, so the count only moves forward.
+	 *
+	 * @param index BFS index of the candidate being committed
+	 */
+	private long countExpansions(long index) {
+		synchronized (blockStarts) {
+			while (expansionsCommitted < blockStarts.size()
+					&& blockStarts.get(expansionsCommitted) <= index)
+				expansionsCommitted++;
+		}
+		return expansionsCommitted;
+	}
+
+	/**
+	 * Checks a candidate against a range of tests
+	 *
+	 * @param m the compiled candidate
+	 * @param tests the tests
+	 * @param from first test to run
+	 * @param to end of the range (exclusive)
+	 * @param positive whether the tests should be matched or not
+	 * @return whether or not the candidate passes all of them
+	 */
+	private static boolean passes(CandidateMatcher m, List<String> tests,
+			int from, int to, boolean positive) {
+		for (int i = from; i < to; i++)
+			if (m.matches(tests.get(i)) != positive)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Stops all stages
+	 */
+	private void stop() {
+		stopped = true;
+		if (dispatcher != null)
+			dispatcher.interrupt();
+		if (expanders != null)
+			expanders.shutdownNow();
+		if (testWorkers != null)
+			testWorkers.shutdownNow();
+	}
+
+	/**
+	 * Thread factory for the stages; daemon threads, so a stuck stage
+	 * doesn't keep the JVM alive
+	 */
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private int counter = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "pipeline-" + name + "-" + counter++);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * The deduplicator used by the dispatcher (null if disabled)
+	 */
+	public Deduplicator getDeduplicator() {
+		return deduplicator;
+	}
+
+	/**
+	 * How many regexes have we tested (same count as the serial enumerator)?
+	 */
+	public int getTestingCounter() {
+		return testingCounter;
+	}
+
+	/**
+	 * How many regexes passed the tests and were validated?
+	 */
+	public int getValidationCounter() {
+		return validationCounter;
+	}
+
+}
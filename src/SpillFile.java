@@ -0,0 +1,118 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An append-only temporary file that frontier segments are spilled to. 
+ * Segments are written at the end of the file, and read back through a 
+ * read-only memory mapping. The file is deleted when it is closed (or when
+ * the JVM exits).
+ */
+
+public class SpillFile {
+	
+	// The file on disk
+	private File file;
+	// Channel to the file
+	private FileChannel channel;
+	// Size of the file so far
+	private long size;
+	// Bytes written and read back, and the time it took (in ns)
+	private long bytesWritten;
+	private long bytesRead;
+	private long writeTime;
+	private long readTime;
+	
+	/**
+	 * Constructor; creates the file in the temporary directory
+	 * 
+	 * @param directory where to create the file (null for the default 
+	 * temporary directory)
+	 */
+	public SpillFile(File directory) throws IOException {
+		file = File.createTempFile("frontier", ".spill", directory);
+		file.deleteOnExit();
+		channel = new RandomAccessFile(file, "rw").getChannel();
+	}
+	
+	/**
+	 * Appends a segment
+	 * 
+	 * @param bytes the segment
+	 * @param length number of bytes to write
+	 * @return the offset of the segment in the file
+	 */
+	public long write(byte[] bytes, int length) throws IOException {
+		long start = System.nanoTime();
+		long offset = size;
+		ByteBuffer b = ByteBuffer.wrap(bytes, 0, length);
+		while (b.hasRemaining())
+			size += channel.write(b, size);
+		bytesWritten += length;
+		writeTime += System.nanoTime() - start;
+		return offset;
+	}
+	
+	/**
+	 * Maps a segment back into memory
+	 * 
+	 * @param offset the offset of the segment
+	 * @param length the length of the segment
+	 * @return the segment, read-only
+	 */
+	public ByteBuffer read(long offset, int length) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, offset, 
+				length);
+		bytesRead += length;
+		readTime += System.nanoTime() - start;
+		return b;
+	}
+	
+	/**
+	 * Adds time spent decoding a segment that was read
+	 */
+	void addReadTime(long nanos) {
+		readTime += nanos;
+	}
+	
+	/**
+	 * Adds time spent encoding a segment before writing it
+	 */
+	void addWriteTime(long nanos) {
+		writeTime += nanos;
+	}
+	
+	/**
+	 * Closes and deletes the file
+	 */
+	public void close() throws IOException {
+		channel.close();
+		file.delete();
+	}
+	
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+	
+	public long getBytesRead() {
+		return bytesRead;
+	}
+	
+	/**
+	 * Write throughput, in MB/s (including encoding)
+	 */
+	public double getWriteThroughput() {
+		return writeTime == 0 ? 0 : bytesWritten * 1e3 / writeTime / 1.048576;
+	}
+	
+	/**
+	 * Read throughput, in MB/s (including decoding)
+	 */
+	public double getReadThroughput() {
+		return readTime == 0 ? 0 : bytesRead * 1e3 / readTime / 1.048576;
+	}
+	
+}
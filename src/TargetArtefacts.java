@@ -0,0 +1,379 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.State;
+import regex.Regex;
+
+/**
+ * What the search needs to know about a target regex, independent of the
+ * input regex: the target DFA and the initial positive/negative tests. These
+ * are the expensive part of setting up an Enumerator, so submissions that
+ * share a target can share them.
+ *
+ * The counter examples found by the searches of a target can be learned 
+ * (up to a limit, off by default), and given to later searches with the
+ * Myhill-Nerode tests, so they start with a stronger test set. More tests
+ * change which candidates are refined, so the counters (and possibly the 
+ * answer, at the same distance) of a search depend on what was learned 
+ * before it. Counter examples are first kept aside, and only given to the
+ * searches started after commitLearned(). Callers run it at fixed points:
+ * after a search, after a batch, or once no search of the target is 
+ * running. What is kept aside does not depend on the order the searches
+ * find it: over the limit, the shortest words are kept.
+ *
+ * Enumerators take their own copies of the tests and of the DFA (as 
+ * dk.brics.automaton writes into the states of an automaton while 
+ * intersecting it), so one instance can be used by several threads. The
+ * artefacts can be stored in a file and loaded back.
+ */
+
+public class TargetArtefacts {
+
+	// File header
+	private static final int MAGIC = 0x54524754;
+	private static final int VERSION = 1;
+	// Orders words by length, then alphabetically
+	private static final Comparator<String> SHORTEST_FIRST = 
+			new Comparator<String>() {
+		@Override
+		public int compare(String w1, String w2) {
+			if (w1.length() != w2.length())
+				return w1.length() < w2.length() ? -1 : 1;
+			return w1.compareTo(w2);
+		}
+	};
+
+	// The target regex, as given
+	private String targetString;
+	// The target regex
+	private Regex target;
+	// The target regex, converted into a DFA
+	private Automaton targetDFA;
+	// Words in the target language
+	private HashSet<String> positiveTests;
+	// Words not in the target language
+	private HashSet<String> negativeTests;
+	// Counter examples learned by searches, in and not in the target language
+	private LinkedHashSet<String> learnedPositive;
+	private LinkedHashSet<String> learnedNegative;
+	// Counter examples found since the last commitLearned(), shortest first,
+	// and whether they are in the target language
+	private TreeMap<String, Boolean> pending;
+	// Most counter examples learned (0 to learn none)
+	private int learnLimit;
+	// Number of searches of the target running (see searchStarted())
+	private int runningSearches;
+	// Were tests learned since the artefacts were stored?
+	private boolean dirty;
+
+	/**
+	 * Constructor. Builds the target DFA and the tests.
+	 *
+	 * @param targetRegex the target regular expression
+	 */
+	public TargetArtefacts(String targetRegex) {
+		System.setProperty("dk.brics.automaton.debug", "true");
+		targetString = targetRegex;
+		target = new Regex(targetRegex);
+		RegExp targetRE = new RegExp(targetRegex.replace(Regex.EPS+"", "()"));
+		targetDFA = targetRE.toAutomaton();
+		// a singleton automaton builds its states on first use
+		targetDFA.expandSingleton();
+		setTests();
+		learnedPositive = new LinkedHashSet<String>();
+		learnedNegative = new LinkedHashSet<String>();
+		pending = new TreeMap<String, Boolean>(SHORTEST_FIRST);
+	}
+
+	/**
+	 * Empty constructor, for load()
+	 */
+	private TargetArtefacts() {
+		pending = new TreeMap<String, Boolean>(SHORTEST_FIRST);
+	}
+
+	/**
+	 * Fills in positive & negative tests, using Myhill-Nerode: a word
+	 * reaching each state, followed by words telling states apart (see
+	 * DistinguishingWords)
+	 */
+	private void setTests() {
+
+		positiveTests = new HashSet<String>();
+		negativeTests = new HashSet<String>();
+		ArrayList<State> states = new ArrayList<State> (targetDFA.getStates());
+		int stateCount = states.size();
+		DistinguishingWords words = new DistinguishingWords(states,
+				targetDFA.getInitialState());
+
+		String[] a = new String[stateCount];
+		String[][] b = new String[stateCount][stateCount];
+		for (int i = 0; i < stateCount; i++) {
+			a[i] = words.getAccessWord(i);
+			for (int j = 0; j < stateCount; j++)
+				b[i][j] = words.getSuffix(i, j);
+		}
+
+		// characters missing from the target lead to no state, so the target
+		// alphabet is enough
+		ArrayList<Character> alphabet = new ArrayList<Character>(
+				target.getAlphabet());
+		alphabet.remove((Character)Regex.EPS);
+		HashMap<State, Integer> index = new HashMap<State, Integer>();
+		for (int i = 0; i < stateCount; i++)
+			index.put(states.get(i), i);
+		for (int i = 0; i < stateCount; i++) {
+			// index of the state reached on each character, -1 if none
+			int[] step = new int[alphabet.size()];
+			for (int l = 0; l < step.length; l++) {
+				Integer k = index.get(states.get(i).step(alphabet.get(l)));
+				step[l] = k == null ? -1 : k;
+			}
+			for (int j = 0; j < stateCount; j++) {
+				if (b[i][j] != null)
+					positiveTests.add(a[i] + b[i][j]);
+				if (b[j][i] != null)
+					negativeTests.add(a[i] + b[j][i]);
+				for (int l = 0; l < step.length; l++) {
+					char c = alphabet.get(l);
+					int k = step[l];
+					if (k != -1 && b[k][j] != null)
+						positiveTests.add(a[i] + c + b[k][j]);
+					if (k != -1 && b[j][k] != null)
+						negativeTests.add(a[i] + c + b[j][k]);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The target regex, as given
+	 */
+	public String getTargetString() {
+		return targetString;
+	}
+
+	/**
+	 * A copy of the target regex
+	 */
+	public Regex copyTarget() {
+		return new Regex(target);
+	}
+
+	/**
+	 * A copy of the target DFA
+	 */
+	public Automaton copyTargetDFA() {
+		return targetDFA.clone();
+	}
+
+	/**
+	 * A copy of the positive tests, learned ones included
+	 */
+	public synchronized HashSet<String> copyPositiveTests() {
+		HashSet<String> tests = new HashSet<String>(positiveTests);
+		tests.addAll(learnedPositive);
+		return tests;
+	}
+
+	/**
+	 * A copy of the negative tests, learned ones included
+	 */
+	public synchronized HashSet<String> copyNegativeTests() {
+		HashSet<String> tests = new HashSet<String>(negativeTests);
+		tests.addAll(learnedNegative);
+		return tests;
+	}
+
+	/**
+	 * Sets the most counter examples learned. Learned ones over the limit 
+	 * (say, loaded from a file) are dropped, the oldest are kept.
+	 *
+	 * @param limit the limit (0 to learn none)
+	 */
+	public synchronized void setLearnLimit(int limit) {
+		learnLimit = Math.max(0, limit);
+		trim(learnedPositive, learnLimit);
+		trim(learnedNegative, learnLimit - learnedPositive.size());
+		while (getLearnedCount() + pending.size() > learnLimit)
+			pending.pollLastEntry();
+	}
+
+	private static void trim(LinkedHashSet<String> tests, int size) {
+		Iterator<String> it = tests.iterator();
+		for (int i = 0; it.hasNext(); i++) {
+			it.next();
+			if (i >= size)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Keeps aside a counter example found by a search, for commitLearned()
+	 *
+	 * @param word the counter example
+	 * @param positive whether or not it is in the target language
+	 */
+	public synchronized void learn(String word, boolean positive) {
+		HashSet<String> tests = positive ? positiveTests : negativeTests;
+		if (tests.contains(word) || (positive ? learnedPositive 
+				: learnedNegative).contains(word))
+			return;
+		pending.put(word, positive);
+		// the longest go first, whatever the order they came in
+		while (getLearnedCount() + pending.size() > learnLimit)
+			pending.pollLastEntry();
+	}
+
+	/**
+	 * Learns the counter examples kept aside: the searches started from now
+	 * on get them with their tests
+	 */
+	public synchronized void commitLearned() {
+		for (Map.Entry<String, Boolean> entry : pending.entrySet())
+			(entry.getValue() ? learnedPositive : learnedNegative).add(
+					entry.getKey());
+		if (!pending.isEmpty())
+			dirty = true;
+		pending.clear();
+	}
+
+	/**
+	 * A search of the target starts (for searchFinished())
+	 */
+	public synchronized void searchStarted() {
+		runningSearches++;
+	}
+
+	/**
+	 * A search of the target is over. Once none is running, the counter 
+	 * examples they found are learned (see commitLearned()).
+	 */
+	public synchronized void searchFinished() {
+		if (--runningSearches == 0)
+			commitLearned();
+	}
+
+	/**
+	 * Number of counter examples learned so far
+	 */
+	public synchronized int getLearnedCount() {
+		return learnedPositive.size() + learnedNegative.size();
+	}
+
+	/**
+	 * Were tests learned since the artefacts were last stored (or built)?
+	 */
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Stores the artefacts in a file. The file is replaced at once, so a
+	 * reader never sees half of it.
+	 *
+	 * @param file the file
+	 */
+	public synchronized void store(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(targetString);
+			writeTests(out, positiveTests);
+			writeTests(out, negativeTests);
+			writeTests(out, learnedPositive);
+			writeTests(out, learnedNegative);
+			ByteArrayOutputStream dfa = new ByteArrayOutputStream();
+			targetDFA.store(dfa);
+			out.writeInt(dfa.size());
+			dfa.writeTo(out);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	private static void writeTests(DataOutputStream out,
+			Collection<String> tests) throws IOException {
+		out.writeInt(tests.size());
+		for (String test : tests)
+			out.writeUTF(test);
+	}
+
+	/**
+	 * Loads artefacts stored by store()
+	 *
+	 * @param file the file
+	 * @param targetRegex the target regex they must be for
+	 * @return the artefacts
+	 * @throws IOException if the file can't be read, or is not for this
+	 * target
+	 */
+	public static TargetArtefacts load(File file, String targetRegex)
+			throws IOException {
+		System.setProperty("dk.brics.automaton.debug", "true");
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not a target file");
+			TargetArtefacts t = new TargetArtefacts();
+			t.targetString = in.readUTF();
+			if (!t.targetString.equals(targetRegex))
+				throw new IOException(file + " is for another target");
+			t.target = new Regex(targetRegex);
+			t.positiveTests = readTests(in, new HashSet<String>());
+			t.negativeTests = readTests(in, new HashSet<String>());
+			t.learnedPositive = readTests(in, new LinkedHashSet<String>());
+			t.learnedNegative = readTests(in, new LinkedHashSet<String>());
+			byte[] dfa = new byte[in.readInt()];
+			in.readFully(dfa);
+			t.targetDFA = Automaton.load(new ByteArrayInputStream(dfa));
+			return t;
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException(file + " has a bad automaton", e);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static <T extends Collection<String>> T readTests(
+			DataInputStream in, T tests) throws IOException {
+		int n = in.readInt();
+		for (int i = 0; i < n; i++)
+			tests.add(in.readUTF());
+		return tests;
+	}
+
+}
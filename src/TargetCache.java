@@ -0,0 +1,297 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Target artefacts, by target regex. The artefacts of a target are built by
+ * the first thread that needs them; other threads asking for the same
+ * target wait for that build instead of starting their own.
+ *
+ * At most a fixed number of targets are kept in memory, the least recently
+ * used ones are evicted first. With a directory, artefacts are also stored
+ * on disk, one file per target (named by the SHA-256 of the target regex):
+ * a target missing from memory is loaded from its file instead of being
+ * built, and the tests learned by the searches are written back by flush()
+ * and when a target is evicted. Tests not learned yet (see 
+ * TargetArtefacts.commitLearned()) are dropped when a target is evicted.
+ */
+
+public class TargetCache {
+
+	// Default number of targets kept in memory
+	public static final int DEFAULT_CAPACITY = 256;
+
+	// The artefacts, being built or ready, least recently used first
+	private LinkedHashMap<String, FutureTask<TargetArtefacts>> targets;
+	// Where artefacts are stored (null to keep them in memory only)
+	private File directory;
+	// Most counter examples learned per target (0 to learn none)
+	private int learnLimit;
+	// How many targets were found in memory, loaded from disk, built, and
+	// evicted from memory?
+	private long hitCounter;
+	private long loadCounter;
+	private long buildCounter;
+	private long evictionCounter;
+
+	/**
+	 * Constructor for an empty cache, in memory only
+	 */
+	public TargetCache() {
+		this(DEFAULT_CAPACITY, null, 0);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity most targets kept in memory
+	 * @param directory where to store the artefacts (null to keep them in
+	 * memory only); created if needed
+	 * @param learnLimit most counter examples learned per target (0 to 
+	 * learn none)
+	 */
+	@SuppressWarnings("serial")
+	public TargetCache(final int capacity, File directory, int learnLimit) {
+		this.directory = directory;
+		this.learnLimit = learnLimit;
+		if (directory != null)
+			directory.mkdirs();
+		targets = new LinkedHashMap<String, FutureTask<TargetArtefacts>>(
+				16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, FutureTask<TargetArtefacts>> eldest) {
+				if (size() <= capacity)
+					return false;
+				evictionCounter++;
+				store(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * The artefacts of a target: from memory, from disk, or built
+	 *
+	 * @param target the target regex
+	 * @return its artefacts
+	 */
+	public TargetArtefacts get(final String target) {
+		FutureTask<TargetArtefacts> task;
+		synchronized (targets) {
+			task = targets.get(target);
+			if (task != null) {
+				hitCounter++;
+			}
+			else {
+				task = new FutureTask<TargetArtefacts>(
+						new Callable<TargetArtefacts>() {
+							@Override
+							public TargetArtefacts call() {
+								return loadOrBuild(target);
+							}
+						});
+				targets.put(target, task);
+			}
+		}
+		// runs the build unless it has started already
+		task.run();
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted", e);
+		}
+		catch (ExecutionException e) {
+			synchronized (targets) {
+				// don't keep the failure
+				if (targets.get(target) == task)
+					targets.remove(target);
+			}
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Loads the artefacts of a target from disk, or builds (and stores) them
+	 */
+	private TargetArtefacts loadOrBuild(String target) {
+		File file = fileOf(target);
+		if (file != null && file.exists()) {
+			try {
+				TargetArtefacts t = TargetArtefacts.load(file, target);
+				t.setLearnLimit(learnLimit);
+				synchronized (targets) {
+					loadCounter++;
+				}
+				return t;
+			}
+			catch (IOException e) {
+				System.err.println("Could not load " + file + ", building it "
+						+ "again: " + e.getMessage());
+			}
+		}
+		TargetArtefacts t = new TargetArtefacts(target);
+		t.setLearnLimit(learnLimit);
+		synchronized (targets) {
+			buildCounter++;
+		}
+		if (file != null)
+			store(file, t);
+		return t;
+	}
+
+	/**
+	 * Writes the tests learned since the artefacts were stored, for all
+	 * targets in memory
+	 */
+	public void flush() {
+		for (Map.Entry<String, FutureTask<TargetArtefacts>> entry : entries())
+			store(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Learns the counter examples found by the searches so far, for all
+	 * targets in memory (see TargetArtefacts.commitLearned())
+	 */
+	public void commitLearned() {
+		for (Map.Entry<String, FutureTask<TargetArtefacts>> entry 
+				: entries()) {
+			if (!entry.getValue().isDone())
+				continue;
+			try {
+				entry.getValue().get().commitLearned();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				// nothing was built
+			}
+		}
+	}
+
+	/**
+	 * The targets in memory, without counting a use
+	 */
+	private ArrayList<Map.Entry<String, FutureTask<TargetArtefacts>>> 
+			entries() {
+		synchronized (targets) {
+			return new ArrayList<Map.Entry<String,
+					FutureTask<TargetArtefacts>>>(targets.entrySet());
+		}
+	}
+
+	/**
+	 * Writes the tests learned since the artefacts of a target were stored
+	 *
+	 * @param target the target regex
+	 */
+	public void flush(String target) {
+		FutureTask<TargetArtefacts> task;
+		synchronized (targets) {
+			// not get(), which would count as a use
+			task = null;
+			for (Map.Entry<String, FutureTask<TargetArtefacts>> entry
+					: targets.entrySet())
+				if (entry.getKey().equals(target))
+					task = entry.getValue();
+		}
+		if (task != null)
+			store(target, task);
+	}
+
+	/**
+	 * Stores built artefacts if they learned tests (does nothing without a
+	 * directory, or if they are still being built)
+	 */
+	private void store(String target, FutureTask<TargetArtefacts> task) {
+		if (directory == null || !task.isDone())
+			return;
+		try {
+			TargetArtefacts t = task.get();
+			if (t.isDirty())
+				store(fileOf(target), t);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			// nothing was built
+		}
+	}
+
+	private static void store(File file, TargetArtefacts t) {
+		try {
+			t.store(file);
+		}
+		catch (IOException e) {
+			// the artefacts are still in memory, and can be built again
+			System.err.println("Could not store " + file + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * The file of a target (null without a directory)
+	 */
+	private File fileOf(String target) {
+		if (directory == null)
+			return null;
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			StringBuilder name = new StringBuilder();
+			for (byte b : sha.digest(target.getBytes(StandardCharsets.UTF_8)))
+				name.append(String.format("%02x", b));
+			return new File(directory, name + ".target");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("No SHA-256", e);
+		}
+	}
+
+	/**
+	 * Number of targets in memory
+	 */
+	public int size() {
+		synchronized (targets) {
+			return targets.size();
+		}
+	}
+
+	/**
+	 * A one line report: targets in memory, hits, loads, builds and
+	 * evictions
+	 */
+	public String getReport() {
+		synchronized (targets) {
+			return "Targets: " + targets.size() + " in memory, " + hitCounter
+					+ " hits, " + loadCounter + " loaded, " + buildCounter
+					+ " built, " + evictionCounter + " evicted";
+		}
+	}
+
+	/**
+	 * The counters as JSON fields (for the grading service)
+	 */
+	String getJsonFields() {
+		synchronized (targets) {
+			return "\"targets\": " + targets.size() + ", \"target_hits\": "
+					+ hitCounter + ", \"target_loads\": " + loadCounter
+					+ ", \"target_builds\": " + buildCounter
+					+ ", \"target_evictions\": " + evictionCounter;
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+import regex.Regex;
+
+/**
+ * The engine that the Enumerator uses to run its positive/negative tests. 
+ * Each candidate regex is compiled once, and then checked against all tests.
+ */
+
+public interface TestEvaluator {
+	
+	/**
+	 * Compiles a candidate regex into a matcher
+	 * 
+	 * @param re The candidate regex
+	 * @return a matcher for the language of the candidate
+	 */
+	public CandidateMatcher compile(Regex re);
+	
+}
@@ -47,6 +47,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Finite-state automaton with regular expression operations.
@@ -96,6 +97,14 @@ public class Automaton implements Serializable, Cloneable {
 	 */
 	public static final int MINIMIZE_HOPCROFT = 2;
 	
+	/**
+	 * Minimize using Valmari and Lehtinen's O(m log n) algorithm, on arrays 
+	 * of transitions. Unlike Hopcroft's, it doesn't make the automaton total,
+	 * and needs memory linear in the number of transitions.
+	 * @see #setMinimization(int)
+	 */
+	public static final int MINIMIZE_VALMARI = 3;
+	
 	/** Selects minimization algorithm (default: <code>MINIMIZE_HOPCROFT</code>). */
 	static int minimization = MINIMIZE_HOPCROFT;
 	
@@ -152,6 +161,17 @@ public class Automaton implements Serializable, Cloneable {
 		minimization = algorithm;
 	}
 	
+	/**
+	 * Sets the number of threads used to determinize large automata 
+	 * (default: 1, sequential). The result doesn't depend on it.
+	 * @param threads number of threads
+	 */
+	static public void setDeterminizeParallelism(int threads) {
+		if (Determinizer.pool != null)
+			Determinizer.pool.shutdown();
+		Determinizer.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+	
 	/**
 	 * Sets or resets minimize always flag.
 	 * If this flag is set, then {@link #minimize()} will automatically
@@ -274,7 +274,9 @@ final public class BasicOperations {
 	/**
 	 * Returns an automaton that accepts the intersection of
 	 * the languages of the given automata. 
-	 * Never modifies the input automata languages.
+	 * Never modifies the input automata (the transitions are read from
+	 * their {@link FrozenAutomaton} forms, so state numbers are not 
+	 * changed either).
 	 * <p>
 	 * Complexity: quadratic in number of states.
 	 */
@@ -293,35 +295,31 @@ final public class BasicOperations {
 		}
 		if (a1 == a2)
 			return a1.cloneIfRequired();
-		Transition[][] transitions1 = Automaton.getSortedTransitions(a1.getStates());
-		Transition[][] transitions2 = Automaton.getSortedTransitions(a2.getStates());
+		FrozenAutomaton f1 = new FrozenAutomaton(a1);
+		FrozenAutomaton f2 = new FrozenAutomaton(a2);
 		Automaton c = new Automaton();
-		LinkedList<StatePair> worklist = new LinkedList<StatePair>();
-		HashMap<StatePair, StatePair> newstates = new HashMap<StatePair, StatePair>();
-		StatePair p = new StatePair(c.initial, a1.initial, a2.initial);
-		worklist.add(p);
-		newstates.put(p, p);
-		while (worklist.size() > 0) {
-			p = worklist.removeFirst();
-			p.s.accept = p.s1.accept && p.s2.accept;
-			Transition[] t1 = transitions1[p.s1.number];
-			Transition[] t2 = transitions2[p.s2.number];
-			for (int n1 = 0, b2 = 0; n1 < t1.length; n1++) {
-				while (b2 < t2.length && t2[b2].max < t1[n1].min)
+		// the pairs are the worklist, and newstates[k] is the state of pair k
+		PairTable pairs = new PairTable();
+		ArrayList<State> newstates = new ArrayList<State>();
+		pairs.add(f1.initial, f2.initial);
+		newstates.add(c.initial);
+		for (int k = 0; k < pairs.size(); k++) {
+			int p1 = pairs.first[k], p2 = pairs.second[k];
+			State s = newstates.get(k);
+			s.accept = f1.accept[p1] && f2.accept[p2];
+			int e1 = f1.offset[p1 + 1], e2 = f2.offset[p2 + 1];
+			for (int n1 = f1.offset[p1], b2 = f2.offset[p2]; n1 < e1; n1++) {
+				while (b2 < e2 && f2.max[b2] < f1.min[n1])
 					b2++;
-				for (int n2 = b2; n2 < t2.length && t1[n1].max >= t2[n2].min; n2++) 
-					if (t2[n2].max >= t1[n1].min) {
-						StatePair q = new StatePair(t1[n1].to, t2[n2].to);
-						StatePair r = newstates.get(q);
-						if (r == null) {
-							q.s = new State();
-							worklist.add(q);
-							newstates.put(q, q);
-							r = q;
-						}
-						char min = t1[n1].min > t2[n2].min ? t1[n1].min : t2[n2].min;
-						char max = t1[n1].max < t2[n2].max ? t1[n1].max : t2[n2].max;
-						p.s.transitions.add(new Transition(min, max, r.s));
+				for (int n2 = b2; n2 < e2 && f1.max[n1] >= f2.min[n2]; n2++) 
+					if (f2.max[n2] >= f1.min[n1]) {
+						int q = pairs.add(f1.dest[n1], f2.dest[n2]);
+						if (q == newstates.size())
+							newstates.add(new State());
+						State r = newstates.get(q);
+						char min = f1.min[n1] > f2.min[n2] ? f1.min[n1] : f2.min[n2];
+						char max = f1.max[n1] < f2.max[n2] ? f1.max[n1] : f2.max[n2];
+						s.transitions.add(new Transition(min, max, r));
 					}
 			}
 		}
@@ -348,37 +346,30 @@ final public class BasicOperations {
 			return a2.run(a1.singleton);
 		}
 		a2.determinize();
-		Transition[][] transitions1 = Automaton.getSortedTransitions(a1.getStates());
-		Transition[][] transitions2 = Automaton.getSortedTransitions(a2.getStates());
-		LinkedList<StatePair> worklist = new LinkedList<StatePair>();
-		HashSet<StatePair> visited = new HashSet<StatePair>();
-		StatePair p = new StatePair(a1.initial, a2.initial);
-		worklist.add(p);
-		visited.add(p);
-		while (worklist.size() > 0) {
-			p = worklist.removeFirst();
-			if (p.s1.accept && !p.s2.accept)
+		FrozenAutomaton f1 = new FrozenAutomaton(a1);
+		FrozenAutomaton f2 = new FrozenAutomaton(a2);
+		// the pairs visited are the worklist
+		PairTable pairs = new PairTable();
+		pairs.add(f1.initial, f2.initial);
+		for (int k = 0; k < pairs.size(); k++) {
+			int p1 = pairs.first[k], p2 = pairs.second[k];
+			if (f1.accept[p1] && !f2.accept[p2])
 				return false;
-			Transition[] t1 = transitions1[p.s1.number];
-			Transition[] t2 = transitions2[p.s2.number];
-			for (int n1 = 0, b2 = 0; n1 < t1.length; n1++) {
-				while (b2 < t2.length && t2[b2].max < t1[n1].min)
+			int e1 = f1.offset[p1 + 1], e2 = f2.offset[p2 + 1];
+			for (int n1 = f1.offset[p1], b2 = f2.offset[p2]; n1 < e1; n1++) {
+				while (b2 < e2 && f2.max[b2] < f1.min[n1])
 					b2++;
-				int min1 = t1[n1].min, max1 = t1[n1].max;
-				for (int n2 = b2; n2 < t2.length && t1[n1].max >= t2[n2].min; n2++) {
-					if (t2[n2].min > min1)
+				int min1 = f1.min[n1], max1 = f1.max[n1];
+				for (int n2 = b2; n2 < e2 && f1.max[n1] >= f2.min[n2]; n2++) {
+					if (f2.min[n2] > min1)
 						return false;
-					if (t2[n2].max < Character.MAX_VALUE) 
-						min1 = t2[n2].max + 1;
+					if (f2.max[n2] < Character.MAX_VALUE) 
+						min1 = f2.max[n2] + 1;
 					else {
 						min1 = Character.MAX_VALUE;
 						max1 = Character.MIN_VALUE;
 					}
-					StatePair q = new StatePair(t1[n1].to, t2[n2].to);
-					if (!visited.contains(q)) {
-						worklist.add(q);
-						visited.add(q);
-					}
+					pairs.add(f1.dest[n1], f2.dest[n2]);
 				}
 				if (min1 <= max1)
 					return false;
@@ -387,6 +378,457 @@ final public class BasicOperations {
 		return true;
 	}
 	
+	/**
+	 * Returns a shortest string accepted by exactly one of the given automata,
+	 * or null if their languages are the same. 
+	 * Never modifies the input automata.
+	 * <p>
+	 * The pairs of states the automata reach on the same strings are explored 
+	 * breadth first, without building a product automaton, and the search 
+	 * stops at the first pair that disagrees on acceptance. A pair is only 
+	 * followed if it is not implied by the pairs already seen: for 
+	 * deterministic automata, if its states are not in the same class of a
+	 * union-find structure (Hopcroft and Karp); otherwise the pairs are sets 
+	 * of states, skipped when in the congruence closure of the pairs seen 
+	 * (Bonchi and Pous, "Checking NFA equivalence with bisimulations up to 
+	 * congruence").
+	 * <p>
+	 * Complexity: almost linear in number of states for deterministic 
+	 * automata, quadratic in number of pairs followed otherwise.
+	 */
+	public static String equivalent(Automaton a1, Automaton a2) {
+		if (a1 == a2)
+			return null;
+		return equivalent(new FrozenAutomaton(a1), new FrozenAutomaton(a2));
+	}
+
+	/**
+	 * Same as {@link #equivalent(Automaton, Automaton)}, on frozen automata
+	 * (an automaton checked against many others needs to be frozen once).
+	 */
+	public static String equivalent(FrozenAutomaton a1, FrozenAutomaton a2) {
+		FrozenAutomaton u = new FrozenAutomaton(a1, a2);
+		char[] points = mergePoints(a1.getStartPoints(), a2.getStartPoints());
+		if (u.deterministic)
+			return equivalentDeterministic(u, points, a1.initial, 
+					a1.size + a2.initial);
+		return equivalentNondeterministic(u, points, a1.initial, 
+				a1.size + a2.initial);
+	}
+
+	/**
+	 * Hopcroft-Karp: pairs of states, classes of states in a union-find 
+	 * structure. Index u.size is the dead state.
+	 */
+	private static String equivalentDeterministic(FrozenAutomaton u, 
+			char[] points, int i1, int i2) {
+		int dead = u.size;
+		int[] parent = new int[dead + 1];
+		for (int i = 0; i <= dead; i++)
+			parent[i] = i;
+		// the pairs followed, with the pair and character they came from
+		ArrayList<int[]> pairs = new ArrayList<int[]>();
+		if (isAccept(u, i1) != isAccept(u, i2))
+			return "";
+		union(parent, i1, i2);
+		pairs.add(new int[] {i1, i2, -1, 0});
+		for (int head = 0; head < pairs.size(); head++) {
+			int[] p = pairs.get(head);
+			for (char c : points) {
+				int q1 = step(u, p[0], c);
+				int q2 = step(u, p[1], c);
+				if (find(parent, q1) == find(parent, q2))
+					continue;
+				pairs.add(new int[] {q1, q2, head, c});
+				if (isAccept(u, q1) != isAccept(u, q2))
+					return word(pairs, pairs.size() - 1);
+				union(parent, q1, q2);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Hopcroft-Karp up to congruence: pairs of sets of states. A pair is 
+	 * skipped when rewriting both sets with the pairs seen (a set containing
+	 * one side of a pair also gets the other side) makes them equal.
+	 */
+	private static String equivalentNondeterministic(FrozenAutomaton u, 
+			char[] points, int i1, int i2) {
+		ArrayList<BitSet[]> relation = new ArrayList<BitSet[]>();
+		ArrayList<int[]> pairs = new ArrayList<int[]>();
+		BitSet x = new BitSet(), y = new BitSet();
+		x.set(i1);
+		y.set(i2);
+		if (isAccept(u, x) != isAccept(u, y))
+			return "";
+		relation.add(new BitSet[] {x, y});
+		pairs.add(new int[] {0, 0, -1, 0});
+		for (int head = 0; head < pairs.size(); head++) {
+			BitSet[] p = relation.get(head);
+			for (char c : points) {
+				BitSet q1 = step(u, p[0], c);
+				BitSet q2 = step(u, p[1], c);
+				if (closure(relation, q1).equals(closure(relation, q2)))
+					continue;
+				relation.add(new BitSet[] {q1, q2});
+				pairs.add(new int[] {0, 0, head, c});
+				if (isAccept(u, q1) != isAccept(u, q2))
+					return word(pairs, pairs.size() - 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The string leading to a followed pair
+	 */
+	private static String word(List<int[]> pairs, int pair) {
+		StringBuilder b = new StringBuilder();
+		for (int[] p = pairs.get(pair); p[2] != -1; p = pairs.get(p[2]))
+			b.append((char)p[3]);
+		return b.reverse().toString();
+	}
+
+	/**
+	 * Sorted union of two sorted arrays of interval start points
+	 */
+	private static char[] mergePoints(char[] p1, char[] p2) {
+		char[] points = new char[p1.length + p2.length];
+		int n = 0;
+		for (int i = 0, j = 0; i < p1.length || j < p2.length;) {
+			char c;
+			if (j == p2.length || (i < p1.length && p1[i] <= p2[j]))
+				c = p1[i++];
+			else
+				c = p2[j++];
+			if (n == 0 || points[n - 1] != c)
+				points[n++] = c;
+		}
+		char[] merged = new char[n];
+		System.arraycopy(points, 0, merged, 0, n);
+		return merged;
+	}
+
+	private static boolean isAccept(FrozenAutomaton u, int s) {
+		return s < u.size && u.accept[s];
+	}
+
+	private static boolean isAccept(FrozenAutomaton u, BitSet set) {
+		for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+			if (u.accept[s])
+				return true;
+		return false;
+	}
+
+	private static int step(FrozenAutomaton u, int s, char c) {
+		if (s == u.size)
+			return s;
+		int to = u.step(s, c);
+		return to == -1 ? u.size : to;
+	}
+
+	private static BitSet step(FrozenAutomaton u, BitSet set, char c) {
+		BitSet to = new BitSet();
+		for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+			u.step(s, c, to);
+		return to;
+	}
+
+	private static int find(int[] parent, int s) {
+		while (parent[s] != s) {
+			parent[s] = parent[parent[s]];
+			s = parent[s];
+		}
+		return s;
+	}
+
+	private static void union(int[] parent, int s1, int s2) {
+		parent[find(parent, s1)] = find(parent, s2);
+	}
+
+	/**
+	 * Saturates a set with the pairs of a relation: whenever it contains one
+	 * side of a pair, it gets the other side
+	 */
+	private static BitSet closure(List<BitSet[]> relation, BitSet set) {
+		BitSet closed = (BitSet)set.clone();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BitSet[] p : relation)
+				for (int side = 0; side < 2; side++) {
+					BitSet from = p[side], to = p[1 - side];
+					if (isSubset(from, closed) && !isSubset(to, closed)) {
+						closed.or(to);
+						changed = true;
+					}
+				}
+		}
+		return closed;
+	}
+
+	private static boolean isSubset(BitSet s1, BitSet s2) {
+		BitSet rest = (BitSet)s1.clone();
+		rest.andNot(s2);
+		return rest.isEmpty();
+	}
+
+	/**
+	 * Returns a shortest string accepted by <code>a1</code> but not by
+	 * <code>a2</code>, or null if the language of <code>a1</code> is a subset
+	 * of the language of <code>a2</code>. 
+	 * Never modifies the input automata, and never determinizes them.
+	 * <p>
+	 * Antichain algorithm (De Wulf, Doyen, Henzinger and Raskin, 
+	 * "Antichains: a new algorithm for checking universality of finite 
+	 * automata"): the pairs of a state of <code>a1</code> and the set of 
+	 * states of <code>a2</code> reached on the same string are explored 
+	 * breadth first. A pair is dropped when an earlier pair subsumes it,
+	 * using a simulation preorder on the states of both automata: (p, S) is 
+	 * subsumed by (p', S') if p' simulates p and each state of S' is simulated
+	 * by a state of S. Pairs (p, S) where a state of S simulates p are dropped,
+	 * as are the states of a set simulated by another state of the set.
+	 * <p>
+	 * Complexity: exponential in number of states of <code>a2</code> in the 
+	 * worst case, but usually polynomial.
+	 */
+	public static String inclusionCounterExample(Automaton a1, Automaton a2) {
+		if (a1 == a2)
+			return null;
+		return inclusionCounterExample(new FrozenAutomaton(a1), 
+				new FrozenAutomaton(a2));
+	}
+
+	/**
+	 * Same as {@link #inclusionCounterExample(Automaton, Automaton)}, on 
+	 * frozen automata.
+	 */
+	public static String inclusionCounterExample(FrozenAutomaton a1, 
+			FrozenAutomaton a2) {
+		FrozenAutomaton u = new FrozenAutomaton(a1, a2);
+		char[] points = mergePoints(a1.getStartPoints(), a2.getStartPoints());
+		int[][][] next = successors(u, points);
+		boolean[][] sim = simulation(u, next);
+
+		// the pairs found, with the pair and character they came from
+		ArrayList<Integer> heads = new ArrayList<Integer>();
+		ArrayList<BitSet> sets = new ArrayList<BitSet>();
+		ArrayList<int[]> pairs = new ArrayList<int[]>();
+		// pairs that may subsume new ones, by state of a1
+		ArrayList<ArrayList<Integer>> antichain = 
+			new ArrayList<ArrayList<Integer>>();
+		// states simulating each state
+		int[][] simulating = new int[u.size][];
+		for (int q = 0; q < u.size; q++) {
+			antichain.add(new ArrayList<Integer>());
+			ArrayList<Integer> by = new ArrayList<Integer>();
+			for (int p = 0; p < u.size; p++)
+				if (sim[q][p])
+					by.add(p);
+			simulating[q] = new int[by.size()];
+			for (int i = 0; i < by.size(); i++)
+				simulating[q][i] = by.get(i);
+		}
+		BitSet initial = new BitSet();
+		initial.set(a1.size + a2.initial);
+		heads.add(a1.initial);
+		sets.add(initial);
+		pairs.add(new int[] {0, 0, -1, 0});
+		antichain.get(heads.get(0)).add(0);
+		if (isCounterExample(u, heads.get(0), initial))
+			return "";
+		if (isSimulated(heads.get(0), initial, sim))
+			return null;
+		for (int head = 0; head < pairs.size(); head++) {
+			int p = heads.get(head);
+			BitSet set = sets.get(head);
+			for (int c = 0; c < points.length; c++) {
+				if (next[p][c].length == 0)
+					continue;
+				BitSet to = new BitSet();
+				for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+					for (int t : next[s][c])
+						to.set(t);
+				reduce(to, sim);
+				for (int q : next[p][c]) {
+					if (isSimulated(q, to, sim) 
+							|| isSubsumed(to, sets, antichain, simulating[q], sim))
+						continue;
+					// pairs of q already expanded and subsumed by the new one 
+					// are not needed to drop pairs any more
+					ArrayList<Integer> same = antichain.get(q);
+					for (int i = same.size() - 1; i >= 0; i--) {
+						int k = same.get(i);
+						if (k <= head && covers(sets.get(k), to, sim))
+							same.remove(i);
+					}
+					heads.add(q);
+					sets.add(to);
+					pairs.add(new int[] {0, 0, head, points[c]});
+					same.add(pairs.size() - 1);
+					if (isCounterExample(u, q, to))
+						return word(pairs, pairs.size() - 1);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a shortest string accepted by exactly one of the given automata,
+	 * or null if their languages are the same: a string of
+	 * <code>a1</code> missing from <code>a2</code> if there is one, otherwise
+	 * a string of <code>a2</code> missing from <code>a1</code>. 
+	 * Never modifies the input automata, and never determinizes them.
+	 * <p>
+	 * Two inclusion checks, see 
+	 * {@link #inclusionCounterExample(Automaton, Automaton)}.
+	 */
+	public static String equivalentByAntichains(Automaton a1, Automaton a2) {
+		if (a1 == a2)
+			return null;
+		return equivalentByAntichains(new FrozenAutomaton(a1), 
+				new FrozenAutomaton(a2));
+	}
+
+	/**
+	 * Same as {@link #equivalentByAntichains(Automaton, Automaton)}, on 
+	 * frozen automata.
+	 */
+	public static String equivalentByAntichains(FrozenAutomaton a1, 
+			FrozenAutomaton a2) {
+		String w = inclusionCounterExample(a1, a2);
+		if (w != null)
+			return w;
+		return inclusionCounterExample(a2, a1);
+	}
+
+	private static boolean isCounterExample(FrozenAutomaton u, int p, 
+			BitSet set) {
+		return u.accept[p] && !isAccept(u, set);
+	}
+
+	/**
+	 * Is p simulated by a state of set? Then no string tells them apart.
+	 */
+	private static boolean isSimulated(int p, BitSet set, boolean[][] sim) {
+		for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+			if (sim[p][s])
+				return true;
+		return false;
+	}
+
+	/**
+	 * Is (p, set) subsumed by a pair of the antichain: a pair of a state
+	 * simulating p, and of a set whose states are all simulated by states of
+	 * set? Every string telling p apart from set also tells that pair apart.
+	 */
+	private static boolean isSubsumed(BitSet set, List<BitSet> sets, 
+			List<ArrayList<Integer>> antichain, int[] simulating, 
+			boolean[][] sim) {
+		for (int p : simulating)
+			for (int k : antichain.get(p))
+				if (covers(set, sets.get(k), sim))
+					return true;
+		return false;
+	}
+
+	/**
+	 * Is each state of set1 simulated by a state of set2?
+	 */
+	private static boolean covers(BitSet set2, BitSet set1, boolean[][] sim) {
+		if (set1.cardinality() <= set2.cardinality()) {
+			BitSet rest = (BitSet)set1.clone();
+			rest.andNot(set2);
+			if (rest.isEmpty())
+				return true;
+		}
+		for (int s1 = set1.nextSetBit(0); s1 >= 0; s1 = set1.nextSetBit(s1 + 1)) {
+			boolean simulated = false;
+			for (int s2 = set2.nextSetBit(0); s2 >= 0 && !simulated; 
+					s2 = set2.nextSetBit(s2 + 1))
+				simulated = sim[s1][s2];
+			if (!simulated)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Drops the states of a set simulated by another state of the set
+	 */
+	private static void reduce(BitSet set, boolean[][] sim) {
+		BitSet dropped = new BitSet();
+		for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+			for (int t = set.nextSetBit(0); t >= 0; t = set.nextSetBit(t + 1))
+				if (t != s && sim[s][t] && (!sim[t][s] || t < s)) {
+					dropped.set(s);
+					break;
+				}
+		set.andNot(dropped);
+	}
+
+	/**
+	 * The states reached from each state on each interval start point
+	 */
+	private static int[][][] successors(FrozenAutomaton u, char[] points) {
+		int[][][] next = new int[u.size][points.length][];
+		BitSet to = new BitSet();
+		for (int s = 0; s < u.size; s++)
+			for (int c = 0; c < points.length; c++) {
+				to.clear();
+				u.step(s, points[c], to);
+				next[s][c] = new int[to.cardinality()];
+				int i = 0;
+				for (int t = to.nextSetBit(0); t >= 0; t = to.nextSetBit(t + 1))
+					next[s][c][i++] = t;
+			}
+		return next;
+	}
+
+	/**
+	 * The largest simulation preorder: sim[q][r] if r simulates q (so the
+	 * language of q is a subset of the language of r)
+	 */
+	private static boolean[][] simulation(FrozenAutomaton u, int[][][] next) {
+		int n = u.size;
+		boolean[][] sim = new boolean[n][n];
+		for (int q = 0; q < n; q++)
+			for (int r = 0; r < n; r++)
+				sim[q][r] = !u.accept[q] || u.accept[r];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int q = 0; q < n; q++)
+				for (int r = 0; r < n; r++)
+					if (sim[q][r] && q != r && !simulates(q, r, next, sim)) {
+						sim[q][r] = false;
+						changed = true;
+					}
+		}
+		return sim;
+	}
+
+	/**
+	 * Can r match every move of q, staying in the relation?
+	 */
+	private static boolean simulates(int q, int r, int[][][] next, 
+			boolean[][] sim) {
+		for (int c = 0; c < next[q].length; c++)
+			for (int q2 : next[q][c]) {
+				boolean matched = false;
+				for (int r2 : next[r][c])
+					if (sim[q2][r2]) {
+						matched = true;
+						break;
+					}
+				if (!matched)
+					return false;
+			}
+		return true;
+	}
+
 	/**
 	 * Returns an automaton that accepts the union of the languages of the given automata.
 	 * <p>
@@ -456,47 +898,10 @@ final public class BasicOperations {
 
 	/** 
 	 * Determinizes the given automaton using the given set of initial states. 
+	 * See {@link Determinizer}.
 	 */
 	static void determinize(Automaton a, Set<State> initialset) {
-		char[] points = a.getStartPoints();
-		// subset construction
-		Map<Set<State>, Set<State>> sets = new HashMap<Set<State>, Set<State>>();
-		LinkedList<Set<State>> worklist = new LinkedList<Set<State>>();
-		Map<Set<State>, State> newstate = new HashMap<Set<State>, State>();
-		sets.put(initialset, initialset);
-		worklist.add(initialset);
-		a.initial = new State();
-		newstate.put(initialset, a.initial);
-		while (worklist.size() > 0) {
-			Set<State> s = worklist.removeFirst();
-			State r = newstate.get(s);
-			for (State q : s)
-				if (q.accept) {
-					r.accept = true;
-					break;
-				}
-			for (int n = 0; n < points.length; n++) {
-				Set<State> p = new HashSet<State>();
-				for (State q : s)
-					for (Transition t : q.transitions)
-						if (t.min <= points[n] && points[n] <= t.max)
-							p.add(t.to);
-				if (!sets.containsKey(p)) {
-					sets.put(p, p);
-					worklist.add(p);
-					newstate.put(p, new State());
-				}
-				State q = newstate.get(p);
-				char min = points[n];
-				char max;
-				if (n + 1 < points.length)
-					max = (char)(points[n + 1] - 1);
-				else
-					max = Character.MAX_VALUE;
-				r.transitions.add(new Transition(min, max, q));
-			}
-		}
-		a.deterministic = true;
+		new Determinizer(a, initialset).run(a);
 		a.removeDeadTransitions();
 	}
 
@@ -0,0 +1,272 @@
+/*
+ * dk.brics.automaton
+ * 
+ * Copyright (c) 2001-2011 Anders Moeller
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package dk.brics.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Subset construction on numbered states. The states of the NFA reachable
+ * from the initial set are numbered, and subsets are bitsets (one bit per 
+ * state in a <code>long[]</code>), interned in an open addressing table by
+ * a precomputed hash. The successors of a subset on all the start points
+ * are built at once, in scratch bitsets reused from one subset to the next,
+ * so a subset that was seen before is found without allocating anything.
+ * <p>
+ * With a pool (see {@link Automaton#setDeterminizeParallelism(int)}), large
+ * NFAs are determinized level by level, and the successors of the subsets
+ * of a level are built in parallel. Subsets are still numbered and turned 
+ * into states in the sequential order, so the result is the same.
+ */
+final class Determinizer {
+
+	/** NFAs with fewer states are determinized sequentially. */
+	static final int PARALLEL_MIN_STATES = 128;
+
+	/** Subsets expanded per parallel batch. */
+	static final int PARALLEL_BATCH = 256;
+
+	/** Pool for parallel subset construction (null if disabled). */
+	static volatile ForkJoinPool pool = null;
+
+	/** Interval start points. */
+	char[] points;
+	/** Number of NFA states, and of longs per subset. */
+	int size;
+	int words;
+	/** Transitions of each NFA state: first and last start point index, and destination. */
+	int[][] from;
+	int[][] to;
+	int[][] dest;
+	/** Accept states of the NFA, as a subset. */
+	long[] accept;
+	/** Subsets found so far, and their hashes. */
+	ArrayList<long[]> subsets = new ArrayList<long[]>();
+	int[] hashes = new int[16];
+	/** Open addressing table of subset numbers (-1 for free slots). */
+	int[] table;
+	/** DFA state of each subset. */
+	ArrayList<State> states = new ArrayList<State>();
+
+	/**
+	 * Numbers the states reachable from the initial set.
+	 */
+	Determinizer(Automaton a, Set<State> initialset) {
+		points = a.getStartPoints();
+		HashMap<State, Integer> index = new HashMap<State, Integer>();
+		ArrayList<State> nfa = new ArrayList<State>();
+		LinkedList<State> worklist = new LinkedList<State>();
+		for (State s : initialset)
+			if (!index.containsKey(s)) {
+				index.put(s, nfa.size());
+				nfa.add(s);
+				worklist.add(s);
+			}
+		while (worklist.size() > 0)
+			for (Transition t : worklist.removeFirst().transitions)
+				if (!index.containsKey(t.to)) {
+					index.put(t.to, nfa.size());
+					nfa.add(t.to);
+					worklist.add(t.to);
+				}
+		size = nfa.size();
+		words = (size + 63) >>> 6;
+		from = new int[size][];
+		to = new int[size][];
+		dest = new int[size][];
+		accept = new long[words];
+		for (int s = 0; s < size; s++) {
+			State q = nfa.get(s);
+			if (q.accept)
+				accept[s >>> 6] |= 1L << s;
+			int n = q.transitions.size(), i = 0;
+			from[s] = new int[n];
+			to[s] = new int[n];
+			dest[s] = new int[n];
+			for (Transition t : q.transitions) {
+				// every min is a start point, and so is every max + 1
+				from[s][i] = Arrays.binarySearch(points, t.min);
+				to[s][i] = t.max == Character.MAX_VALUE ? points.length - 1
+						: Arrays.binarySearch(points, (char)(t.max + 1)) - 1;
+				dest[s][i] = index.get(t.to);
+				i++;
+			}
+		}
+		table = new int[64];
+		Arrays.fill(table, -1);
+		long[] initial = new long[words];
+		for (State s : initialset) {
+			int i = index.get(s);
+			initial[i >>> 6] |= 1L << i;
+		}
+		intern(initial);
+	}
+
+	/**
+	 * Builds the DFA, replacing the states of the automaton.
+	 */
+	void run(Automaton a) {
+		a.initial = states.get(0);
+		boolean parallel = pool != null && size >= PARALLEL_MIN_STATES;
+		long[][] scratch = new long[points.length][words];
+		for (int head = 0; head < subsets.size();) {
+			if (parallel) {
+				// the known subsets, up to a batch
+				int end = Math.min(subsets.size(), head + PARALLEL_BATCH);
+				long[][][] rows = successorsInParallel(head, end);
+				for (int i = head; i < end; i++)
+					addTransitions(i, rows[i - head]);
+				head = end;
+			} else {
+				successors(subsets.get(head), scratch);
+				addTransitions(head, scratch);
+				for (long[] row : scratch)
+					Arrays.fill(row, 0);
+				head++;
+			}
+		}
+		a.deterministic = true;
+	}
+
+	/**
+	 * Sets the successors of a subset on each start point.
+	 */
+	void successors(long[] subset, long[][] rows) {
+		for (int w = 0; w < words; w++)
+			for (long bits = subset[w]; bits != 0; bits &= bits - 1) {
+				int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+				for (int i = 0; i < dest[s].length; i++) {
+					int d = dest[s][i];
+					long bit = 1L << d;
+					for (int n = from[s][i]; n <= to[s][i]; n++)
+						rows[n][d >>> 6] |= bit;
+				}
+			}
+	}
+
+	/**
+	 * Builds the successors of subsets head to end-1, in parallel.
+	 */
+	@SuppressWarnings("serial")
+	long[][][] successorsInParallel(final int head, int end) {
+		final long[][][] rows = new long[end - head][][];
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int i = head; i < end; i++) {
+			final int k = i;
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					long[][] r = new long[points.length][words];
+					successors(subsets.get(k), r);
+					rows[k - head] = r;
+				}
+			});
+		}
+		final List<RecursiveAction> all = tasks;
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(all);
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * Adds the transitions of a subset, given its successors.
+	 */
+	void addTransitions(int subset, long[][] rows) {
+		State r = states.get(subset);
+		long[] s = subsets.get(subset);
+		for (int w = 0; w < words && !r.accept; w++)
+			r.accept = (s[w] & accept[w]) != 0;
+		for (int n = 0; n < points.length; n++) {
+			State q = states.get(intern(rows[n]));
+			char max;
+			if (n + 1 < points.length)
+				max = (char)(points[n + 1] - 1);
+			else
+				max = Character.MAX_VALUE;
+			r.transitions.add(new Transition(points[n], max, q));
+		}
+	}
+
+	/**
+	 * Returns the number of a subset, adding it (a copy of it) if it is new.
+	 */
+	int intern(long[] subset) {
+		int h = Arrays.hashCode(subset);
+		int mask = table.length - 1;
+		for (int slot = mix(h) & mask;; slot = (slot + 1) & mask) {
+			int k = table[slot];
+			if (k == -1)
+				break;
+			if (hashes[k] == h && Arrays.equals(subsets.get(k), subset))
+				return k;
+		}
+		int k = subsets.size();
+		subsets.add(subset.clone());
+		states.add(new State());
+		if (k == hashes.length)
+			hashes = Arrays.copyOf(hashes, 2 * k);
+		hashes[k] = h;
+		if (2 * subsets.size() > table.length)
+			rehash();
+		else
+			insert(k);
+		return k;
+	}
+
+	void insert(int k) {
+		int mask = table.length - 1;
+		int slot = mix(hashes[k]) & mask;
+		while (table[slot] != -1)
+			slot = (slot + 1) & mask;
+		table[slot] = k;
+	}
+
+	void rehash() {
+		table = new int[2 * table.length];
+		Arrays.fill(table, -1);
+		for (int k = 0; k < subsets.size(); k++)
+			insert(k);
+	}
+
+	static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
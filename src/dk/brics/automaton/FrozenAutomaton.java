@@ -0,0 +1,259 @@
+/*
+ * dk.brics.automaton
+ * 
+ * Copyright (c) 2001-2011 Anders Moeller
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package dk.brics.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Read-only automaton, with its transitions in primitive arrays: the
+ * transitions of state <code>s</code> are at indices 
+ * <code>offset[s]</code> to <code>offset[s+1]-1</code> of <code>min</code>,
+ * <code>max</code> and <code>dest</code>, sorted by (min, reverse max, 
+ * dest). A deterministic automaton steps with a binary search. 
+ * <p>
+ * Freezing an automaton doesn't modify it (state numbers included), so 
+ * automata shared by several threads can be frozen. The frozen form is 
+ * never modified either.
+ */
+public class FrozenAutomaton {
+
+	int size;
+	int initial;
+	boolean deterministic;
+	boolean[] accept;
+	int[] offset;
+	char[] min;
+	char[] max;
+	int[] dest;
+
+	/**
+	 * Freezes an automaton. States are numbered in the order of 
+	 * {@link Automaton#getStates()}, the initial state first.
+	 */
+	public FrozenAutomaton(Automaton a) {
+		if (a.isSingleton())
+			a = a.cloneExpanded();
+		List<State> states = new ArrayList<State>(a.getStates());
+		HashMap<State, Integer> index = new HashMap<State, Integer>();
+		for (State s : states)
+			index.put(s, index.size());
+		size = states.size();
+		initial = index.get(a.initial);
+		deterministic = a.deterministic;
+		accept = new boolean[size];
+		offset = new int[size + 1];
+		for (int s = 0; s < size; s++) {
+			accept[s] = states.get(s).accept;
+			offset[s + 1] = offset[s] + states.get(s).transitions.size();
+		}
+		min = new char[offset[size]];
+		max = new char[offset[size]];
+		dest = new int[offset[size]];
+		for (int s = 0; s < size; s++) {
+			int i = offset[s];
+			for (Transition t : states.get(s).transitions) {
+				min[i] = t.min;
+				max[i] = t.max;
+				dest[i] = index.get(t.to);
+				// insertion sort, states have few transitions
+				for (int j = i; j > offset[s] && before(j, j - 1); j--)
+					swap(j, j - 1);
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Does transition i come before transition j, by (min, reverse max, 
+	 * dest)?
+	 */
+	private boolean before(int i, int j) {
+		if (min[i] != min[j])
+			return min[i] < min[j];
+		if (max[i] != max[j])
+			return max[i] > max[j];
+		return dest[i] < dest[j];
+	}
+
+	private void swap(int i, int j) {
+		char c = min[i];
+		min[i] = min[j];
+		min[j] = c;
+		c = max[i];
+		max[i] = max[j];
+		max[j] = c;
+		int d = dest[i];
+		dest[i] = dest[j];
+		dest[j] = d;
+	}
+
+	/**
+	 * Disjoint union of two frozen automata: the states of <code>a2</code> 
+	 * come after the ones of <code>a1</code>, and the initial state is the
+	 * one of <code>a1</code>.
+	 */
+	FrozenAutomaton(FrozenAutomaton a1, FrozenAutomaton a2) {
+		size = a1.size + a2.size;
+		initial = a1.initial;
+		deterministic = a1.deterministic && a2.deterministic;
+		accept = new boolean[size];
+		System.arraycopy(a1.accept, 0, accept, 0, a1.size);
+		System.arraycopy(a2.accept, 0, accept, a1.size, a2.size);
+		int n1 = a1.min.length, n = n1 + a2.min.length;
+		offset = new int[size + 1];
+		System.arraycopy(a1.offset, 0, offset, 0, a1.size);
+		for (int s = 0; s <= a2.size; s++)
+			offset[a1.size + s] = n1 + a2.offset[s];
+		min = new char[n];
+		max = new char[n];
+		dest = new int[n];
+		System.arraycopy(a1.min, 0, min, 0, n1);
+		System.arraycopy(a2.min, 0, min, n1, n - n1);
+		System.arraycopy(a1.max, 0, max, 0, n1);
+		System.arraycopy(a2.max, 0, max, n1, n - n1);
+		System.arraycopy(a1.dest, 0, dest, 0, n1);
+		for (int i = n1; i < n; i++)
+			dest[i] = a1.size + a2.dest[i - n1];
+	}
+
+	/** 
+	 * Returns number of states. 
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/** 
+	 * Returns initial state. 
+	 */
+	public int getInitialState() {
+		return initial;
+	}
+
+	/** 
+	 * Returns acceptance status for given state. 
+	 */
+	public boolean isAccept(int state) {
+		return accept[state];
+	}
+
+	/**
+	 * Returns deterministic flag of the frozen automaton.
+	 */
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
+	/** 
+	 * Returns number of transitions. 
+	 */
+	public int getNumberOfTransitions() {
+		return dest.length;
+	}
+
+	/**
+	 * Returns the state reached from the given state on the given char, or -1
+	 * if there is none. Only for deterministic automata.
+	 * <p>
+	 * Complexity: logarithmic in the number of transitions of the state.
+	 */
+	public int step(int state, char c) {
+		int lo = offset[state], hi = offset[state + 1] - 1;
+		// last transition starting at or before c
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (min[mid] <= c)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		if (hi >= offset[state] && c <= max[hi])
+			return dest[hi];
+		return -1;
+	}
+
+	/**
+	 * Adds the states reached from the given state on the given char to a
+	 * set.
+	 */
+	public void step(int state, char c, BitSet to) {
+		for (int i = offset[state]; i < offset[state + 1] && min[i] <= c; i++)
+			if (c <= max[i])
+				to.set(dest[i]);
+	}
+
+	/**
+	 * Returns true if the given string is accepted by the automaton.
+	 */
+	public boolean run(String s) {
+		if (deterministic) {
+			int p = initial;
+			for (int i = 0; i < s.length() && p != -1; i++)
+				p = step(p, s.charAt(i));
+			return p != -1 && accept[p];
+		}
+		BitSet states = new BitSet(size);
+		states.set(initial);
+		for (int i = 0; i < s.length() && !states.isEmpty(); i++) {
+			BitSet next = new BitSet(size);
+			for (int p = states.nextSetBit(0); p >= 0; p = states.nextSetBit(p + 1))
+				step(p, s.charAt(i), next);
+			states = next;
+		}
+		for (int p = states.nextSetBit(0); p >= 0; p = states.nextSetBit(p + 1))
+			if (accept[p])
+				return true;
+		return false;
+	}
+
+	/** 
+	 * Returns sorted array of all interval start points. 
+	 */
+	char[] getStartPoints() {
+		char[] points = new char[2 * min.length + 1];
+		int n = 0;
+		points[n++] = Character.MIN_VALUE;
+		for (int i = 0; i < min.length; i++) {
+			points[n++] = min[i];
+			if (max[i] < Character.MAX_VALUE)
+				points[n++] = (char)(max[i] + 1);
+		}
+		Arrays.sort(points, 0, n);
+		int k = 0;
+		for (int i = 0; i < n; i++)
+			if (k == 0 || points[k - 1] != points[i])
+				points[k++] = points[i];
+		return Arrays.copyOf(points, k);
+	}
+}
@@ -54,6 +54,9 @@ final public class MinimizationOperations {
 			case Automaton.MINIMIZE_BRZOZOWSKI:
 				minimizeBrzozowski(a);
 				break;
+			case Automaton.MINIMIZE_VALMARI:
+				minimizeValmari(a);
+				break;
 			default:
 				minimizeHopcroft(a);
 			}
@@ -382,6 +385,15 @@ final public class MinimizationOperations {
 		a.removeDeadTransitions();
 	}
 	
+	/** 
+	 * Minimizes the given automaton using Valmari and Lehtinen's algorithm. 
+	 * @see ValmariMinimizer
+	 */
+	public static void minimizeValmari(Automaton a) {
+		a.determinize();
+		new ValmariMinimizer(a).run(a);
+	}
+	
 	static class IntPair {
 
 		int n1, n2;
@@ -0,0 +1,135 @@
+/*
+ * dk.brics.automaton
+ * 
+ * Copyright (c) 2001-2011 Anders Moeller
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package dk.brics.automaton;
+
+import java.util.Arrays;
+
+/**
+ * Pairs of state numbers, numbered in the order they are added: an open 
+ * addressing hash table of packed <code>long</code> keys 
+ * (<code>s1 &lt;&lt; 32 | s2</code>), and the pairs by number. Walking the
+ * numbers in order visits the pairs breadth first, so the table is also the
+ * worklist of a product construction.
+ */
+final class PairTable {
+
+	/** Free slot. State numbers are not negative, so no key is -1. */
+	static final long FREE = -1L;
+
+	/** Hash table: packed pair, and its number. */
+	long[] keys;
+	int[] numbers;
+	/** Pairs by number. */
+	int[] first;
+	int[] second;
+	/** Number of pairs. */
+	int size;
+
+	/**
+	 * Constructs an empty table.
+	 */
+	PairTable() {
+		keys = new long[64];
+		numbers = new int[64];
+		Arrays.fill(keys, FREE);
+		first = new int[16];
+		second = new int[16];
+	}
+
+	/**
+	 * Returns the number of a pair, or -1 if it was not added.
+	 */
+	int get(int s1, int s2) {
+		long key = key(s1, s2);
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; keys[slot] != FREE; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return numbers[slot];
+		return -1;
+	}
+
+	/**
+	 * Adds a pair if it is new.
+	 * @return the number of the pair (equal to size() - 1 if it was added)
+	 */
+	int add(int s1, int s2) {
+		long key = key(s1, s2);
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		for (; keys[slot] != FREE; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return numbers[slot];
+		if (size == first.length) {
+			first = Arrays.copyOf(first, 2 * size);
+			second = Arrays.copyOf(second, 2 * size);
+		}
+		first[size] = s1;
+		second[size] = s2;
+		keys[slot] = key;
+		numbers[slot] = size;
+		size++;
+		if (2 * size > keys.length)
+			rehash();
+		return size - 1;
+	}
+
+	/**
+	 * Returns the number of pairs.
+	 */
+	int size() {
+		return size;
+	}
+
+	void rehash() {
+		long[] oldKeys = keys;
+		int[] oldNumbers = numbers;
+		keys = new long[2 * oldKeys.length];
+		numbers = new int[2 * oldKeys.length];
+		Arrays.fill(keys, FREE);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != FREE) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != FREE)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				numbers[slot] = oldNumbers[i];
+			}
+	}
+
+	static long key(int s1, int s2) {
+		return ((long)s1 << 32) | (s2 & 0xffffffffL);
+	}
+
+	static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32));
+	}
+}
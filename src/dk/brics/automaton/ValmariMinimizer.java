@@ -0,0 +1,323 @@
+/*
+ * dk.brics.automaton
+ * 
+ * Copyright (c) 2001-2011 Anders Moeller
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package dk.brics.automaton;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Valmari and Lehtinen's O(m log n) minimization of a DFA with a partial
+ * transition function. The transitions of the automaton are split on its
+ * start points, into one labelled transition per character class they 
+ * cover, and kept in tail/label/head arrays. States are refined into blocks 
+ * and transitions into cords (transitions with the same label, into the 
+ * same block), each a refinable partition over an <code>int[]</code>. 
+ * Missing transitions are not added, so memory is linear in the number of
+ * states and labelled transitions, not in states times characters as with
+ * {@link MinimizationOperations#minimizeHopcroft(Automaton)}.
+ * <p>
+ * States that are not reachable, or from which no accept state is 
+ * reachable, are dropped first.
+ */
+final class ValmariMinimizer {
+
+	/** The states, by number. */
+	final State[] states;
+
+	/** Number of labelled transitions left. */
+	int transitionCount;
+
+	/** Source state, character class and destination state of each transition. */
+	final int[] tail, label, head;
+
+	/** Number of character classes. */
+	final int classCount;
+
+	/** Blocks of states, and cords of transitions. */
+	final Partition blocks;
+	Partition cords;
+
+	/** Transitions adjacent to each state q: adjacent[first[q] .. first[q + 1]). */
+	final int[] adjacent, first;
+
+	/** Number of states reached so far. */
+	int reached;
+
+	/**
+	 * Numbers the states of a deterministic automaton, and splits its
+	 * transitions on its start points.
+	 */
+	ValmariMinimizer(Automaton a) {
+		Set<State> ss = a.getStates();
+		states = new State[ss.size()];
+		int number = 0;
+		for (State q : ss) {
+			states[number] = q;
+			q.number = number++;
+		}
+		char[] sigma = a.getStartPoints();
+		classCount = sigma.length;
+		// transitions start and end on start points, so each one covers
+		// whole classes
+		int m = 0;
+		for (State q : states)
+			for (Transition t : q.transitions)
+				m += classes(sigma, t);
+		tail = new int[m];
+		label = new int[m];
+		head = new int[m];
+		m = 0;
+		for (State q : states)
+			for (Transition t : q.transitions)
+				for (int x = Arrays.binarySearch(sigma, t.min), n = classes(sigma, t); n > 0; x++, n--) {
+					tail[m] = q.number;
+					label[m] = x;
+					head[m] = t.to.number;
+					m++;
+				}
+		transitionCount = m;
+		blocks = new Partition(states.length);
+		adjacent = new int[m];
+		first = new int[states.length + 1];
+	}
+
+	/**
+	 * Returns the number of character classes covered by a transition.
+	 */
+	static int classes(char[] sigma, Transition t) {
+		int from = Arrays.binarySearch(sigma, t.min);
+		int to = t.max == Character.MAX_VALUE ? sigma.length : Arrays.binarySearch(sigma, (char)(t.max + 1));
+		return to - from;
+	}
+
+	/**
+	 * Replaces the states of the automaton by its minimal DFA.
+	 */
+	void run(Automaton a) {
+		int initial = a.initial.number;
+		// keep the states reachable from the initial state, then the ones
+		// among them from which an accept state is reachable
+		reach(initial);
+		removeUnreachable(tail, head);
+		for (int q = 0; q < states.length; q++)
+			if (states[q].accept && blocks.location[q] < blocks.past[0])
+				reach(q);
+		int accepting = reached;
+		removeUnreachable(head, tail);
+		int live = blocks.past[0];
+		// the accept states were reached first, split them off
+		blocks.marked[0] = accepting;
+		if (accepting > 0) {
+			blocks.touched[blocks.touchedCount++] = 0;
+			blocks.split();
+		}
+		// one cord per label, transitions sorted by label
+		cords = new Partition(transitionCount);
+		if (transitionCount > 0) {
+			int[] start = new int[classCount + 1];
+			for (int t = 0; t < transitionCount; t++)
+				start[label[t] + 1]++;
+			for (int x = 0; x < classCount; x++)
+				start[x + 1] += start[x];
+			for (int t = 0; t < transitionCount; t++)
+				cords.elements[start[label[t]]++] = t;
+			cords.count = 0;
+			int x = label[cords.elements[0]];
+			for (int i = 0; i < transitionCount; i++) {
+				int t = cords.elements[i];
+				if (label[t] != x) {
+					x = label[t];
+					cords.past[cords.count++] = i;
+					cords.first[cords.count] = i;
+				}
+				cords.set[t] = cords.count;
+				cords.location[t] = i;
+			}
+			cords.past[cords.count++] = transitionCount;
+		}
+		// split blocks by cords and cords by blocks, until neither changes
+		adjacent(head);
+		for (int b = 1, c = 0; c < cords.count; c++) {
+			for (int i = cords.first[c]; i < cords.past[c]; i++)
+				blocks.mark(tail[cords.elements[i]]);
+			blocks.split();
+			for (; b < blocks.count; b++) {
+				for (int i = blocks.first[b]; i < blocks.past[b]; i++) {
+					int q = blocks.elements[i];
+					for (int j = first[q]; j < first[q + 1]; j++)
+						cords.mark(adjacent[j]);
+				}
+				cords.split();
+			}
+		}
+		// make a new state for each block
+		if (blocks.location[initial] >= live) {
+			a.initial = new State();
+			return;
+		}
+		State[] newstates = new State[blocks.count];
+		for (int b = 0; b < newstates.length; b++) {
+			newstates[b] = new State();
+			newstates[b].accept = states[blocks.elements[blocks.first[b]]].accept;
+		}
+		for (int b = 0; b < newstates.length; b++)
+			for (Transition t : states[blocks.elements[blocks.first[b]]].transitions)
+				if (blocks.location[t.to.number] < live)
+					newstates[b].transitions.add(new Transition(t.min, t.max, newstates[blocks.set[t.to.number]]));
+		a.initial = newstates[blocks.set[initial]];
+		a.reduce();
+	}
+
+	/**
+	 * Moves a state to the reached ones, if it is not one of them.
+	 */
+	void reach(int q) {
+		int i = blocks.location[q];
+		if (i >= reached) {
+			blocks.elements[i] = blocks.elements[reached];
+			blocks.location[blocks.elements[i]] = i;
+			blocks.elements[reached] = q;
+			blocks.location[q] = reached++;
+		}
+	}
+
+	/**
+	 * Reaches the states reachable from the reached ones, along transitions
+	 * from <code>from</code> to <code>to</code>, drops the transitions from
+	 * the other states, and keeps the reached states in the first block.
+	 */
+	void removeUnreachable(int[] from, int[] to) {
+		adjacent(from);
+		for (int i = 0; i < reached; i++) {
+			int q = blocks.elements[i];
+			for (int j = first[q]; j < first[q + 1]; j++)
+				reach(to[adjacent[j]]);
+		}
+		int m = 0;
+		for (int t = 0; t < transitionCount; t++)
+			if (blocks.location[from[t]] < reached) {
+				tail[m] = tail[t];
+				label[m] = label[t];
+				head[m] = head[t];
+				m++;
+			}
+		transitionCount = m;
+		blocks.past[0] = reached;
+		reached = 0;
+	}
+
+	/**
+	 * Groups the transitions by the state at the given end.
+	 */
+	void adjacent(int[] end) {
+		Arrays.fill(first, 0);
+		for (int t = 0; t < transitionCount; t++)
+			first[end[t]]++;
+		for (int q = 0; q < states.length; q++)
+			first[q + 1] += first[q];
+		for (int t = transitionCount; t-- > 0;)
+			adjacent[--first[end[t]]] = t;
+	}
+
+	/**
+	 * Partition of the numbers 0 to n - 1 into sets, each a range of 
+	 * <code>elements</code>. Elements are marked by moving them to the 
+	 * front of their set, and split() splits the touched sets into their
+	 * marked and unmarked elements, the smaller part becoming a new set.
+	 */
+	static final class Partition {
+
+		/** Number of sets. */
+		int count;
+
+		/** Elements, grouped by set, and the position of each element. */
+		final int[] elements, location;
+
+		/** Set of each element. */
+		final int[] set;
+
+		/** Range of each set: elements[first[s] .. past[s]). */
+		final int[] first, past;
+
+		/** Number of marked elements of each set. */
+		final int[] marked;
+
+		/** Sets with marked elements. */
+		final int[] touched;
+		int touchedCount;
+
+		Partition(int n) {
+			count = n > 0 ? 1 : 0;
+			elements = new int[n];
+			location = new int[n];
+			set = new int[n];
+			for (int i = 0; i < n; i++)
+				elements[i] = location[i] = i;
+			first = new int[n + 1];
+			past = new int[n + 1];
+			marked = new int[n + 1];
+			touched = new int[n + 1];
+			past[0] = n;
+		}
+
+		void mark(int e) {
+			int s = set[e];
+			int i = location[e];
+			int j = first[s] + marked[s];
+			elements[i] = elements[j];
+			location[elements[i]] = i;
+			elements[j] = e;
+			location[e] = j;
+			if (marked[s]++ == 0)
+				touched[touchedCount++] = s;
+		}
+
+		void split() {
+			while (touchedCount > 0) {
+				int s = touched[--touchedCount];
+				int j = first[s] + marked[s];
+				if (j == past[s]) {
+					marked[s] = 0;
+					continue;
+				}
+				if (marked[s] <= past[s] - j) {
+					first[count] = first[s];
+					past[count] = first[s] = j;
+				} else {
+					past[count] = past[s];
+					first[count] = past[s] = j;
+				}
+				for (int i = first[count]; i < past[count]; i++)
+					set[elements[i]] = count;
+				marked[s] = marked[count++] = 0;
+			}
+		}
+	}
+}
@@ -14,35 +14,36 @@ public class AlphNode extends Node {
 
 	/**
 	 * Basic Constructor
-	 * @param parent
+	 * @param c the character
 	 */
-	public AlphNode(Node parent, char c) {
-		super(parent);
+	public AlphNode(char c) {
 		val = c;
 	}
-	
-	/**
-	 * Copy constructor
-	 * 
-	 * @param other the node we want to copy
-	 * @param parent the parent of the new node we are creating
-	 * @param re The regular expression tree this new node is in
-	 * @param otherRE The regular expression the other node is in
-	 */
-	public AlphNode(AlphNode other, Node parent, Regex re, Regex otherRE) {
-		super(other, parent, re, otherRE);
-		val = other.val;	
-	}
 
+	@Override
+	Node copy() {
+		return new AlphNode(val);
+	}
 	
-	public void setChar (char c) {
+	void setChar (char c) {
 		val = c;
+		invalidate();
 	}
 	
 	public char getChar() {
 		return val;
 	}
 	
+	@Override
+	protected long computeHash() {
+		return mix(1, val);
+	}
+	
+	@Override
+	protected String computeCanonicalForm() {
+		return val + "";
+	}
+	
 	@Override
 	public String toString() {
 		// here, choose whether you want to explicitly show epsilon
@@ -0,0 +1,209 @@
+package regex;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicAutomata;
+import dk.brics.automaton.BasicOperations;
+
+/**
+ *
+ * Compiles a regex tree directly into a minimal DFA, without printing it and
+ * parsing it again with dk.brics.automaton.RegExp. Optionally, the automata
+ * are left nondeterministic, for checks that don't need a DFA (the subset
+ * construction can blow up on nested stars).
+ *
+ * Optionally, the automata of subtrees are memoized, so when a candidate is
+ * a small edit of an earlier one, only the edited part (and its ancestors)
+ * are built again. Memoized automata are never modified once cached: brics
+ * operations clone their arguments, and compile() hands out a copy. Only
+ * the cache is locked, so a compiler can be shared by several threads that
+ * compile at the same time (two threads may then both build a subtree the
+ * cache doesn't have yet).
+ */
+
+public class AutomatonCompiler {
+
+	// Default number of subtree automata we keep
+	public static final int DEFAULT_CACHE_SIZE = 100000;
+
+	// Subtree automata, keyed by canonical form (null if not memoizing);
+	// also the lock of the fields below
+	private Map<String, Automaton> cache;
+	// How many subtrees were found in the cache?
+	private long cacheHits;
+	// How many subtrees had to be built?
+	private long cacheMisses;
+	// Are the automata minimized (and so determinized)?
+	private boolean minimize = true;
+
+	/**
+	 * Basic Constructor
+	 *
+	 * @param memoize whether or not to memoize the automata of subtrees
+	 */
+	public AutomatonCompiler(boolean memoize) {
+		this(memoize, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param memoize whether or not to memoize the automata of subtrees
+	 * @param cacheSize maximum number of memoized subtrees (least recently
+	 * used ones are evicted first)
+	 */
+	@SuppressWarnings("serial")
+	public AutomatonCompiler(boolean memoize, final int cacheSize) {
+		if (memoize)
+			cache = new LinkedHashMap<String, Automaton>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Automaton> eldest) {
+					return size() > cacheSize;
+				}
+			};
+	}
+
+	/**
+	 * Sets whether or not the automata are minimized. If not, they are NFAs
+	 * built with brics' union, concatenation and repetition. The memoized
+	 * automata are forgotten.
+	 *
+	 * @param minimize the flag value
+	 */
+	public void setMinimize(boolean minimize) {
+		synchronized (lock()) {
+			this.minimize = minimize;
+			if (cache != null)
+				cache.clear();
+		}
+	}
+
+	/**
+	 * Compiles a regex into a minimal DFA (or an NFA, see setMinimize())
+	 *
+	 * @param re the regular expression
+	 * @return a DFA accepting the same language (the caller's own copy)
+	 */
+	public Automaton compile(Regex re) {
+		return compile(re.getRoot());
+	}
+
+	/**
+	 * Compiles a regex subtree into a minimal DFA
+	 *
+	 * @param n root of the subtree
+	 * @return a DFA accepting the same language (the caller's own copy)
+	 */
+	public Automaton compile(Node n) {
+		boolean minimize;
+		synchronized (lock()) {
+			minimize = this.minimize;
+		}
+		Automaton a = build(n, minimize);
+		// the memoized automaton itself stays in the cache, untouched
+		return cache == null ? a : a.clone();
+	}
+
+	/**
+	 * Recursively builds the automaton of a subtree. When memoizing, a
+	 * subtree found in the cache (by its canonical form) is not visited.
+	 *
+	 * @param n root of the subtree
+	 * @param minimize whether or not to minimize the automata
+	 * @return the automaton of the subtree
+	 */
+	private Automaton build(Node n, boolean minimize) {
+		if (n instanceof AlphNode) {
+			char c = ((AlphNode)n).getChar();
+			if (c == Regex.EPS)
+				return BasicAutomata.makeEmptyString();
+			return BasicAutomata.makeChar(c);
+		}
+
+		String key = null;
+		if (cache != null) {
+			key = n.getCanonicalForm();
+			synchronized (cache) {
+				Automaton a = cache.get(key);
+				if (a != null) {
+					cacheHits++;
+					return a;
+				}
+			}
+		}
+
+		Automaton a;
+		if (n instanceof StarNode) {
+			a = BasicOperations.repeat(build(((StarNode)n).getChild(),
+					minimize));
+		}
+		else if (n instanceof DotNode || n instanceof DisNode) {
+			boolean dot = n instanceof DotNode;
+			ArrayList<Automaton> children = new ArrayList<Automaton>();
+			for (int i = 0; i < n.getSize(); i++)
+				children.add(build(dot ? ((DotNode)n).getChild(i)
+						: ((DisNode)n).getChild(i), minimize));
+			if (children.isEmpty())
+				a = BasicAutomata.makeEmptyString();
+			else if (dot)
+				a = BasicOperations.concatenate(children);
+			else
+				a = BasicOperations.union(children);
+		}
+		else {
+			return BasicAutomata.makeEmptyString();
+		}
+
+		if (minimize)
+			a.minimize();
+		if (cache != null) {
+			synchronized (cache) {
+				cacheMisses++;
+				// not if setMinimize() was called while building
+				if (minimize == this.minimize)
+					cache.put(key, a);
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Forgets all memoized subtrees
+	 */
+	public void clear() {
+		if (cache != null)
+			synchronized (cache) {
+				cache.clear();
+			}
+	}
+
+	/**
+	 * How many subtrees were found in the cache?
+	 */
+	public long getCacheHits() {
+		synchronized (lock()) {
+			return cacheHits;
+		}
+	}
+
+	/**
+	 * How many subtrees had to be built and were added to the cache?
+	 */
+	public long getCacheMisses() {
+		synchronized (lock()) {
+			return cacheMisses;
+		}
+	}
+
+	/**
+	 * The lock of the cache and counters (the compiler itself when not
+	 * memoizing)
+	 */
+	private Object lock() {
+		return cache == null ? this : cache;
+	}
+
+}
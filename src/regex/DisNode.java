@@ -16,36 +16,18 @@ public class DisNode extends Node {
 	
 	/**
 	 * Basic Constructor
-	 * @param parent
 	 */
-	public DisNode(Node parent) {
-		super(parent);
+	public DisNode() {
 		children = new ArrayList<Node>();
 	}
 	
-	/**
-	 * Copy constructor
-	 * 
-	 * @param other the node we want to copy
-	 * @param parent the parent of the new node we are creating
-	 * @param re The regular expression tree this new node is in
-	 * @param otherRE The regular expression the other node is in
-	 */
-	public DisNode(DisNode other, Node parent, Regex re, Regex otherRE) {
-		super(other, parent, re, otherRE);
-		children = new ArrayList<Node>();
-		for (Node ch : other.children) {
-			if (ch.getClass().getName().equals("regex.DisNode"))
-				children.add(new DisNode((DisNode)ch, this, re, otherRE));
-			else if (ch.getClass().getName().equals("regex.DotNode")) 
-				children.add(new DotNode((DotNode)ch, this, re, otherRE));
-			else if (ch.getClass().getName().equals("regex.StarNode")) 
-				children.add(new StarNode((StarNode)ch, this, re, otherRE));
-			else if (ch.getClass().getName().equals("regex.AlphNode")) 
-				children.add(new AlphNode((AlphNode)ch, this, re, otherRE));	
-		}	
+	@Override
+	Node copy() {
+		DisNode n = new DisNode();
+		n.children = new ArrayList<Node>(children);
+		return n;
 	}
-	
+
 	@Override
 	public String toString() {
 		if (children.size() == 0)
@@ -56,13 +38,32 @@ public class DisNode extends Node {
 		return ret;
 	}
 	
+	@Override
+	protected long computeHash() {
+		long h = 4;
+		for (Node n : children)
+			h = mix(h, n.getStructuralHash());
+		return mix(h, children.size());
+	}
+	
+	@Override
+	protected String computeCanonicalForm() {
+		StringBuilder b = new StringBuilder("|(");
+		for (int i = 0; i < children.size(); i++) {
+			if (i > 0)
+				b.append(',');
+			b.append(children.get(i).getCanonicalForm());
+		}
+		return b.append(')').toString();
+	}
+	
 	@Override
 	public int getSize() {
 		return children.size();
 	}
 	
 	@Override
-	public void eatChildren() {
+	void eatChildren() {
 		for (int i = 0; i < children.size(); i++) {
 			children.get(i).eatChildren();
 			if (children.get(i).getClass().getName().equals("regex.DisNode")) {
@@ -75,29 +76,28 @@ public class DisNode extends Node {
 				i += dn.children.size();
 				children.remove(i);
 				i--;
+				invalidate();
 			}
 		}
 	}
 	
 	@Override
-	public void replaceChild(Node prev, Node next) {
-		children.set(children.indexOf(prev), next);
+	void replaceChild(int i, Node next) {
+		children.set(i, next);
+		invalidate();
 	}
 	
-	public void addChild (Node n) {
+	void addChild (Node n) {
 		children.add(n);
+		invalidate();
 	}
 	
 	public Node getChild(int i) {
 		return children.get(i);
 	}
 
-	public int getChildIndex(Node child) {
-		return children.indexOf(child);
-	}
-
-	public void removeChild(int i) {
+	void removeChild(int i) {
 		children.remove(i);
-		
+		invalidate();
 	}
 }
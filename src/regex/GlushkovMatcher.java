@@ -0,0 +1,284 @@
+package regex;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ * A matcher that simulates the Glushkov (position) automaton of a regex tree
+ * with bit-parallelism, without determinizing it. Every non-epsilon AlphNode
+ * is a position; a set of active positions is kept as a bitmask. Trees with
+ * at most 64 positions use a single long, larger ones use a multi-word bitset.
+ *
+ * Matching does not allocate anything per character, but the scratch bitsets
+ * of large trees are shared, so an instance must not be used by several
+ * threads at once.
+ */
+
+public class GlushkovMatcher {
+
+	// Number of positions (non-epsilon alphabet nodes)
+	private int positions;
+	// Number of longs in each bitset
+	private int words;
+	// The character of each position
+	private char[] posChar;
+	// Does the regex match the empty word?
+	private boolean nullable;
+	// Positions that can be matched first
+	private long[] first;
+	// Positions that can be matched last
+	private long[] last;
+	// follow[p * words ...] are the positions that can come after p
+	private long[] follow;
+	// The distinct characters of the regex, sorted
+	private char[] symbols;
+	// masks[i * words ...] are the positions labeled by symbols[i]
+	private long[] masks;
+	// Scratch bitsets for the multi-word simulation
+	private long[] current;
+	private long[] next;
+	// Next position to be numbered while building
+	private int positionCounter;
+
+	/**
+	 * Constructor from a regex
+	 *
+	 * @param re The regular expression we want to match with
+	 */
+	public GlushkovMatcher(Regex re) {
+		this(re.getRoot());
+	}
+
+	/**
+	 * Constructor from a regex tree
+	 *
+	 * @param root the root of the regex tree
+	 */
+	public GlushkovMatcher(Node root) {
+		ArrayList<Character> chars = new ArrayList<Character>();
+		collectPositions(root, chars);
+		positions = chars.size();
+		words = Math.max(1, (positions + 63) >>> 6);
+		posChar = new char[positions];
+		for (int i = 0; i < positions; i++)
+			posChar[i] = chars.get(i);
+
+		follow = new long[positions * words];
+		first = new long[words];
+		last = new long[words];
+		positionCounter = 0;
+		nullable = build(root, first, last);
+
+		symbols = posChar.clone();
+		Arrays.sort(symbols);
+		int n = 0;
+		for (int i = 0; i < symbols.length; i++)
+			if (i == 0 || symbols[i] != symbols[i - 1])
+				symbols[n++] = symbols[i];
+		symbols = Arrays.copyOf(symbols, n);
+		masks = new long[n * words];
+		for (int p = 0; p < positions; p++) {
+			int s = Arrays.binarySearch(symbols, posChar[p]);
+			masks[s * words + (p >>> 6)] |= 1L << p;
+		}
+
+		current = new long[words];
+		next = new long[words];
+	}
+
+	/**
+	 * Numbers the positions in a left to right order
+	 *
+	 * @param n root of the subtree
+	 * @param chars the character of each position (will be updated)
+	 */
+	private static void collectPositions(Node n, ArrayList<Character> chars) {
+		if (n instanceof AlphNode) {
+			if (((AlphNode)n).getChar() != Regex.EPS)
+				chars.add(((AlphNode)n).getChar());
+		}
+		else if (n instanceof StarNode) {
+			collectPositions(((StarNode)n).getChild(), chars);
+		}
+		else if (n instanceof DotNode) {
+			for (int i = 0; i < n.getSize(); i++)
+				collectPositions(((DotNode)n).getChild(i), chars);
+		}
+		else if (n instanceof DisNode) {
+			for (int i = 0; i < n.getSize(); i++)
+				collectPositions(((DisNode)n).getChild(i), chars);
+		}
+	}
+
+	/**
+	 * Recursively computes first and last sets of a subtree, and adds its
+	 * follow pairs
+	 *
+	 * @param n root of the subtree
+	 * @param fst first set of the subtree (will be filled)
+	 * @param lst last set of the subtree (will be filled)
+	 * @return whether or not the subtree is nullable
+	 */
+	private boolean build(Node n, long[] fst, long[] lst) {
+		if (n instanceof AlphNode) {
+			if (((AlphNode)n).getChar() == Regex.EPS)
+				return true;
+			int p = positionCounter++;
+			fst[p >>> 6] |= 1L << p;
+			lst[p >>> 6] |= 1L << p;
+			return false;
+		}
+
+		if (n instanceof StarNode) {
+			long[] childFst = new long[words];
+			long[] childLst = new long[words];
+			build(((StarNode)n).getChild(), childFst, childLst);
+			addFollow(childLst, childFst);
+			or(fst, childFst);
+			or(lst, childLst);
+			return true;
+		}
+
+		if (n instanceof DisNode) {
+			boolean ret = n.getSize() == 0;
+			for (int i = 0; i < n.getSize(); i++)
+				ret |= build(((DisNode)n).getChild(i), fst, lst);
+			return ret;
+		}
+
+		if (n instanceof DotNode) {
+			int size = n.getSize();
+			long[][] fsts = new long[size][words];
+			long[][] lsts = new long[size][words];
+			boolean[] nulls = new boolean[size];
+			for (int i = 0; i < size; i++)
+				nulls[i] = build(((DotNode)n).getChild(i), fsts[i], lsts[i]);
+
+			// first positions of the suffix starting right after child i
+			long[] suffixFirst = new long[words];
+			boolean suffixNullable = true;
+			for (int i = size - 1; i >= 0; i--) {
+				addFollow(lsts[i], suffixFirst);
+				if (suffixNullable)
+					or(lst, lsts[i]);
+				suffixNullable &= nulls[i];
+				if (!nulls[i])
+					Arrays.fill(suffixFirst, 0);
+				or(suffixFirst, fsts[i]);
+			}
+			or(fst, suffixFirst);
+			return suffixNullable;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds all positions of 'to' to the follow set of every position of 'from'
+	 */
+	private void addFollow(long[] from, long[] to) {
+		for (int w = 0; w < words; w++) {
+			long bits = from[w];
+			while (bits != 0) {
+				int p = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				or(follow, p * words, to);
+			}
+		}
+	}
+
+	private static void or(long[] dest, long[] src) {
+		or(dest, 0, src);
+	}
+
+	private static void or(long[] dest, int offset, long[] src) {
+		for (int w = 0; w < src.length; w++)
+			dest[offset + w] |= src[w];
+	}
+
+	/**
+	 * Checks if the whole word is matched by the regex
+	 *
+	 * @param word The word we want to check
+	 * @return whether or not the word is in the regex language
+	 */
+	public boolean matches(String word) {
+		if (word.length() == 0)
+			return nullable;
+		if (words == 1)
+			return matchesSingleWord(word);
+		return matchesMultiWord(word);
+	}
+
+	/**
+	 * Simulation for at most 64 positions; the state is one long
+	 */
+	private boolean matchesSingleWord(String word) {
+		long state = first[0];
+		for (int i = 0; i < word.length(); i++) {
+			int s = Arrays.binarySearch(symbols, word.charAt(i));
+			if (s < 0)
+				return false;
+			state &= masks[s];
+			if (state == 0)
+				return false;
+			if (i == word.length() - 1)
+				break;
+			long reach = 0;
+			for (long bits = state; bits != 0; bits &= bits - 1)
+				reach |= follow[Long.numberOfTrailingZeros(bits)];
+			state = reach;
+		}
+		return (state & last[0]) != 0;
+	}
+
+	/**
+	 * Simulation for more than 64 positions, on multi-word bitsets
+	 */
+	private boolean matchesMultiWord(String word) {
+		long[] state = current;
+		long[] reach = next;
+		System.arraycopy(first, 0, state, 0, words);
+		for (int i = 0; i < word.length(); i++) {
+			int s = Arrays.binarySearch(symbols, word.charAt(i));
+			if (s < 0)
+				return false;
+			boolean empty = true;
+			for (int w = 0; w < words; w++) {
+				state[w] &= masks[s * words + w];
+				empty &= state[w] == 0;
+			}
+			if (empty)
+				return false;
+			if (i == word.length() - 1)
+				break;
+			Arrays.fill(reach, 0);
+			for (int w = 0; w < words; w++) {
+				for (long bits = state[w]; bits != 0; bits &= bits - 1) {
+					int p = (w << 6) + Long.numberOfTrailingZeros(bits);
+					or(reach, 0, follow, p * words, words);
+				}
+			}
+			long[] temp = state;
+			state = reach;
+			reach = temp;
+		}
+		for (int w = 0; w < words; w++)
+			if ((state[w] & last[w]) != 0)
+				return true;
+		return false;
+	}
+
+	private static void or(long[] dest, int destOffset, long[] src,
+			int srcOffset, int length) {
+		for (int w = 0; w < length; w++)
+			dest[destOffset + w] |= src[srcOffset + w];
+	}
+
+	/**
+	 * Number of positions of the automaton
+	 */
+	public int getPositionCount() {
+		return positions;
+	}
+}
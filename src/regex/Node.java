@@ -3,62 +3,109 @@ package regex;
  * 
  * A general node in the regex tree. 
  * 
+ * Nodes have no parent pointer, so a subtree can be shared by many trees:
+ * a change copies the nodes on the path from the root to the changed node,
+ * and shares the rest (see Regex). A node must not be changed once it is in
+ * a regex tree; the package-private setters are only used on nodes that are
+ * being built or that were just copied.
+ * 
  * @author Ashkan Forouhi ashkanfb@cs.wisc.edu
  *
  */
 
 public class Node {
 	
-	// The node parent
-	private Node parent;
+	// Cached structural hash of the subtree
+	private long hash;
+	// Whether or not the cached hash is up to date (volatile, as shared
+	// subtrees are hashed by several threads)
+	private volatile boolean hashValid;
+	// Cached canonical form of the subtree (null if not computed)
+	private String canonical;
 	
 	/**
 	 * Basic Constructor
-	 * @param parent
 	 */
-	public Node(Node parent) {
-		this.parent = parent;
+	public Node() {
 	}
 	
 	/**
-	 * Copy constructor
+	 * Copies this node alone: the copy has the same children (they are 
+	 * shared, not copied), and no cached hash or canonical form, as it is
+	 * about to be changed.
 	 * 
-	 * @param other the node we want to copy
-	 * @param parent the parent of the new node we are creating
-	 * @param re The regular expression tree this new node is in
-	 * @param otherRE The regular expression the other node is in
+	 * @return the copy
 	 */
-	public Node (Node other, Node parent, Regex re, Regex otherRE) {
-		this.parent = parent;
-		if (other == otherRE.getChangeNode())
-			re.setChangeNode(this);
-		if (other == otherRE.getExpChangeNode())
-			re.setExpChangeNode(this);
-		if (other == otherRE.getChangeRoot())
-			re.setChangeRoot(this);
-		if (other == otherRE.getModRangeRoot())
-			re.setModRangeRoot(this);
+	Node copy() {
+		return new Node();
 	}
 	
 	public int getSize() {
 		return 0;
 	}
 	
-	public void eatChildren() {
+	void eatChildren() {
+		return;
+	}
+
+	// will be overridden
+	void replaceChild(int i, Node next) {
 		return;
 	}
 	
-	public Node getParent() {
-		return parent;
+	/**
+	 * A 64-bit hash of the subtree structure, cached until the subtree 
+	 * changes
+	 * 
+	 * @return the structural hash
+	 */
+	public long getStructuralHash() {
+		if (!hashValid) {
+			hash = computeHash();
+			hashValid = true;
+		}
+		return hash;
 	}
 	
-	public void setParent(Node parent) {
-		this.parent = parent;
+	/**
+	 * An unambiguous serialization of the subtree (unlike toString(), which
+	 * drops some parentheses), cached until the subtree changes. Two subtrees
+	 * have the same canonical form iff they have the same structure.
+	 * 
+	 * @return the canonical form
+	 */
+	public String getCanonicalForm() {
+		if (canonical == null)
+			canonical = computeCanonicalForm();
+		return canonical;
 	}
-
+	
 	// will be overridden
-	public void replaceChild(Node prev, Node next) {
-		return;
+	protected long computeHash() {
+		return 0;
+	}
+	
+	// will be overridden
+	protected String computeCanonicalForm() {
+		return "";
+	}
+	
+	/**
+	 * Must be called whenever the node changes. Drops its cached hash and
+	 * canonical form (its ancestors are copies made for the change, with 
+	 * nothing cached yet).
+	 */
+	protected void invalidate() {
+		hashValid = false;
+		canonical = null;
+	}
+	
+	/**
+	 * Mixes a value into a 64-bit hash
+	 */
+	protected static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
 	}
 	
 }
@@ -0,0 +1,342 @@
+package regex;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ *
+ * A compact copy of a regex, for regexes that wait in the search queue. The
+ * whole tree is packed into a single char array, as a struct of arrays: the
+ * kind, character, first child, next sibling and parent of every node, in
+ * pre-order, each in its own section. The change markers are node indices.
+ *
+ * A regex of n nodes takes about 10n + 40 bytes, instead of a few dozen
+ * bytes per node (and a copy of the alphabet) for a Regex. The alphabet is
+ * the same for all regexes of a search, so it is given back when unpacking.
+ */
+
+public class PackedRegex {
+
+	// Node kinds
+	private static final char ALPH = 0;
+	private static final char STAR = 1;
+	private static final char DOT = 2;
+	private static final char DIS = 3;
+	// No node
+	private static final char NONE = 0xFFFF;
+	// Bits of the flags
+	private static final char READY_TO_REFINE = 1;
+	private static final char REFINING_STARTED = 2;
+	// Header: node count, distance, flags and the four markers
+	private static final int HEADER = 7;
+
+	// The header, then the kind, char, first child, next sibling and parent
+	// sections, n chars each
+	private char[] data;
+
+	/**
+	 * Packs a regex
+	 *
+	 * @param re the regex
+	 * @return the packed regex, or null if it can't be packed (too large)
+	 */
+	public static PackedRegex pack(Regex re) {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<Character> parents = new ArrayList<Character>();
+		collect(re.getRoot(), NONE, nodes, parents);
+		// the length must fit in 16 bits
+		if (HEADER + 5 * nodes.size() > 0xFFFF || re.getDistance() >= NONE)
+			return null;
+		return new PackedRegex(re, nodes, parents);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param re the regex
+	 * @param nodes its nodes, in pre-order
+	 * @param parents the index of the parent of each node
+	 */
+	private PackedRegex(Regex re, ArrayList<Node> nodes,
+			ArrayList<Character> parents) {
+		int n = nodes.size();
+		data = new char[HEADER + 5 * n];
+		data[0] = (char)n;
+		data[1] = (char)re.getDistance();
+		setFlags(re);
+
+		for (int i = 0; i < n; i++) {
+			Node node = nodes.get(i);
+			data[first() + i] = NONE;
+			data[next() + i] = NONE;
+			data[parent() + i] = parents.get(i);
+			if (node instanceof AlphNode) {
+				data[kind() + i] = ALPH;
+				data[chars() + i] = ((AlphNode)node).getChar();
+			}
+			else {
+				data[kind() + i] = node instanceof StarNode ? STAR
+						: node instanceof DotNode ? DOT : DIS;
+			}
+		}
+
+		// children are numbered right after their parent and older siblings
+		for (int i = n - 1; i > 0; i--) {
+			int p = data[parent() + i];
+			data[next() + i] = data[first() + p];
+			data[first() + p] = (char)i;
+		}
+
+		int[][] markers = re.getMarkers();
+		for (int i = 0; i < markers.length; i++)
+			data[3 + i] = indexOf(markers[i]);
+	}
+
+	/**
+	 * Lists the nodes of a subtree in pre-order, and the index of their
+	 * parents
+	 */
+	private static void collect(Node n, char parent, ArrayList<Node> nodes,
+			ArrayList<Character> parents) {
+		char index = (char)nodes.size();
+		nodes.add(n);
+		parents.add(parent);
+		if (n instanceof StarNode)
+			collect(((StarNode)n).getChild(), index, nodes, parents);
+		else if (n instanceof DotNode)
+			for (int i = 0; i < n.getSize(); i++)
+				collect(((DotNode)n).getChild(i), index, nodes, parents);
+		else if (n instanceof DisNode)
+			for (int i = 0; i < n.getSize(); i++)
+				collect(((DisNode)n).getChild(i), index, nodes, parents);
+	}
+
+	/**
+	 * Index of the node a path from the root leads to (NONE for a null 
+	 * path)
+	 */
+	private char indexOf(int[] path) {
+		if (path == null)
+			return NONE;
+		int i = 0;
+		for (int step : path) {
+			i = data[first() + i];
+			for (int k = 0; k < step; k++)
+				i = data[next() + i];
+		}
+		return (char)i;
+	}
+
+	/**
+	 * The path from the root to a node (null for NONE)
+	 */
+	private int[] pathOf(char i) {
+		if (i == NONE)
+			return null;
+		int depth = 0;
+		for (int n = i; data[parent() + n] != NONE; n = data[parent() + n])
+			depth++;
+		int[] path = new int[depth];
+		for (int n = i; depth > 0; n = data[parent() + n]) {
+			int index = 0;
+			for (int c = data[first() + data[parent() + n]]; c != n;
+					c = data[next() + c])
+				index++;
+			path[--depth] = index;
+		}
+		return path;
+	}
+
+	/**
+	 * Unpacks the regex
+	 *
+	 * @param alphabet the alphabet of the search (shared, not copied)
+	 * @return a regex equal to the packed one
+	 */
+	public Regex toRegex(ArrayList<Character> alphabet) {
+		int n = data[0];
+		Node[] nodes = new Node[n];
+		for (int i = 0; i < n; i++) {
+			Node parent = data[parent() + i] == NONE ? null
+					: nodes[data[parent() + i]];
+			switch (data[kind() + i]) {
+				case ALPH:
+					nodes[i] = new AlphNode(data[chars() + i]);
+					break;
+				case STAR:
+					nodes[i] = new StarNode();
+					break;
+				case DOT:
+					nodes[i] = new DotNode();
+					break;
+				default:
+					nodes[i] = new DisNode();
+					break;
+			}
+			if (parent instanceof StarNode)
+				((StarNode)parent).setChild(nodes[i]);
+			else if (parent instanceof DotNode)
+				((DotNode)parent).addChild(nodes[i]);
+			else if (parent instanceof DisNode)
+				((DisNode)parent).addChild(nodes[i]);
+		}
+
+		Regex re = new Regex(nodes[0], alphabet, data[1],
+				(data[2] & READY_TO_REFINE) != 0,
+				(data[2] & REFINING_STARTED) != 0);
+		re.setMarkers(new int[][] {pathOf(data[3]), pathOf(data[4]),
+				pathOf(data[5]), pathOf(data[6])});
+		return re;
+	}
+
+	/**
+	 * Copies the refine flags of a regex (they are set when it is tested)
+	 *
+	 * @param re the regex
+	 */
+	public void setFlags(Regex re) {
+		data[2] = (char)((re.isReadyToRefine() ? READY_TO_REFINE : 0)
+				| (re.isRefiningStarted() ? REFINING_STARTED : 0));
+	}
+
+	/**
+	 * Enumerates regular expressions that can be created in one step from
+	 * this (on an unpacked copy)
+	 *
+	 * @param alphabet the alphabet of the search
+	 * @return an Arraylist of generated regexes
+	 */
+	public ArrayList<Regex> enumeratePossibleChanges(
+			ArrayList<Character> alphabet) {
+		return toRegex(alphabet).enumeratePossibleChanges();
+	}
+
+	/**
+	 * Writes the packed regex in binary form: its length, then its chars
+	 *
+	 * @param out where to write
+	 */
+	public void write(DataOutput out) throws IOException {
+		// in one write, not one per char
+		byte[] bytes = new byte[2 + 2 * data.length];
+		ByteBuffer b = ByteBuffer.wrap(bytes);
+		b.putShort((short)data.length);
+		b.asCharBuffer().put(data);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a packed regex written by write()
+	 *
+	 * @param in where to read from
+	 * @return the packed regex
+	 */
+	public static PackedRegex read(ByteBuffer in) {
+		PackedRegex p = new PackedRegex();
+		p.data = new char[in.getShort() & 0xFFFF];
+		in.asCharBuffer().get(p.data);
+		in.position(in.position() + 2 * p.data.length);
+		return p;
+	}
+
+	/**
+	 * Empty constructor, for read()
+	 */
+	private PackedRegex() {
+	}
+
+	/**
+	 * Gets the no of change made to this regex so far
+	 */
+	public int getDistance() {
+		return data[1];
+	}
+
+	/**
+	 * Number of chars used by the packed regex
+	 */
+	public int getPackedSize() {
+		return data.length;
+	}
+
+	/**
+	 * The regex as a string, same as Regex.toString(), without unpacking
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		append(b, 0);
+		return b.toString();
+	}
+
+	private void append(StringBuilder b, int i) {
+		switch (data[kind() + i]) {
+			case ALPH:
+				b.append(data[chars() + i]);
+				break;
+			case STAR: {
+				int child = data[first() + i];
+				boolean parens = getSize(child) > 1;
+				if (parens)
+					b.append('(');
+				append(b, child);
+				b.append(parens ? ")*" : "*");
+				break;
+			}
+			case DOT:
+				for (int c = data[first() + i]; c != NONE; c = data[next() + c]) {
+					boolean parens = getSize(c) > 1;
+					if (parens)
+						b.append('(');
+					append(b, c);
+					if (parens)
+						b.append(')');
+				}
+				break;
+			default:
+				for (int c = data[first() + i]; c != NONE; c = data[next() + c]) {
+					if (c != data[first() + i])
+						b.append('|');
+					append(b, c);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Same as Node.getSize(): number of children of concatenations and
+	 * disjunctions, 0 for the other nodes
+	 */
+	private int getSize(int i) {
+		char k = data[kind() + i];
+		if (k != DOT && k != DIS)
+			return 0;
+		int size = 0;
+		for (int c = data[first() + i]; c != NONE; c = data[next() + c])
+			size++;
+		return size;
+	}
+
+	// Offsets of the sections
+	private int kind() {
+		return HEADER;
+	}
+
+	private int chars() {
+		return HEADER + data[0];
+	}
+
+	private int first() {
+		return HEADER + 2 * data[0];
+	}
+
+	private int next() {
+		return HEADER + 3 * data[0];
+	}
+
+	private int parent() {
+		return HEADER + 4 * data[0];
+	}
+
+}
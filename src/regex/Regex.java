@@ -1,7 +1,17 @@
 package regex;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 /**
  * 
@@ -17,19 +27,24 @@ public class Regex {
 	// I pretend that 235 is epsilon :)
 	public static final char EPS = 235;
 
+	// The path (child indices) from the root to the root itself
+	private static final int[] ROOT = new int[0];
+
 	// the tree root
 	private Node root;
 	// We only need this for initial parsing
 	private static int parserIndex;
+	// The change markers are paths from the root, null if the node is not in
+	// the tree any more. Paths are never changed in place, only replaced.
 	// Last Node that was changed by a modifying change
-	private Node changeNode;
+	private int[] changeNode;
 	// Last Node that was changed by an expanding change
-	private Node expChangeNode;
+	private int[] expChangeNode;
 	// The root of subtree we want to change now
-	private Node changeRoot;
+	private int[] changeRoot;
 	// The root of all possible mod changes subtree. Usually this is the root,
 	// unless we start expanding a section
-	private Node modRangeRoot;
+	private int[] modRangeRoot;
 	// The regex alphabet
 	private ArrayList<Character> alphabet;
 	// Distance from initial regex
@@ -52,21 +67,25 @@ public class Regex {
 		regex = addDots(regex);
 		regex = toInfix(regex);
 
-		parserIndex = 0;		// start parsing
-		root = treeMaker (regex, null, alphabet);
+		// the parser position is static, so one regex is parsed at a time
+		synchronized (Regex.class) {
+			parserIndex = 0;		// start parsing
+			root = treeMaker (regex, alphabet);
+		}
 		root.eatChildren();
 
-		changeNode = root;
-		expChangeNode = root;
-		changeRoot = root;
-		modRangeRoot = root;
+		changeNode = ROOT;
+		expChangeNode = ROOT;
+		changeRoot = ROOT;
+		modRangeRoot = ROOT;
 		distance = 0;
 		readyToRefineFlag = false;
 		refiningStartedFlag = false;
 	}
 
 	/**
-	 * Copy Constructor
+	 * Copy Constructor. The tree is shared, as nodes are not changed once
+	 * they are in a tree.
 	 * 
 	 * @param re
 	 */
@@ -79,20 +98,57 @@ public class Regex {
 		readyToRefineFlag = re.readyToRefineFlag;
 		refiningStartedFlag = re.refiningStartedFlag;
 
-		switch (re.root.getClass().getName()) {
-			case "regex.DisNode":
-				root = new DisNode((DisNode)re.root, null, this, re);
-				break;
-			case "regex.DotNode":
-				root = new DotNode((DotNode)re.root, null, this, re);
-				break;
-			case "regex.StarNode":
-				root = new StarNode((StarNode)re.root, null, this, re);
-				break;
-			case "regex.AlphNode":
-				root = new AlphNode((AlphNode)re.root, null, this, re);
-				break;
-		}
+		root = re.root;
+		changeNode = re.changeNode;
+		expChangeNode = re.expChangeNode;
+		changeRoot = re.changeRoot;
+		modRangeRoot = re.modRangeRoot;
+	}
+
+	/**
+	 * A copy of this regex that shares its tree and alphabet. Changes to 
+	 * the copy only copy the nodes from the root to the changed one (see 
+	 * copyPath()), so an enumerated regex costs O(depth) new nodes.
+	 * 
+	 * @return the copy
+	 */
+	private Regex shareTree() {
+		Regex temp = new Regex();
+		temp.root = root;
+		temp.alphabet = alphabet;
+		temp.changeNode = changeNode;
+		temp.expChangeNode = expChangeNode;
+		temp.changeRoot = changeRoot;
+		temp.modRangeRoot = modRangeRoot;
+		temp.distance = distance;
+		temp.readyToRefineFlag = readyToRefineFlag;
+		temp.refiningStartedFlag = refiningStartedFlag;
+		return temp;
+	}
+
+	/**
+	 * Constructor from an existing tree (for PackedRegex). The change 
+	 * markers must be set afterwards, with setMarkers().
+	 * 
+	 * @param root root of the tree
+	 * @param alphabet the alphabet (not copied)
+	 * @param distance no of changes made so far
+	 * @param readyToRefineFlag value of the flag
+	 * @param refiningStartedFlag value of the flag
+	 */
+	Regex(Node root, ArrayList<Character> alphabet, int distance, 
+			boolean readyToRefineFlag, boolean refiningStartedFlag) {
+		this.root = root;
+		this.alphabet = alphabet;
+		this.distance = distance;
+		this.readyToRefineFlag = readyToRefineFlag;
+		this.refiningStartedFlag = refiningStartedFlag;
+	}
+
+	/**
+	 * Empty constructor, for shareTree()
+	 */
+	private Regex() {
 	}
 
 	/**
@@ -166,11 +222,10 @@ public class Regex {
 	 * Recursively parses a string regular expression and converts it to a tree
 	 * 
 	 * @param regex a string infix regular expression
-	 * @param parent parent of the root node
 	 * @param alphabet the regex alphabet (will be updated by method)
 	 * @return the root of the generated tree
 	 */
-	private static Node treeMaker (String regex, Node parent, 
+	private static Node treeMaker (String regex, 
 			ArrayList<Character> alphabet) {
 		char ch = regex.charAt(parserIndex);
 		parserIndex++;
@@ -178,32 +233,32 @@ public class Regex {
 		Node current = null;
 
 		if (ch == '|') {
-			DisNode n = new DisNode(parent);
-			Node child1 = treeMaker(regex, n, alphabet);
-			Node child2 = treeMaker(regex, n, alphabet);
+			DisNode n = new DisNode();
+			Node child1 = treeMaker(regex, alphabet);
+			Node child2 = treeMaker(regex, alphabet);
 			n.addChild(child1);
 			n.addChild(child2);
 			current = n;
 		}
 
 		else if (ch == '.') {
-			DotNode n = new DotNode(parent);
-			Node child1 = treeMaker(regex, n, alphabet);
-			Node child2 = treeMaker(regex, n, alphabet);
+			DotNode n = new DotNode();
+			Node child1 = treeMaker(regex, alphabet);
+			Node child2 = treeMaker(regex, alphabet);
 			n.addChild(child1);
 			n.addChild(child2);
 			current = n;
 		}
 
 		else if (ch == '*') {
-			StarNode n = new StarNode(parent);
-			Node child = treeMaker(regex, n, alphabet);
+			StarNode n = new StarNode();
+			Node child = treeMaker(regex, alphabet);
 			n.setChild(child);
 			current = n;
 		}
 
 		else {
-			current = new AlphNode(parent, ch);
+			current = new AlphNode(ch);
 			if (!alphabet.contains(ch))
 				alphabet.add(ch);
 		}
@@ -217,42 +272,441 @@ public class Regex {
 	 * @return an Arraylis of generated regexes
 	 */
 	public ArrayList<Regex> enumeratePossibleChanges() {
-		Regex base = new Regex(this);	// we don't want to change 'this'!
-		ArrayList<Regex> ret = new ArrayList<Regex>();
+		return changes().join();
+	}
+
+	/**
+	 * Lazily enumerates regular expressions that can be created in one step 
+	 * from this, in the same order as enumeratePossibleChanges(). Each 
+	 * regex is only built when it is needed.
+	 * 
+	 * @return an iterator over the generated regexes
+	 */
+	public Iterator<Regex> possibleChangesIterator() {
+		return Spliterators.iterator(possibleChangesSpliterator());
+	}
+
+	/**
+	 * Lazily enumerates regular expressions that can be created in one step 
+	 * from this, in the same order as enumeratePossibleChanges(). It can be
+	 * split (per change kind and per subtree) for parallel streams.
+	 * 
+	 * @return a spliterator over the generated regexes
+	 */
+	public ChangeSpliterator possibleChangesSpliterator() {
+		return new ChangeSpliterator(changes().parts);
+	}
+
+	/**
+	 * Builds one regex of enumeratePossibleChanges() again, from its edit 
+	 * path (see ChangeSpliterator.getLastPath()). Only the calls on the path
+	 * are run.
+	 * 
+	 * @param path the edit path
+	 * @return the regex, equal to the one the path was taken from
+	 */
+	public Regex getPossibleChange(char[] path) {
+		List<Object> parts = changes().parts;
+		for (int i = 0; i < path.length - 1; i++)
+			parts = ((EnumTask)parts.get(path[i])).parts().parts;
+		return (Regex)parts.get(path[path.length - 1]);
+	}
+
+	/**
+	 * The first level of the enumeration: the changes of each kind, not run
+	 * yet
+	 */
+	private EnumResults changes() {
+		// we don't want to change 'this'! (only markers change, so the tree
+		// can be shared)
+		Regex base = shareTree();
+		EnumResults ret = new EnumResults();
 
 		base.distance++;
 		if (!base.refiningStartedFlag) {
 			if (base.readyToRefineFlag) {
-				base.refiningStartedFlag = true;
-				ret.addAll(base.refEnum());
+				// the kinds run later (maybe in parallel), so each one gets its
+				// own base
+				Regex refBase = base.shareTree();
+				refBase.refiningStartedFlag = true;
+				ret.addAll(new EnumTask(refBase, EnumTask.REF));
 			}
 			base.refiningStartedFlag = false;
-			base.changeRoot = base.modRangeRoot;
-			ret.addAll(base.modEnum());
-			ret.addAll(base.starEnum());
-
-			base.changeRoot = base.root;
-			ret.addAll(base.expEnum());
+			Regex modBase = base.shareTree();
+			modBase.changeRoot = modBase.modRangeRoot;
+			ret.addAll(new EnumTask(modBase, EnumTask.MOD));
+			ret.addAll(new EnumTask(modBase, EnumTask.STAR));
+
+			Regex expBase = base.shareTree();
+			expBase.changeRoot = ROOT;
+			ret.addAll(new EnumTask(expBase, EnumTask.EXP));
 		}
 		else if (base.readyToRefineFlag) {
-			ret.addAll(base.refEnum());
+			ret.addAll(new EnumTask(base, EnumTask.REF));
 		}
 
 
 		return ret;
 	}
 
+	/**
+	 * enumerates regular expressions that can be created in one step from 
+	 * this, splitting the work per change kind and per subtree over a 
+	 * fork/join pool. The result is in the same order as the one of
+	 * enumeratePossibleChanges().
+	 * 
+	 * @param pool the pool to run the enumeration in
+	 * @return an Arraylist of generated regexes
+	 */
+	public ArrayList<Regex> enumeratePossibleChanges(ForkJoinPool pool) {
+		return pool.invoke(new EnumTask(this, EnumTask.ALL));
+	}
+
+	/**
+	 * enumerates regular expressions this can be created from in one step, 
+	 * by undoing a single change: removing a star, removing a character from
+	 * a disjunction or a concatenation, changing a character, or adding a 
+	 * star (undoing a refining change). Used to search backwards from the 
+	 * target; the change markers of the results are not meaningful.
+	 * 
+	 * @param alphabet the characters a change may use
+	 * @return an Arraylist of generated regexes
+	 */
+	public ArrayList<Regex> enumerateInverseChanges(List<Character> alphabet) {
+		ArrayList<Regex> ret = new ArrayList<Regex>();
+		ArrayList<int[]> paths = new ArrayList<int[]>();
+		collectPaths(root, ROOT, paths);
+
+		for (int[] path : paths) {
+			Node n = nodeAt(path);
+			Node parent = parentOf(path);
+
+			// undo adding a star
+			if (n instanceof StarNode) {
+				Regex temp = inverseBase();
+				temp.unwrapNode(path, ((StarNode)n).getChild());
+				ret.add(temp);
+			}
+
+			if (n instanceof AlphNode) {
+				char c = ((AlphNode)n).getChar();
+
+				// undo adding a character to a disjunction or concatenation
+				if ((parent instanceof DisNode 
+						|| (parent instanceof DotNode && c != EPS)) 
+						&& parent.getSize() > 1) {
+					Regex temp = inverseBase();
+					int[] parentPath = Arrays.copyOf(path, path.length - 1);
+					int i = path[path.length - 1];
+					Node p = temp.copyPath(parentPath);
+					if (p instanceof DisNode)
+						((DisNode)p).removeChild(i);
+					else
+						((DotNode)p).removeChild(i);
+					temp.moveMarkers(parentPath, REMOVE, i);
+					if (p.getSize() == 1)
+						temp.unwrapNode(parentPath, getChild(p, 0));
+					ret.add(temp);
+				}
+
+				// undo changing a character
+				for (char ch : alphabet) {
+					if (ch != c) {
+						Regex temp = inverseBase();
+						((AlphNode)temp.copyPath(path)).setChar(ch);
+						ret.add(temp);
+					}
+				}
+			}
+
+			// undo removing a star
+			if (!(n instanceof StarNode) && !(parent instanceof StarNode)
+					&& !(n instanceof AlphNode 
+							&& ((AlphNode)n).getChar() == EPS)) {
+				Regex temp = inverseBase();
+				StarNode node = new StarNode();
+				node.setChild(n);
+				temp.wrapNode(path, node);
+				ret.add(temp);
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * A copy of this, one step further away (for inverse changes)
+	 */
+	private Regex inverseBase() {
+		Regex temp = shareTree();
+		temp.distance++;
+		return temp;
+	}
+
+	/**
+	 * Lists the paths to the nodes of a subtree in pre-order
+	 */
+	private static void collectPaths(Node n, int[] path, 
+			ArrayList<int[]> paths) {
+		paths.add(path);
+		for (int i = 0; i < n.getSize(); i++)
+			collectPaths(getChild(n, i), childPath(path, i), paths);
+	}
+
+	/**
+	 * The i-th child of a node, whatever its kind
+	 */
+	private static Node getChild(Node n, int i) {
+		if (n instanceof DotNode)
+			return ((DotNode)n).getChild(i);
+		if (n instanceof DisNode)
+			return ((DisNode)n).getChild(i);
+		return ((StarNode)n).getChild();
+	}
+
+	/**
+	 * The node a path from the root leads to
+	 */
+	private Node nodeAt(int[] path) {
+		return nodeAt(path, path.length);
+	}
+
+	/**
+	 * The node the first steps of a path from the root lead to
+	 * 
+	 * @param path the path
+	 * @param depth the number of steps to follow
+	 */
+	private Node nodeAt(int[] path, int depth) {
+		Node n = root;
+		for (int i = 0; i < depth; i++)
+			n = getChild(n, path[i]);
+		return n;
+	}
+
+	/**
+	 * The parent of the node a path leads to (null for the root)
+	 */
+	private Node parentOf(int[] path) {
+		return path.length == 0 ? null : nodeAt(path, path.length - 1);
+	}
+
+	/**
+	 * The path to the i-th child of the node a path leads to
+	 */
+	private static int[] childPath(int[] path, int i) {
+		int[] ret = Arrays.copyOf(path, path.length + 1);
+		ret[path.length] = i;
+		return ret;
+	}
+
+	/**
+	 * Copies the nodes on a path, from the root to the node it leads to, so
+	 * that node can be changed. The copies replace the old nodes in this 
+	 * tree; the rest of the tree is still shared.
+	 * 
+	 * @param path the path
+	 * @return the copy of the node the path leads to
+	 */
+	private Node copyPath(int[] path) {
+		return copyPath(path, path.length);
+	}
+
+	private Node copyPath(int[] path, int depth) {
+		root = root.copy();
+		Node n = root;
+		for (int i = 0; i < depth; i++) {
+			Node child = getChild(n, path[i]).copy();
+			n.replaceChild(path[i], child);
+			n = child;
+		}
+		return n;
+	}
+
+	/**
+	 * Replaces the node a path leads to with a new one
+	 * 
+	 * @param path the path
+	 * @param newNode the new node
+	 */
+	private void replaceNode(int[] path, Node newNode) {
+		if (path.length == 0)
+			root = newNode;
+		else
+			copyPath(path, path.length - 1).replaceChild(
+					path[path.length - 1], newNode);
+	}
+
+	/**
+	 * Puts a new node, whose only child is the node a path leads to, in 
+	 * place of that node. Markers below the path move one level down.
+	 * 
+	 * @param path the path
+	 * @param node the new node
+	 */
+	private void wrapNode(int[] path, Node node) {
+		replaceNode(path, node);
+		moveMarkers(path, WRAP, 0);
+	}
+
+	/**
+	 * Puts the only child of the node a path leads to in place of that node.
+	 * Markers below the path move one level up.
+	 * 
+	 * @param path the path
+	 * @param child the child
+	 */
+	private void unwrapNode(int[] path, Node child) {
+		replaceNode(path, child);
+		moveMarkers(path, UNWRAP, 0);
+	}
+
+	// How the children of a node changed, for moveMarkers()
+	private static final int WRAP = 0;
+	private static final int UNWRAP = 1;
+	private static final int INSERT = 2;
+	private static final int REMOVE = 3;
+
+	/**
+	 * Moves the change markers below a node after its children changed, so
+	 * they still lead to the same nodes (or become null if their node was
+	 * removed)
+	 * 
+	 * @param path the path to the node
+	 * @param change WRAP (the node was put under a new node), UNWRAP (its 
+	 * only child took its place), INSERT or REMOVE (a child was inserted or
+	 * removed)
+	 * @param index the index of the inserted or removed child
+	 */
+	private void moveMarkers(int[] path, int change, int index) {
+		changeNode = movePath(changeNode, path, change, index);
+		expChangeNode = movePath(expChangeNode, path, change, index);
+		changeRoot = movePath(changeRoot, path, change, index);
+		modRangeRoot = movePath(modRangeRoot, path, change, index);
+	}
+
+	private static int[] movePath(int[] marker, int[] path, int change, 
+			int index) {
+		int d = path.length;
+		if (marker == null || marker.length <= d)
+			return marker;
+		for (int i = 0; i < d; i++)
+			if (marker[i] != path[i])
+				return marker;
+
+		int[] ret;
+		switch (change) {
+			case WRAP:
+				// one more step, to child 0 of the new node
+				ret = new int[marker.length + 1];
+				System.arraycopy(marker, 0, ret, 0, d);
+				System.arraycopy(marker, d, ret, d + 1, marker.length - d);
+				return ret;
+			case UNWRAP:
+				ret = new int[marker.length - 1];
+				System.arraycopy(marker, 0, ret, 0, d);
+				System.arraycopy(marker, d + 1, ret, d, marker.length - d - 1);
+				return ret;
+			case INSERT:
+				if (marker[d] < index)
+					return marker;
+				ret = marker.clone();
+				ret[d]++;
+				return ret;
+			default:
+				if (marker[d] < index)
+					return marker;
+				if (marker[d] == index)
+					return null;
+				ret = marker.clone();
+				ret[d]--;
+				return ret;
+		}
+	}
+
+	/**
+	 * A serialization of the tree that ignores changes with no effect on the
+	 * language: single child concatenations and disjunctions, nested 
+	 * concatenations and disjunctions, epsilons inside concatenations, 
+	 * nested stars and the order of disjuncts. Used to match trees reached
+	 * from different sides.
+	 * 
+	 * @return the normal form
+	 */
+	public String getNormalForm() {
+		return normalForm(root);
+	}
+
+	private static String normalForm(Node n) {
+		n = unwrap(n);
+		if (n instanceof AlphNode)
+			return String.valueOf(((AlphNode)n).getChar());
+
+		if (n instanceof StarNode) {
+			String child = normalForm(((StarNode)n).getChild());
+			if (child.equals(String.valueOf(EPS)) || child.startsWith("*("))
+				return child;
+			return "*(" + child + ")";
+		}
+
+		boolean dot = n instanceof DotNode;
+		ArrayList<String> parts = new ArrayList<String>();
+		collectParts(n, dot, parts);
+		if (parts.isEmpty())
+			return String.valueOf(EPS);
+		if (parts.size() == 1)
+			return parts.get(0);
+		if (!dot)
+			Collections.sort(parts);
+		StringBuilder b = new StringBuilder(dot ? ".(" : "|(");
+		for (int i = 0; i < parts.size(); i++) {
+			if (i > 0)
+				b.append(',');
+			b.append(parts.get(i));
+		}
+		return b.append(')').toString();
+	}
+
+	/**
+	 * Collects the normal forms of the operands of a (flattened) 
+	 * concatenation or disjunction
+	 */
+	private static void collectParts(Node n, boolean dot, 
+			ArrayList<String> parts) {
+		for (int i = 0; i < n.getSize(); i++) {
+			Node child = unwrap(getChild(n, i));
+			if (dot ? child instanceof DotNode : child instanceof DisNode) {
+				collectParts(child, dot, parts);
+			}
+			else {
+				String part = normalForm(child);
+				if (!dot || !part.equals(String.valueOf(EPS)))
+					parts.add(part);
+			}
+		}
+	}
+
+	/**
+	 * Skips concatenations and disjunctions with a single child
+	 */
+	private static Node unwrap(Node n) {
+		while ((n instanceof DotNode || n instanceof DisNode) 
+				&& n.getSize() == 1)
+			n = getChild(n, 0);
+		return n;
+	}
+
 	/**
 	 * Enumerates possible modifying changes
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> modEnum() {
-		switch (changeRoot.getClass().getName()) {
+	private EnumResults modEnum() {
+		switch (nodeAt(changeRoot).getClass().getName()) {
 			case "regex.DisNode":
 				return disNodeModEnum();
 			case "regex.DotNode":
-				return dotNodeModEnum(null);
+				return dotNodeModEnum(-1);
 			case "regex.StarNode":
 				return starNodeModEnum();
 			case "regex.AlphNode":
@@ -267,44 +721,28 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> disNodeModEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults disNodeModEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		//find the enumeration starting position, based on changeNode
-		int startPos = 0;
-		if (changeRoot != changeNode) {
-			Node child = changeNode;
-			Node parent = changeNode.getParent();
-			while (parent != changeRoot) {
-				child = parent;
-				parent = child.getParent();
-			}
-			startPos = ((DisNode)changeRoot).getChildIndex(child);
-		}
+		int startPos = startPos(changeNode);
 
-		for (int i = startPos; i < changeRoot.getSize(); i++) {	
+		for (int i = startPos; i < node.getSize(); i++) {	
 			// Recursively call for all children, except changeNode itself.
-			if (changeNode != ((DisNode)changeRoot).getChild(i)) {
-				Regex temp = new Regex(this);
-				temp.changeRoot = ((DisNode)(temp.changeRoot)).getChild(i);
-				if (i > startPos || changeRoot == changeNode)
-					temp.changeNode = temp.changeRoot;
-				ret.addAll(temp.modEnum());
+			int[] child = childPath(changeRoot, i);
+			if (!Arrays.equals(changeNode, child)) {
+				Regex temp = shareTree();
+				temp.changeRoot = child;
+				if (i > startPos || Arrays.equals(changeRoot, changeNode))
+					temp.changeNode = child;
+				ret.addAll(new EnumTask(temp, EnumTask.MOD));
 			}
 
 		}
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName()
-				.equals("regex.DotNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			DotNode node = new DotNode(oldNode.getParent());
-			node.addChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.addAll(temp.dotNodeModEnum(oldNode));
-		}
+		if (!(parentOf(changeRoot) instanceof DotNode))
+			ret.addAll(dotModTask(node));
 
 		return ret;
 	}
@@ -312,86 +750,94 @@ public class Regex {
 	/**
 	 * Enumerates possible modifying changes (change root is concatenation)
 	 * 
+	 * @param alreadyEnumeratedChild index of the child not to enumerate 
+	 * again, -1 if none
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> dotNodeModEnum(Node alreadyEnumeratedChild) {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults dotNodeModEnum(int alreadyEnumeratedChild) {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		//find the enumeration starting position, based on changeNode
-		int startPos = 0;
-		if (changeRoot != changeNode) {
-			Node child = changeNode;
-			Node parent = changeNode.getParent();
-			while (parent != changeRoot) {
-				child = parent;
-				parent = child.getParent();
-			}
-			startPos = ((DotNode)changeRoot).getChildIndex(child);
-		}
-		else {
+		int startPos = startPos(changeNode);
+		if (Arrays.equals(changeRoot, changeNode)) {
 			// changeNode is same as changeRoot, so this branch has never 
 			// been enumerated before. So first, initial epsilon.
-			Regex temp = new Regex(this);
-			AlphNode newNode = new AlphNode(temp.changeRoot, EPS);
-			((DotNode)(temp.changeRoot)).addChild(0, newNode);
-			temp.changeRoot = newNode;
-			temp.changeNode = newNode;
-			ret.addAll(temp.alphNodeModEnum());
+			ret.addAll(epsilonModTask(0));
 		}
 
-		for (int i = startPos; i < changeRoot.getSize(); i++) {
+		for (int i = startPos; i < node.getSize(); i++) {
 			// Recursively call for all children, except the one already 
 			// enumerated (if any) or changeNode itself.
-			if (alreadyEnumeratedChild != ((DotNode)changeRoot).getChild(i)
-					&& changeNode != ((DotNode)changeRoot).getChild(i)) {
-				Regex temp = new Regex(this);
-				temp.changeRoot = ((DotNode)(temp.changeRoot)).getChild(i);
-				if (i != startPos || changeRoot == changeNode)
-					temp.changeNode = temp.changeRoot;
-				ret.addAll(temp.modEnum());
+			int[] child = childPath(changeRoot, i);
+			if (alreadyEnumeratedChild != i 
+					&& !Arrays.equals(changeNode, child)) {
+				Regex temp = shareTree();
+				temp.changeRoot = child;
+				if (i != startPos || Arrays.equals(changeRoot, changeNode))
+					temp.changeNode = child;
+				ret.addAll(new EnumTask(temp, EnumTask.MOD));
 			}
 
 			// add epsilon & enumerate
-			Regex temp = new Regex(this);
-			AlphNode newNode = new AlphNode(temp.changeRoot, EPS);
-			((DotNode)(temp.changeRoot)).addChild(i + 1, newNode);
-			temp.changeRoot = newNode;
-			temp.changeNode = newNode;
-			ret.addAll(temp.alphNodeModEnum());
+			ret.addAll(epsilonModTask(i + 1));
 
 		}
 
 		return ret;
 	}
 
+	/**
+	 * Adds an epsilon to the concatenation at changeRoot, and makes it the
+	 * change root
+	 * 
+	 * @param i where to add it
+	 * @return the enumeration task of the new epsilon
+	 */
+	private EnumTask epsilonModTask(int i) {
+		Regex temp = shareTree();
+		((DotNode)temp.copyPath(changeRoot)).addChild(i, new AlphNode(EPS));
+		temp.moveMarkers(changeRoot, INSERT, i);
+		temp.changeRoot = childPath(changeRoot, i);
+		temp.changeNode = temp.changeRoot;
+		return new EnumTask(temp, EnumTask.ALPH_MOD);
+	}
+
+	/**
+	 * Puts the node at changeRoot in a new concatenation, to add epsilons to
+	 * 
+	 * @param node the node at changeRoot
+	 * @return the enumeration task of the concatenation
+	 */
+	private EnumTask dotModTask(Node node) {
+		Regex temp = shareTree();
+		DotNode dot = new DotNode();
+		dot.addChild(node);
+		temp.wrapNode(changeRoot, dot);
+		return new EnumTask(temp, EnumTask.DOT_MOD, 0);
+	}
+
 	/**
 	 * Enumerates possible modifying changes (change root is Kleene star)
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> starNodeModEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults starNodeModEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		// Recursively call for the child, unless it is changeNode.
-		if (changeNode != ((StarNode)changeRoot).getChild()) {
-			Regex temp = new Regex(this);
-			temp.changeRoot = ((StarNode)(temp.changeRoot)).getChild();
-			if (changeRoot == changeNode)
-				temp.changeNode = temp.changeRoot;
-			ret.addAll(temp.modEnum());
+		int[] child = childPath(changeRoot, 0);
+		if (!Arrays.equals(changeNode, child)) {
+			Regex temp = shareTree();
+			temp.changeRoot = child;
+			if (Arrays.equals(changeRoot, changeNode))
+				temp.changeNode = child;
+			ret.addAll(new EnumTask(temp, EnumTask.MOD));
 		}
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName()
-				.equals("regex.DotNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			DotNode node = new DotNode(oldNode.getParent());
-			node.addChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.addAll(temp.dotNodeModEnum(oldNode));
-		}
+		if (!(parentOf(changeRoot) instanceof DotNode))
+			ret.addAll(dotModTask(node));
 
 		return ret;
 	}
@@ -401,28 +847,21 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> alphNodeModEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults alphNodeModEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		for (char ch : alphabet) {
-			if (ch != ((AlphNode)changeRoot).getChar()) {
-				Regex temp = new Regex(this);
-				((AlphNode)(temp.changeRoot)).setChar(ch);
+			if (ch != ((AlphNode)node).getChar()) {
+				Regex temp = shareTree();
+				((AlphNode)temp.copyPath(changeRoot)).setChar(ch);
 				temp.changeNode = temp.changeRoot;
 				ret.add(temp);
 			}
 		}
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName().equals("regex.DotNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			DotNode node = new DotNode(oldNode.getParent());
-			node.addChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.addAll(temp.dotNodeModEnum(oldNode));
-		}
+		if (!(parentOf(changeRoot) instanceof DotNode))
+			ret.addAll(dotModTask(node));
 
 		return ret;
 	}
@@ -432,14 +871,14 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> starEnum() {
-		switch (changeRoot.getClass().getName()) {
+	private EnumResults starEnum() {
+		switch (nodeAt(changeRoot).getClass().getName()) {
 			case "regex.DisNode":
 				return disNodeStarEnum();
 			case "regex.DotNode":
 				return dotNodeStarEnum();
 			case "regex.StarNode":
-				return new ArrayList<Regex> ();
+				return new EnumResults();
 			case "regex.AlphNode":
 				return alphNodeStarEnum();
 			default:
@@ -448,134 +887,102 @@ public class Regex {
 	}
 
 	/**
-	 * Enumerates possible modifying changes (change root is disjunction)
+	 * Enumerates possible Star changes (change root is disjunction)
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> disNodeStarEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults disNodeStarEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		//find the enumeration starting position, based on changeNode
-		int startPos = 0;
-		if (changeRoot != changeNode) {
-			Node child = changeNode;
-			Node parent = changeNode.getParent();
-			while (parent != changeRoot) {
-				child = parent;
-				parent = child.getParent();
-			}
-			startPos = ((DisNode)changeRoot).getChildIndex(child);
-		}
+		int startPos = startPos(changeNode);
 
-		for (int i = startPos; i < changeRoot.getSize(); i++) {
+		for (int i = startPos; i < node.getSize(); i++) {
 			// Recursively call for all children
-			Regex temp = new Regex(this);
-			temp.changeRoot = ((DisNode)(temp.changeRoot)).getChild(i);
-			if (i != startPos || changeRoot == changeNode)
+			Regex temp = shareTree();
+			temp.changeRoot = childPath(changeRoot, i);
+			if (i != startPos || Arrays.equals(changeRoot, changeNode))
 				temp.changeNode = temp.changeRoot;
-			ret.addAll(temp.starEnum());
+			ret.addAll(new EnumTask(temp, EnumTask.STAR));
 
 		}
 
 		// Add star to the node itself
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName()
-				.equals("regex.StarNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			StarNode node = new StarNode(oldNode.getParent());
-			node.setChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.add(temp);
-		}
+		if (!(parentOf(changeRoot) instanceof StarNode))
+			ret.add(starred(node));
 
 		return ret;
 	}
 
 	/**
-	 * Enumerates possible modifying changes (change root is concatenation)
+	 * Enumerates possible Star changes (change root is concatenation)
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> dotNodeStarEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults dotNodeStarEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		//find the enumeration starting position, based on changeNode
-		int startPos = 0;
-		if (changeRoot != changeNode) {
-			Node child = changeNode;
-			Node parent = changeNode.getParent();
-			while (parent != changeRoot) {
-				child = parent;
-				parent = child.getParent();
-			}
-			startPos = ((DotNode)changeRoot).getChildIndex(child);
-		}
+		int startPos = startPos(changeNode);
 
-		for (int i = startPos; i < changeRoot.getSize(); i++) {
+		for (int i = startPos; i < node.getSize(); i++) {
 			// Recursively call for all children
-			Regex temp = new Regex(this);
-			temp.changeRoot = ((DotNode)(temp.changeRoot)).getChild(i);
-			if (i != startPos || changeRoot == changeNode)
+			Regex temp = shareTree();
+			temp.changeRoot = childPath(changeRoot, i);
+			if (i != startPos || Arrays.equals(changeRoot, changeNode))
 				temp.changeNode = temp.changeRoot;
-			ret.addAll(temp.starEnum());
+			ret.addAll(new EnumTask(temp, EnumTask.STAR));
 
 		}
 
 		// Add star to the node itself
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName()
-				.equals("regex.StarNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			StarNode node = new StarNode(oldNode.getParent());
-			node.setChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.add(temp);
-		}
+		if (!(parentOf(changeRoot) instanceof StarNode))
+			ret.add(starred(node));
 
 		return ret;
 	}
 
-
 	/**
-	 * Enumerates possible modifying changes (change root is an alphabet char)
+	 * Enumerates possible Star changes (change root is an alphabet char)
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> alphNodeStarEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults alphNodeStarEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		// No point in adding star to epsilon!
-		if (((AlphNode)changeRoot).getChar() == EPS)
+		if (((AlphNode)node).getChar() == EPS)
 			return ret;
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName()
-				.equals("regex.StarNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			StarNode node = new StarNode(oldNode.getParent());
-			node.setChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.add(temp);
-		}
+		if (!(parentOf(changeRoot) instanceof StarNode))
+			ret.add(starred(node));
 
 		return ret;
 	}
 
+	/**
+	 * A copy of this with a star added on the node at changeRoot
+	 */
+	private Regex starred(Node node) {
+		Regex temp = shareTree();
+		StarNode star = new StarNode();
+		star.setChild(node);
+		temp.wrapNode(changeRoot, star);
+		return temp;
+	}
+
 	/**
 	 * Enumerates possible expanding changes
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> expEnum() {
-		switch (changeRoot.getClass().getName()) {
+	private EnumResults expEnum() {
+		switch (nodeAt(changeRoot).getClass().getName()) {
 			case "regex.DisNode":
-				return disNodeExpEnum(null);
+				return disNodeExpEnum(-1);
 			case "regex.DotNode":
 				return dotNodeExpEnum();
 			case "regex.StarNode":
@@ -590,53 +997,45 @@ public class Regex {
 	/**
 	 * Enumerates possible expanding changes (change root is disjunction)
 	 * 
+	 * @param alreadyEnumeratedChild index of the child not to enumerate 
+	 * again, -1 if none
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> disNodeExpEnum(Node alreadyEnumeratedChild) {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults disNodeExpEnum(int alreadyEnumeratedChild) {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		//find the enumeration starting position, based on expChangeNode
-		int startPos = 0;
-		if (changeRoot != expChangeNode) {
-			Node child = expChangeNode;
-			Node parent = expChangeNode.getParent();
-			while (parent != changeRoot) {
-				child = parent;
-				parent = child.getParent();
-			}
-			startPos = ((DisNode)changeRoot).getChildIndex(child);
-		}
+		int startPos = startPos(expChangeNode);
 
-		for (int i = startPos; i < changeRoot.getSize(); i++) {	
+		for (int i = startPos; i < node.getSize(); i++) {	
 			// Recursively call for all children, except the one already 
 			// enumerated (if any). 
-			if (alreadyEnumeratedChild != ((DisNode)changeRoot).getChild(i)) {
-				Regex temp = new Regex(this);
-				temp.changeRoot = ((DisNode)(temp.changeRoot)).getChild(i);
-				if (i != startPos || changeRoot == expChangeNode)
+			if (alreadyEnumeratedChild != i) {
+				Regex temp = shareTree();
+				temp.changeRoot = childPath(changeRoot, i);
+				if (i != startPos || Arrays.equals(changeRoot, expChangeNode))
 					temp.expChangeNode = temp.changeRoot;
-				ret.addAll(temp.expEnum());
+				ret.addAll(new EnumTask(temp, EnumTask.EXP));
 			}
 		}
 
 		for (char ch : alphabet) {
-			Regex temp = new Regex(this);
-			AlphNode newNode = new AlphNode (temp.changeRoot, ch);
 			boolean alreadyExists = false;
-			for (int i = 0; i < changeRoot.getSize(); i++) {
-				Node n = ((DisNode)(temp.changeRoot)).getChild(i);
-				if ((n.getClass().getName().equals("regex.AlphNode") 
-						&& ch == ((AlphNode)n).getChar()) 
-						|| (n.getClass().getName().equals("regex.StarNode") 
-								&& ch == EPS)) {
+			for (int i = 0; i < node.getSize(); i++) {
+				Node n = ((DisNode)node).getChild(i);
+				if ((n instanceof AlphNode && ch == ((AlphNode)n).getChar()) 
+						|| (n instanceof StarNode && ch == EPS)) {
 					alreadyExists = true;
 				}
 			}
 			if (!alreadyExists) {
-				((DisNode)(temp.changeRoot)).addChild(newNode);
-				temp.modRangeRoot = newNode;
-				temp.changeNode = newNode;
-				temp.expChangeNode = newNode;
+				Regex temp = shareTree();
+				((DisNode)temp.copyPath(changeRoot)).addChild(
+						new AlphNode(ch));
+				temp.modRangeRoot = childPath(changeRoot, node.getSize());
+				temp.changeNode = temp.modRangeRoot;
+				temp.expChangeNode = temp.modRangeRoot;
 				ret.add(temp);
 			}
 		}
@@ -650,39 +1049,23 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> dotNodeExpEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults dotNodeExpEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
 
 		//find the enumeration starting position, based on expChangeNode
-		int startPos = 0;
-		if (changeRoot != expChangeNode) {
-			Node child = expChangeNode;
-			Node parent = expChangeNode.getParent();
-			while (parent != changeRoot) {
-				child = parent;
-				parent = child.getParent();
-			}
-			startPos = ((DotNode)changeRoot).getChildIndex(child);
-		}
+		int startPos = startPos(expChangeNode);
 
-		for (int i = startPos; i < changeRoot.getSize(); i++) {	
-			Regex temp = new Regex(this);
-			temp.changeRoot = ((DotNode)(temp.changeRoot)).getChild(i);
-			if (i != startPos || changeRoot == expChangeNode)
+		for (int i = startPos; i < node.getSize(); i++) {	
+			Regex temp = shareTree();
+			temp.changeRoot = childPath(changeRoot, i);
+			if (i != startPos || Arrays.equals(changeRoot, expChangeNode))
 				temp.expChangeNode = temp.changeRoot;
-			ret.addAll(temp.expEnum());
+			ret.addAll(new EnumTask(temp, EnumTask.EXP));
 		}
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName().equals("regex.DisNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			DisNode node = new DisNode(oldNode.getParent());
-			node.addChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.addAll(temp.disNodeExpEnum(oldNode));
-		}
+		if (!(parentOf(changeRoot) instanceof DisNode))
+			ret.addAll(disExpTask(node));
 
 		return ret;
 	}
@@ -692,25 +1075,17 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> starNodeExpEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults starNodeExpEnum() {
+		EnumResults ret = new EnumResults();
 
-		Regex temp = new Regex(this);
-		temp.changeRoot = ((StarNode)(temp.changeRoot)).getChild();
-		if (changeRoot == expChangeNode)
+		Regex temp = shareTree();
+		temp.changeRoot = childPath(changeRoot, 0);
+		if (Arrays.equals(changeRoot, expChangeNode))
 			temp.expChangeNode = temp.changeRoot;
-		ret.addAll(temp.expEnum());
+		ret.addAll(new EnumTask(temp, EnumTask.EXP));
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName().equals("regex.DisNode")) {
-			temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			DisNode node = new DisNode(oldNode.getParent());
-			node.addChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.addAll(temp.disNodeExpEnum(oldNode));
-		}
+		if (!(parentOf(changeRoot) instanceof DisNode))
+			ret.addAll(disExpTask(nodeAt(changeRoot)));
 
 		return ret;
 	}
@@ -720,30 +1095,36 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> alphNodeExpEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex> ();
+	private EnumResults alphNodeExpEnum() {
+		EnumResults ret = new EnumResults();
 
-		if (changeRoot.getParent() == null || 
-				!changeRoot.getParent().getClass().getName().equals("regex.DisNode")) {
-			Regex temp = new Regex(this);
-			Node oldNode = temp.changeRoot;
-			DisNode node = new DisNode(oldNode.getParent());
-			node.addChild(oldNode);
-			temp.replaceNode(oldNode, node);
-			oldNode.setParent(node);
-			ret.addAll(temp.disNodeExpEnum(oldNode));
-		}
+		if (!(parentOf(changeRoot) instanceof DisNode))
+			ret.addAll(disExpTask(nodeAt(changeRoot)));
 
 		return ret;
 	}
 
+	/**
+	 * Puts the node at changeRoot in a new disjunction, to add disjuncts to
+	 * 
+	 * @param node the node at changeRoot
+	 * @return the enumeration task of the disjunction
+	 */
+	private EnumTask disExpTask(Node node) {
+		Regex temp = shareTree();
+		DisNode dis = new DisNode();
+		dis.addChild(node);
+		temp.wrapNode(changeRoot, dis);
+		return new EnumTask(temp, EnumTask.DIS_EXP, 0);
+	}
+
 	/**
 	 * Enumerates possible refining changes
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> refEnum() {
-		switch (changeRoot.getClass().getName()) {
+	private EnumResults refEnum() {
+		switch (nodeAt(changeRoot).getClass().getName()) {
 			case "regex.DisNode":
 				return disNodeRefEnum();
 			case "regex.DotNode":
@@ -762,27 +1143,27 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> disNodeRefEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex>();
-
-		if (changeRoot.getSize() == 1) {
-			Regex temp = new Regex(this);
-			temp.changeRoot = ((DisNode)(temp.changeRoot)).getChild(0);
-			ret.addAll(temp.refEnum());
+	private EnumResults disNodeRefEnum() {
+		EnumResults ret = new EnumResults();
+		Node node = nodeAt(changeRoot);
+
+		if (node.getSize() == 1) {
+			Regex temp = shareTree();
+			temp.changeRoot = childPath(changeRoot, 0);
+			ret.addAll(new EnumTask(temp, EnumTask.REF));
 		}
 		else {
-			for (int i = 0; i < changeRoot.getSize(); i++) {
-				Regex temp = new Regex(this);
-				temp.changeRoot = ((DisNode)(temp.changeRoot)).getChild(i);
-				ret.addAll(temp.refEnum());
+			for (int i = 0; i < node.getSize(); i++) {
+				Regex temp = shareTree();
+				temp.changeRoot = childPath(changeRoot, i);
+				ret.addAll(new EnumTask(temp, EnumTask.REF));
 				
-				temp = new Regex(this);
-				((DisNode)(temp.changeRoot)).removeChild(i);
-				if (temp.changeRoot.getSize() == 1) {
-					Node child = ((DisNode)(temp.changeRoot)).getChild(0);
-					temp.replaceNode(temp.changeRoot, child);
-					child.setParent(child.getParent().getParent());
-				}
+				temp = shareTree();
+				DisNode dis = (DisNode)temp.copyPath(changeRoot);
+				dis.removeChild(i);
+				temp.moveMarkers(changeRoot, REMOVE, i);
+				if (dis.getSize() == 1)
+					temp.unwrapNode(changeRoot, dis.getChild(0));
 				ret.add(temp);
 			}
 		}
@@ -794,13 +1175,13 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> dotNodeRefEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex>();
+	private EnumResults dotNodeRefEnum() {
+		EnumResults ret = new EnumResults();
 
-		for (int i = 0; i < ((DotNode)changeRoot).getSize(); i++) {
-			Regex temp = new Regex(this);
-			temp.changeRoot = ((DotNode)(temp.changeRoot)).getChild(i);
-			ret.addAll(temp.refEnum());
+		for (int i = 0; i < nodeAt(changeRoot).getSize(); i++) {
+			Regex temp = shareTree();
+			temp.changeRoot = childPath(changeRoot, i);
+			ret.addAll(new EnumTask(temp, EnumTask.REF));
 		}
 
 		return ret;
@@ -811,17 +1192,16 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> starNodeRefEnum() {
-		ArrayList<Regex> ret = new ArrayList<Regex>();
+	private EnumResults starNodeRefEnum() {
+		EnumResults ret = new EnumResults();
 
-		Regex temp = new Regex(this);
-		temp.changeRoot = ((StarNode)(temp.changeRoot)).getChild();
-		ret.addAll(temp.refEnum());
+		Regex temp = shareTree();
+		temp.changeRoot = childPath(changeRoot, 0);
+		ret.addAll(new EnumTask(temp, EnumTask.REF));
 
-		temp = new Regex(this);
-		Node child = ((StarNode)(temp.changeRoot)).getChild();
-		temp.replaceNode(temp.changeRoot, child);
-		child.setParent(child.getParent().getParent());
+		temp = shareTree();
+		temp.unwrapNode(changeRoot, 
+				((StarNode)nodeAt(changeRoot)).getChild());
 		ret.add(temp);
 
 		return ret;
@@ -832,137 +1212,129 @@ public class Regex {
 	 * 
 	 * @return an Arraylist of generated regexes
 	 */
-	private ArrayList<Regex> alphNodeRefEnum() {
-		return new ArrayList<Regex>();
-	}
-
-	/**
-	 * Setter for changeNode
-	 * 
-	 * @param changeNode
-	 */
-	public void setChangeNode(Node changeNode) {
-		this.changeNode = changeNode;
+	private EnumResults alphNodeRefEnum() {
+		return new EnumResults();
 	}
 
 	/**
-	 * Setter for ExpChangeNode
+	 * Where the enumeration of changeRoot's children starts: the child a 
+	 * marker is in, or 0 if the marker is changeRoot itself
 	 * 
-	 * @param expChangeNode
+	 * @param marker changeNode or expChangeNode
 	 */
-	public void setExpChangeNode(Node expChangeNode) {
-		this.expChangeNode = expChangeNode;
+	private int startPos(int[] marker) {
+		return Arrays.equals(changeRoot, marker) ? 0 
+				: marker[changeRoot.length];
 	}
 
 	/**
-	 * Setter for changeRoot
-	 * 
-	 * @param changeRoot
-	 */
-	public void setChangeRoot(Node changeRoot) {
-		this.changeRoot = changeRoot;
-	}
-
-	/** 
-	 * Setter for modRangeRoot
+	 * The change markers: changeNode, expChangeNode, changeRoot and 
+	 * modRangeRoot, as paths from the root (null if the node is not in the
+	 * tree any more). The paths must not be changed.
 	 * 
-	 * @param modRangeRoot
+	 * @return the markers
 	 */
-	public void setModRangeRoot(Node modRangeRoot) {
-		this.modRangeRoot = modRangeRoot;
+	int[][] getMarkers() {
+		return new int[][] {changeNode, expChangeNode, changeRoot, 
+				modRangeRoot};
 	}
 
 	/**
-	 * getter for changeNode
+	 * Sets the change markers, in the order of getMarkers()
 	 * 
-	 * @return changeNode
+	 * @param markers the markers
 	 */
-	public Node getChangeNode() {
-		return changeNode;
+	void setMarkers(int[][] markers) {
+		changeNode = markers[0];
+		expChangeNode = markers[1];
+		changeRoot = markers[2];
+		modRangeRoot = markers[3];
 	}
 
 	/**
-	 * Getter for ExpChangeNode
+	 * Gets the no of change made to this regex so far
 	 * 
-	 * @return ExpChangeNode
+	 * @return no of change made to this regex so far
 	 */
-	public Node getExpChangeNode() {
-		return expChangeNode;
+	public int getDistance() {
+		return distance;
 	}
 
 	/**
-	 * Getter for changeRoot
+	 * Sets the no of changes made to this regex
 	 * 
-	 * @return changeRoot
+	 * @param distance the no of changes
 	 */
-	public Node getChangeRoot() {
-		return changeRoot;
+	public void setDistance(int distance) {
+		this.distance = distance;
 	}
 
 	/**
-	 * Getter for modRangeRoot
+	 * Have we started refining?
 	 * 
-	 * @return modRangeRoot
+	 * @return the value of the flag
 	 */
-	public Node getModRangeRoot() {
-		return modRangeRoot;
+	public boolean isRefiningStarted() {
+		return refiningStartedFlag;
 	}
 
 	/**
-	 * Replaces a node in the tree with a new one
+	 * Is this regex ready to start refining?
 	 * 
-	 * @param oldNode the old node
-	 * @param newNode the new node
+	 * @return value of the flag
 	 */
-	private void replaceNode (Node oldNode, Node newNode) {
-		if (oldNode.getParent() != null) 
-			oldNode.getParent().replaceChild(oldNode, newNode);
-		else
-			root = newNode;
-		if (changeNode == oldNode)
-			changeNode = newNode;
-		if (expChangeNode == oldNode)
-			expChangeNode = newNode;
-		if (changeRoot == oldNode)
-			changeRoot = newNode;
-		if (modRangeRoot == oldNode)
-			modRangeRoot = newNode;
+	public boolean isReadyToRefine() {
+		return readyToRefineFlag;
 	}
 
 	/**
-	 * Gets the no of change made to this regex so far
+	 * Sets if we are ready to refine
 	 * 
-	 * @return no of change made to this regex so far
+	 * @param readyToRefineFlag the flag value
 	 */
-	public int getDistance() {
-		return distance;
+	public void setReadyToRefineFlag(boolean readyToRefineFlag) {
+		this.readyToRefineFlag = readyToRefineFlag;
 	}
 
 	/**
-	 * Have we started refining?
+	 * A key for the position of the change markers (changeNode, 
+	 * expChangeNode, changeRoot, modRangeRoot), as paths of child indices from
+	 * the root. Together with the canonical form of the tree, it identifies 
+	 * the future enumerations of this regex.
 	 * 
-	 * @return the value of the flag
+	 * @return the marker key
 	 */
-	public boolean isRefiningStarted() {
-		return refiningStartedFlag;
+	public String getMarkerKey() {
+		StringBuilder b = new StringBuilder();
+		appendPath(b, changeNode);
+		b.append(';');
+		appendPath(b, expChangeNode);
+		b.append(';');
+		appendPath(b, changeRoot);
+		b.append(';');
+		appendPath(b, modRangeRoot);
+		return b.toString();
 	}
 
 	/**
-	 * Is this regex ready to start refining?
-	 * 
-	 * @return value of the flag
+	 * Appends a path ('x' if the node is not in the tree)
 	 */
-	public boolean isReadyToRefine() {
-		return readyToRefineFlag;
+	private static void appendPath(StringBuilder b, int[] path) {
+		if (path == null) {
+			b.append('x');
+			return;
+		}
+		for (int i : path)
+			b.append('.').append(i);
 	}
 
 	/**
-	 * Sets if we are ready to refine
+	 * Getter for the tree root
 	 * 
-	 * @param readyToRefineFlag the flag value
+	 * @return root
 	 */
-	public void setReadyToRefineFlag(boolean readyToRefineFlag) {
-		this.readyToRefineFlag = readyToRefineFlag;
+	public Node getRoot() {
+		return root;
 	}
 
 	/**
@@ -983,4 +1355,269 @@ public class Regex {
 		return root.toString();
 	}
 
+	/**
+	 * One (recursive) enumeration call, as a fork/join task
+	 */
+	@SuppressWarnings("serial")
+	private static class EnumTask extends RecursiveTask<ArrayList<Regex>> {
+		static final int ALL = 0;
+		static final int MOD = 1;
+		static final int STAR = 2;
+		static final int EXP = 3;
+		static final int REF = 4;
+		static final int ALPH_MOD = 5;
+		static final int DOT_MOD = 6;
+		static final int DIS_EXP = 7;
+
+		// The regex we call the enumeration on
+		private Regex re;
+		// Which enumeration
+		private int kind;
+		// Index of the child already enumerated (DOT_MOD and DIS_EXP only,
+		// -1 if none)
+		private int alreadyEnumeratedChild;
+
+		EnumTask(Regex re, int kind) {
+			this(re, kind, -1);
+		}
+
+		EnumTask(Regex re, int kind, int alreadyEnumeratedChild) {
+			this.re = re;
+			this.kind = kind;
+			this.alreadyEnumeratedChild = alreadyEnumeratedChild;
+		}
+
+		@Override
+		protected ArrayList<Regex> compute() {
+			return parts().join();
+		}
+
+		/**
+		 * Runs the call, without running the calls it makes
+		 */
+		EnumResults parts() {
+			switch (kind) {
+				case ALL:
+					return re.changes();
+				case MOD:
+					return re.modEnum();
+				case STAR:
+					return re.starEnum();
+				case EXP:
+					return re.expEnum();
+				case REF:
+					return re.refEnum();
+				case ALPH_MOD:
+					return re.alphNodeModEnum();
+				case DOT_MOD:
+					return re.dotNodeModEnum(alreadyEnumeratedChild);
+				case DIS_EXP:
+					return re.disNodeExpEnum(alreadyEnumeratedChild);
+				default:
+					return null;
+			}
+		}
+	}
+
+	/**
+	 * Collects the results of an enumeration call in order: regexes, and 
+	 * the (recursive) calls it makes, which are not run yet. join() runs
+	 * them; inside a fork/join pool, they are forked while the pool has few
+	 * queued tasks.
+	 */
+	private static class EnumResults {
+		// Regexes and calls, in order
+		private ArrayList<Object> parts;
+
+		EnumResults() {
+			parts = new ArrayList<Object>();
+		}
+
+		void add(Regex re) {
+			parts.add(re);
+		}
+
+		void addAll(EnumTask task) {
+			parts.add(task);
+		}
+
+		/**
+		 * Runs the calls, and returns all results in order
+		 */
+		ArrayList<Regex> join() {
+			ArrayList<Regex> ret = new ArrayList<Regex>();
+			if (!ForkJoinTask.inForkJoinPool()) {
+				joinInline(ret);
+				return ret;
+			}
+
+			ArrayList<Object> results = new ArrayList<Object>(parts);
+			for (int i = 0; i < results.size(); i++)
+				if (results.get(i) instanceof EnumTask
+						&& ForkJoinTask.getSurplusQueuedTaskCount() <= 3)
+					((EnumTask)results.get(i)).fork();
+				else if (results.get(i) instanceof EnumTask)
+					results.set(i, ((EnumTask)results.get(i)).compute());
+			for (Object part : results) {
+				if (part instanceof Regex)
+					ret.add((Regex)part);
+				else if (part instanceof EnumTask)
+					ret.addAll(((EnumTask)part).join());
+				else
+					ret.addAll(castList(part));
+			}
+			return ret;
+		}
+
+		/**
+		 * Runs the calls right away, in the calling thread
+		 */
+		private void joinInline(ArrayList<Regex> ret) {
+			for (Object part : parts) {
+				if (part instanceof Regex)
+					ret.add((Regex)part);
+				else
+					((EnumTask)part).parts().joinInline(ret);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private static ArrayList<Regex> castList(Object part) {
+			return (ArrayList<Regex>)part;
+		}
+	}
+
+	/**
+	 * Walks the enumeration calls depth first, running each one only when 
+	 * its results are needed. Splitting hands out a prefix: the calls we are
+	 * in the middle of, or the first half of the remaining ones.
+	 * 
+	 * Each regex has an edit path: the index of the part taken in each call,
+	 * from the first level down. getPossibleChange() rebuilds the regex from
+	 * it.
+	 */
+	public static class ChangeSpliterator implements Spliterator<Regex> {
+		// The parts of the calls we are in, innermost last
+		private ArrayList<List<Object>> stack;
+		// The next part to visit, for each call of the stack
+		private ArrayList<Integer> positions;
+		// Has it been split? (edit paths are only known if not)
+		private boolean split;
+
+		ChangeSpliterator() {
+			stack = new ArrayList<List<Object>>();
+			positions = new ArrayList<Integer>();
+		}
+
+		ChangeSpliterator(List<Object> parts) {
+			this();
+			push(parts);
+		}
+
+		private void push(List<Object> parts) {
+			stack.add(parts);
+			positions.add(0);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Regex> action) {
+			Regex re = nextChange();
+			if (re == null)
+				return false;
+			action.accept(re);
+			return true;
+		}
+
+		/**
+		 * The next regex
+		 * 
+		 * @return the regex, or null if there are no more
+		 */
+		public Regex nextChange() {
+			while (!stack.isEmpty()) {
+				int top = stack.size() - 1;
+				List<Object> parts = stack.get(top);
+				int pos = positions.get(top);
+				if (pos == parts.size()) {
+					stack.remove(top);
+					positions.remove(top);
+					continue;
+				}
+				Object part = parts.get(pos);
+				// visited parts can be collected
+				parts.set(pos, null);
+				positions.set(top, pos + 1);
+				if (part instanceof Regex)
+					return (Regex)part;
+				push(((EnumTask)part).parts().parts);
+			}
+			return null;
+		}
+
+		/**
+		 * The edit path of the last regex returned
+		 * 
+		 * @return the path
+		 */
+		public char[] getLastPath() {
+			if (split)
+				throw new IllegalStateException("Edit paths are not known "
+						+ "after splitting");
+			char[] path = new char[positions.size()];
+			for (int i = 0; i < path.length; i++)
+				path[i] = (char)(positions.get(i) - 1);
+			return path;
+		}
+
+		@Override
+		public Spliterator<Regex> trySplit() {
+			// the outermost call with parts left
+			int k = 0;
+			while (k < stack.size() 
+					&& positions.get(k) == stack.get(k).size())
+				k++;
+			if (k == stack.size())
+				return null;
+			split = true;
+
+			ChangeSpliterator prefix = new ChangeSpliterator();
+			if (k < stack.size() - 1) {
+				// hand out the calls we are in the middle of
+				prefix.stack.addAll(stack.subList(k + 1, stack.size()));
+				prefix.positions.addAll(positions.subList(k + 1, 
+						stack.size()));
+				stack.subList(k + 1, stack.size()).clear();
+				positions.subList(k + 1, positions.size()).clear();
+				return prefix;
+			}
+
+			// hand out the first half of the remaining parts
+			List<Object> parts = stack.get(k);
+			int pos = positions.get(k);
+			int half = (parts.size() - pos) / 2;
+			if (half == 0) {
+				if (!(parts.get(pos) instanceof EnumTask))
+					return null;
+				// a single call left: go into it, and split again
+				positions.set(k, pos + 1);
+				push(((EnumTask)parts.get(pos)).parts().parts);
+				return trySplit();
+			}
+			prefix.push(new ArrayList<Object>(
+					parts.subList(pos, pos + half)));
+			positions.set(k, pos + half);
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+
 }
@@ -15,33 +15,15 @@ public class StarNode extends Node {
 
 	/**
 	 * Basic constructor
-	 * 
-	 * @param parent parent of the node; null if no parent
 	 */
-	public StarNode(Node parent) {
-		super(parent);
+	public StarNode() {
 	}
 
-	/**
-	 * Copy constructor
-	 * 
-	 * @param other the node we want to copy
-	 * @param parent the parent of the new node we are creating
-	 * @param re The regular expression tree this new node is in
-	 * @param otherRE The regular expression the other node is in
-	 */
-	public StarNode(StarNode other, Node parent, Regex re, Regex otherRE) {
-		super(other, parent, re, otherRE);
-
-		if (other.child.getClass().getName().equals("regex.DisNode"))
-			child = new DisNode((DisNode)other.child, this, re, otherRE);
-		else if (other.child.getClass().getName().equals("regex.DotNode")) 
-			child = new DotNode((DotNode)other.child, this, re, otherRE);
-		else if (other.child.getClass().getName().equals("regex.StarNode")) 
-			child = new StarNode((StarNode)other.child, this, re, otherRE);
-		else if (other.child.getClass().getName().equals("regex.AlphNode")) 
-			child = new AlphNode((AlphNode)other.child, this, re, otherRE);
-
+	@Override
+	Node copy() {
+		StarNode n = new StarNode();
+		n.child = child;
+		return n;
 	}
 
 	/**
@@ -53,16 +35,27 @@ public class StarNode extends Node {
 				: (child.toString() + "*");
 	}
 
+	@Override
+	protected long computeHash() {
+		return mix(2, child.getStructuralHash());
+	}
+
+	@Override
+	protected String computeCanonicalForm() {
+		return "*(" + child.getCanonicalForm() + ")";
+	}
+
 	/**
 	 * Removes The Kleene star child so we won't have (w*)*, and call 
 	 * recursively for the child
 	 */
 	@Override
-	public void eatChildren() {
+	void eatChildren() {
 		child.eatChildren();
 		if (child.getClass().getName().equals("regex.StarNode")) {
 			StarNode sn = (StarNode)child;
 			child = sn.child;
+			invalidate();
 		}	
 	}
 	
@@ -70,16 +63,18 @@ public class StarNode extends Node {
 	 * Replaces the child with another node
 	 */
 	@Override
-	public void replaceChild(Node prev, Node next) {
-		child = next;;
+	void replaceChild(int i, Node next) {
+		child = next;
+		invalidate();
 	}
 
 	/**
 	 * Sets the child to be a node
 	 * @param child
 	 */
-	public void setChild(Node child) {
+	void setChild(Node child) {
 		this.child = child;
+		invalidate();
 	}
 	
 	/**